@@ -0,0 +1,59 @@
+package org.graylog2.plugins.slack;
+
+import com.google.common.base.Ticker;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps resolved host addresses for a limited time, so DNS isn't queried for every post.
+ */
+public class AddressCache {
+
+    private final long ttlNanos;
+    private final Ticker ticker;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    public AddressCache(long ttl, TimeUnit unit) {
+        this(ttl, unit, Ticker.systemTicker());
+    }
+
+    AddressCache(long ttl, TimeUnit unit, Ticker ticker) {
+        this.ttlNanos = unit.toNanos(ttl);
+        this.ticker = ticker;
+    }
+
+    public InetSocketAddress resolve(String host, int port) throws UnknownHostException {
+        return new InetSocketAddress(resolve(host), port);
+    }
+
+    public synchronized InetAddress resolve(String host) throws UnknownHostException {
+        final long now = ticker.read();
+        final Entry entry = entries.get(host);
+        if (entry != null && now - entry.resolvedAt < ttlNanos) {
+            return entry.address;
+        }
+
+        final InetAddress address = lookup(host);
+        entries.put(host, new Entry(address, now));
+        return address;
+    }
+
+    InetAddress lookup(String host) throws UnknownHostException {
+        return InetAddress.getByName(host);
+    }
+
+    private static class Entry {
+        private final InetAddress address;
+        private final long resolvedAt;
+
+        private Entry(InetAddress address, long resolvedAt) {
+            this.address = address;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+}
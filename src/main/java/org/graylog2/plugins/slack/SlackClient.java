@@ -1,82 +1,134 @@
 package org.graylog2.plugins.slack;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.io.ByteStreams;
-import org.apache.commons.lang3.StringUtils;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugins.slack.configuration.SlackConfiguration;
+import org.graylog2.plugins.slack.configuration.SlackConfigurationRequestFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
-import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
-import java.net.Proxy;
-import java.net.URI;
-import java.net.URISyntaxException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
 
 public class SlackClient {
 
     private static final Logger LOG = LoggerFactory.getLogger(SlackClient.class);
 
+    private static final int WARM_UP_TIMEOUT_MILLIS = 10000;
+    private static final int UPLOAD_TIMEOUT_MILLIS = 60000;
+    private static final String SLACK_API_URL = "https://slack.com/api/";
+    private static final String JSON = "application/json; charset=utf-8";
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
     private final String webhookUrl;
-    private final String proxyURL;
+    private final String apiUrl;
+    private final AddressCache addressCache;
+    private final ProxyPool proxies;
 
     public SlackClient(Configuration configuration) {
+        this(configuration, SLACK_API_URL);
+    }
+
+    @VisibleForTesting
+    SlackClient(Configuration configuration, String apiUrl) {
         this.webhookUrl = configuration.getString(SlackConfiguration.CK_WEBHOOK_URL);
-        this.proxyURL = configuration.getString(SlackConfiguration.CK_PROXY_ADDRESS);
+        this.apiUrl = apiUrl;
+        this.addressCache = new AddressCache(configuration.getInt(SlackConfiguration.CK_DNS_CACHE_TTL,
+                SlackConfigurationRequestFactory.DEFAULT_DNS_CACHE_TTL_SECONDS), TimeUnit.SECONDS);
+        this.proxies = ProxyPool.parse(configuration.getString(SlackConfiguration.CK_PROXY_ADDRESS), addressCache);
     }
 
-    public void send(SlackMessage message) throws SlackClientException {
-        final URL url;
+    /**
+     * Resolves the webhook and proxy hosts and opens a connection to the webhook, which the JVM keeps alive for the
+     * next post. Slack doesn't accept the request, but any HTTP response proves that the webhook is reachable.
+     */
+    public void warmUp() throws SlackClientException {
+        final URL url = webhookUrl();
         try {
-            url = new URL(webhookUrl);
-        } catch (MalformedURLException e) {
-            throw new SlackClientException("Error while constructing webhook URL.", e);
+            addressCache.resolve(url.getHost());
+        } catch (IOException e) {
+            throw new SlackClientException("Could not resolve webhook host " + url.getHost(), e);
         }
 
-        final HttpURLConnection conn;
+        final HttpURLConnection conn = connect(url, "HEAD", WARM_UP_TIMEOUT_MILLIS, -1, null, null);
         try {
-            if (!StringUtils.isEmpty(proxyURL)) {
-                final URI proxyUri = new URI(proxyURL);
-                InetSocketAddress sockAddress = new InetSocketAddress(proxyUri.getHost(), proxyUri.getPort());
-                final Proxy proxy = new Proxy(Proxy.Type.HTTP, sockAddress);
-                conn = (HttpURLConnection) url.openConnection(proxy);
-            } else {
-                conn = (HttpURLConnection) url.openConnection();
-            }
-            conn.setDoOutput(true);
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Content-Type", "application/json");
-        } catch (URISyntaxException | IOException e) {
-            throw new SlackClientException("Could not open connection to Slack API", e);
+            LOG.debug("Warm-up request to Slack returned HTTP status {}.", conn.getResponseCode());
+            drain(conn);
+        } catch (IOException e) {
+            throw new SlackClientException("Could not connect to Slack API", e);
         }
+    }
 
-        try (final Writer writer = new OutputStreamWriter(conn.getOutputStream())) {
-            String json = message.getJsonString();
-            writer.write(json);
-            writer.flush();
+    public void send(SlackMessage message) throws SlackClientException {
+        send(message, 0, null);
+    }
 
-            final int responseCode = conn.getResponseCode();
-            if (responseCode != 200) {
-                if(LOG.isDebugEnabled()){
-                    try (final InputStream responseStream = conn.getInputStream()) {
-                        final byte[] responseBytes = ByteStreams.toByteArray(responseStream);
-                        final String response = new String(responseBytes, Charsets.UTF_8);
-                        LOG.debug("Received HTTP response body:\n{}", response);
-                    }
-                }
-                throw new SlackClientException("Unexpected HTTP response status " + responseCode);
-            }
+    /**
+     * Posts the message with a timeout for connecting and for reading the response.
+     *
+     * @param timeoutMillis connect and read timeout, 0 waits forever
+     * @param gate          asked once the connection has been established, whether the message may still be posted,
+     *                      may be {@code null}
+     * @return {@code false} if the gate refused the post
+     */
+    public boolean send(SlackMessage message, int timeoutMillis, WriteGate gate) throws SlackClientException {
+        final URL url = webhookUrl();
+        final byte[] payload = message.getJsonBytes();
+        final HttpURLConnection conn = connect(url, "POST", timeoutMillis, payload.length, JSON, null);
+        if (gate != null && !gate.tryOpen()) {
+            // Nothing has been written yet, so Slack never sees this request.
+            conn.disconnect();
+            return false;
+        }
+
+        final int responseCode;
+        boolean written = false;
+        try (final OutputStream outputStream = conn.getOutputStream()) {
+            outputStream.write(payload);
+            outputStream.flush();
+            written = true;
+            responseCode = conn.getResponseCode();
         } catch (IOException e) {
+            if (written && e instanceof SocketTimeoutException) {
+                // Slack may have posted the message and only been slow to answer. A connection which was reset, e.g.
+                // an idle one Slack had closed, is taken to have lost the message.
+                throw new SlackClientException("No response from Slack API to POST", e, true);
+            }
             throw new SlackClientException("Could not POST to Slack API", e);
         }
 
+        if (responseCode != 200) {
+            // Built first, so reading the body can't lose the status.
+            final SlackClientException failure = new SlackClientException("Unexpected HTTP response status " + responseCode,
+                    responseCode, responseCode == 429 ? retryAfterMillis(conn) : 0L);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Received HTTP response body:\n{}", responseBody(conn));
+            } else {
+                drain(conn);
+            }
+            throw failure;
+        }
+
         try (final InputStream responseStream = conn.getInputStream()) {
             final byte[] responseBytes = ByteStreams.toByteArray(responseStream);
 
@@ -89,17 +141,280 @@ public class SlackClient {
         } catch (IOException e) {
             throw new SlackClientException("Could not read response body from Slack API", e);
         }
+        return true;
+    }
+
+    /**
+     * Uploads a file through the files API of Slack, which needs the token of a Slack app with the
+     * {@code files:write} scope. The file is streamed, so it can be larger than any message.
+     *
+     * @param channelId ID of the channel to share the file in, {@code null} leaves the file unshared
+     * @return the permalink of the file
+     */
+    public String upload(String token, File file, String filename, String title, String channelId) throws SlackClientException {
+        final String authorization = "Bearer " + token;
+        final Map<String, String> target = ImmutableMap.of("filename", filename, "length", String.valueOf(file.length()));
+        final JsonNode uploadTarget = callApi("files.getUploadURLExternal", target, authorization);
+        final String fileId = uploadTarget.path("file_id").asText();
+
+        // The upload URL is signed, it doesn't take the token.
+        final HttpURLConnection conn = connect(url(uploadTarget.path("upload_url").asText()), "POST",
+                UPLOAD_TIMEOUT_MILLIS, file.length(), "application/octet-stream", null);
+        try {
+            try (final OutputStream out = conn.getOutputStream()) {
+                Files.copy(file.toPath(), out);
+            }
+            final int responseCode = conn.getResponseCode();
+            drain(conn);
+            if (responseCode != 200) {
+                throw new SlackClientException("Unexpected HTTP response status " + responseCode + " to file upload", responseCode);
+            }
+        } catch (IOException e) {
+            throw new SlackClientException("Could not upload file to Slack", e);
+        }
+
+        final Map<String, String> completion = new HashMap<>();
+        completion.put("files", OBJECT_MAPPER.createArrayNode().add(OBJECT_MAPPER.createObjectNode()
+                .put("id", fileId)
+                .put("title", title)).toString());
+        if (!isNullOrEmpty(channelId)) {
+            completion.put("channel_id", channelId);
+        }
+        final JsonNode completed = callApi("files.completeUploadExternal", completion, authorization);
+        return completed.path("files").path(0).path("permalink").asText(null);
+    }
+
+    /**
+     * Calls a method of the Web API with form parameters.
+     *
+     * @return the response, which Slack reported as {@code ok}
+     */
+    private JsonNode callApi(String method, Map<String, String> parameters, String authorization) throws SlackClientException {
+        final StringBuilder form = new StringBuilder();
+        try {
+            for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+                if (form.length() > 0) {
+                    form.append('&');
+                }
+                form.append(URLEncoder.encode(parameter.getKey(), "UTF-8"))
+                        .append('=')
+                        .append(URLEncoder.encode(parameter.getValue(), "UTF-8"));
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+
+        final byte[] payload = form.toString().getBytes(StandardCharsets.UTF_8);
+        final HttpURLConnection conn = connect(url(apiUrl + method), "POST", UPLOAD_TIMEOUT_MILLIS, payload.length,
+                "application/x-www-form-urlencoded", authorization);
+        final JsonNode response;
+        try {
+            try (final OutputStream out = conn.getOutputStream()) {
+                out.write(payload);
+            }
+            final int responseCode = conn.getResponseCode();
+            if (responseCode != 200) {
+                drain(conn);
+                throw new SlackClientException("Unexpected HTTP response status " + responseCode + " from " + method, responseCode);
+            }
+            try (final InputStream in = conn.getInputStream()) {
+                response = OBJECT_MAPPER.readTree(in);
+            }
+        } catch (IOException e) {
+            throw new SlackClientException("Could not call Slack API method " + method, e);
+        }
+        if (!response.path("ok").asBoolean()) {
+            throw new SlackClientException("Slack API method " + method + " failed: " + response.path("error").asText());
+        }
+        return response;
+    }
+
+    private URL url(String url) throws SlackClientException {
+        try {
+            return new URL(url);
+        } catch (MalformedURLException e) {
+            throw new SlackClientException("Invalid Slack API URL " + url, e);
+        }
     }
 
+    private URL webhookUrl() throws SlackClientException {
+        try {
+            return new URL(webhookUrl);
+        } catch (MalformedURLException e) {
+            throw new SlackClientException("Error while constructing webhook URL.", e);
+        }
+    }
+
+    /**
+     * Opens a connection to the webhook, through the first of the proxies which accepts it.
+     *
+     * @param contentLength length of the request body, -1 if there is none
+     * @param authorization value of the {@code Authorization} header, may be {@code null}
+     */
+    private HttpURLConnection connect(URL url, String method, int timeoutMillis, long contentLength, String contentType,
+                                      String authorization) throws SlackClientException {
+        if (proxies == null) {
+            final HttpURLConnection conn = openConnection(url, null, method, timeoutMillis, contentLength, contentType, authorization);
+            try {
+                conn.connect();
+            } catch (IOException e) {
+                throw new SlackClientException("Could not connect to Slack API", e);
+            }
+            return conn;
+        }
+
+        SlackClientException failure = null;
+        for (ProxyPool.Endpoint proxy : proxies.candidates()) {
+            final HttpURLConnection conn = openConnection(url, proxy, method, timeoutMillis, contentLength, contentType, authorization);
+            final long started = System.nanoTime();
+            try {
+                conn.connect();
+                proxies.recordConnected(proxy, System.nanoTime() - started);
+                return conn;
+            } catch (IOException e) {
+                LOG.debug("Could not connect to Slack API through proxy {}, trying the next one.", proxy, e);
+                proxies.recordFailure(proxy);
+                failure = new SlackClientException("Could not connect to Slack API through proxy " + proxy, e);
+            }
+        }
+        throw failure;
+    }
+
+    private HttpURLConnection openConnection(URL url, ProxyPool.Endpoint proxy, String method, int timeoutMillis,
+                                             long contentLength, String contentType, String authorization)
+            throws SlackClientException {
+        try {
+            final HttpURLConnection conn;
+            if (proxy != null) {
+                conn = (HttpURLConnection) url.openConnection(proxy.proxy(addressCache));
+                if (proxy.authorization() != null) {
+                    conn.setRequestProperty("Proxy-Authorization", proxy.authorization());
+                }
+            } else {
+                conn = (HttpURLConnection) url.openConnection();
+            }
+            conn.setConnectTimeout(timeoutMillis);
+            conn.setReadTimeout(timeoutMillis);
+            conn.setRequestMethod(method);
+            if (authorization != null) {
+                conn.setRequestProperty("Authorization", authorization);
+            }
+            if (contentLength >= 0) {
+                conn.setDoOutput(true);
+                conn.setFixedLengthStreamingMode(contentLength);
+                conn.setRequestProperty("Content-Type", contentType);
+            }
+            return conn;
+        } catch (IOException e) {
+            throw new SlackClientException("Could not open connection to Slack API", e);
+        }
+    }
+
+    /**
+     * Reads the {@code Retry-After} header, which Slack sends in seconds along with rate limited responses.
+     *
+     * @return 0 if the header is missing or not a number of seconds
+     */
+    private static long retryAfterMillis(HttpURLConnection conn) {
+        final String retryAfter = conn.getHeaderField("Retry-After");
+        if (retryAfter == null) {
+            return 0L;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(0L, Long.parseLong(retryAfter.trim())));
+        } catch (NumberFormatException e) {
+            LOG.debug("Ignoring Retry-After header <{}> which isn't a number of seconds.", retryAfter);
+            return 0L;
+        }
+    }
+
+    /**
+     * Reads the body of a response, which is in the error stream for error statuses. Returns an empty string if
+     * there is no body or it can't be read.
+     */
+    private static String responseBody(HttpURLConnection conn) {
+        try (final InputStream responseStream = conn.getResponseCode() < 400 ? conn.getInputStream() : conn.getErrorStream()) {
+            return responseStream == null ? "" : new String(ByteStreams.toByteArray(responseStream), Charsets.UTF_8);
+        } catch (IOException e) {
+            LOG.debug("Could not read response body from Slack API", e);
+            return "";
+        }
+    }
+
+    /**
+     * Reads what is left of the response, so the connection can be reused.
+     */
+    private static void drain(HttpURLConnection conn) {
+        try (final InputStream responseStream = conn.getResponseCode() < 400 ? conn.getInputStream() : conn.getErrorStream()) {
+            if (responseStream != null) {
+                ByteStreams.copy(responseStream, ByteStreams.nullOutputStream());
+            }
+        } catch (IOException e) {
+            LOG.debug("Could not read response body from Slack API", e);
+        }
+    }
+
+    /**
+     * Decides whether a request may be written, so that only one of several concurrent attempts posts a message.
+     */
+    public interface WriteGate {
+        boolean tryOpen();
+    }
 
     public class SlackClientException extends Exception {
 
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+        private final long retryAfterMillis;
+        private final boolean mayHaveBeenPosted;
+
         public SlackClientException(String msg) {
+            this(msg, 0);
+        }
+
+        public SlackClientException(String msg, int status) {
+            this(msg, status, 0L);
+        }
+
+        public SlackClientException(String msg, int status, long retryAfterMillis) {
             super(msg);
+            this.status = status;
+            this.retryAfterMillis = retryAfterMillis;
+            this.mayHaveBeenPosted = false;
         }
 
         public SlackClientException(String msg, Throwable cause) {
+            this(msg, cause, false);
+        }
+
+        public SlackClientException(String msg, Throwable cause, boolean mayHaveBeenPosted) {
             super(msg, cause);
+            this.status = 0;
+            this.retryAfterMillis = 0L;
+            this.mayHaveBeenPosted = mayHaveBeenPosted;
+        }
+
+        /**
+         * The HTTP status Slack responded with, or 0 if there was no response.
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * How long Slack asked to wait before the next post, or 0 if it didn't.
+         */
+        public long getRetryAfterMillis() {
+            return retryAfterMillis;
+        }
+
+        /**
+         * Whether the message had been sent when the post failed, e.g. because the response timed out. Slack may have
+         * posted it anyway.
+         */
+        public boolean mayHaveBeenPosted() {
+            return mayHaveBeenPosted;
         }
 
     }
@@ -0,0 +1,108 @@
+package org.graylog2.plugins.slack;
+
+import com.floreysoft.jmte.Engine;
+import com.floreysoft.jmte.encoder.Encoder;
+
+/**
+ * Escapes the control characters of Slack's message formatting, see https://api.slack.com/docs/message-formatting.
+ * <p>
+ * Only {@code &}, {@code <} and {@code >} have to be replaced. Without escaping, log lines containing them break the
+ * formatting or are turned into links and mentions.
+ */
+public final class SlackEscaper {
+
+    public static final Encoder TEMPLATE_ENCODER = new Encoder() {
+        @Override
+        public String encode(String value) {
+            return escape(value);
+        }
+    };
+
+    private SlackEscaper() {
+    }
+
+    /**
+     * Creates a template engine which escapes the values it inserts into templates.
+     */
+    public static Engine templateEngine() {
+        final Engine engine = Engine.createDefaultEngine();
+        engine.setEncoder(TEMPLATE_ENCODER);
+        return engine;
+    }
+
+    /**
+     * Returns the escaped text, or the given instance itself if it doesn't contain any control characters.
+     */
+    public static String escape(String text) {
+        if (text == null) {
+            return null;
+        }
+
+        final int first = indexOfControlCharacter(text);
+        if (first < 0) {
+            return text;
+        }
+
+        final StringBuilder sb = new StringBuilder(text.length() + 16);
+        sb.append(text, 0, first);
+        appendEscaped(sb, text, first);
+        return sb.toString();
+    }
+
+    /**
+     * Appends the escaped text to the given builder without creating an intermediate string.
+     */
+    public static StringBuilder appendEscaped(StringBuilder sb, CharSequence text) {
+        if (text instanceof String) {
+            // Appending a whole String is a single array copy, appending a range of it copies char by char.
+            final String string = (String) text;
+            final int first = indexOfControlCharacter(string);
+            if (first < 0) {
+                return sb.append(string);
+            }
+            sb.append(string, 0, first);
+            return appendEscaped(sb, string, first);
+        }
+        if (text == null) {
+            return sb.append((String) null);
+        }
+        return appendEscaped(sb, text, 0);
+    }
+
+    private static StringBuilder appendEscaped(StringBuilder sb, CharSequence text, int start) {
+        final int length = text.length();
+        int unescaped = start;
+        for (int i = start; i < length; i++) {
+            final String replacement = replacementFor(text.charAt(i));
+            if (replacement != null) {
+                sb.append(text, unescaped, i).append(replacement);
+                unescaped = i + 1;
+            }
+        }
+        return sb.append(text, unescaped, length);
+    }
+
+    private static int indexOfControlCharacter(String text) {
+        final int length = text.length();
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            if (c == '&' || c == '<' || c == '>') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String replacementFor(char c) {
+        switch (c) {
+            case '&':
+                return "&amp;";
+            case '<':
+                return "&lt;";
+            case '>':
+                return "&gt;";
+            default:
+                return null;
+        }
+    }
+}
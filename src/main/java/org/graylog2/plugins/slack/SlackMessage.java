@@ -4,28 +4,44 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.Lists;
+import org.graylog2.plugins.slack.blocks.Block;
+import org.graylog2.plugins.slack.blocks.SerializedBlock;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
+import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Strings.isNullOrEmpty;
 
 public class SlackMessage {
 
-    private final String channel;
-    private final String userName;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final byte[] TEXT_FIELD = ",\"text\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] BLOCKS_FIELD = ",\"blocks\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ATTACHMENTS_FIELD = ",\"attachments\":".getBytes(StandardCharsets.UTF_8);
+
+    private static final String[] NO_DETAILS = new String[0];
+    private static final boolean[] NO_SHORT_DETAILS = new boolean[0];
+    // Rough per-object overhead of the JVM, only used to estimate the memory held by queued messages.
+    private static final int OBJECT_OVERHEAD_BYTES = 16;
+
+    private final Prototype prototype;
     private final String message;
-    private final String iconUrl;
-    private final String iconEmoji;
-    private final String color;
-    private final boolean linkNames;
-    private final List<AttachmentField> detailFields;
+    // Titles and values of the detail fields, alternating, so that a queued message holds one array instead of an
+    // object per field.
+    private String[] details = NO_DETAILS;
+    private boolean[] shortDetails = NO_SHORT_DETAILS;
+    private int detailCount;
+    private List<Block> blocks = Collections.emptyList();
     private String customMessage;
+    private boolean compacted;
 
     public SlackMessage(
             String color,
@@ -36,41 +52,59 @@ public class SlackMessage {
             String channel,
             boolean linkNames
     ) {
-        this.color = color;
-        this.iconEmoji = iconEmoji;
-        this.iconUrl = iconUrl;
+        this(new Prototype(color, iconEmoji, iconUrl, userName, channel, linkNames), message);
+    }
+
+    private SlackMessage(Prototype prototype, String message) {
+        this.prototype = prototype;
         this.message = message;
-        this.userName = userName;
-        this.channel = channel;
-        this.linkNames = linkNames;
-        this.detailFields = Lists.newArrayList();
         this.customMessage = null;
     }
 
     public String getJsonString() {
+        return new String(getJsonBytes(), StandardCharsets.UTF_8);
+    }
+
+    public byte[] getJsonBytes() {
         // See https://api.slack.com/methods/chat.postMessage for valid parameters
-        final Map<String, Object> params = new HashMap<String, Object>() {{
-            put("channel", channel);
-            put("text", message);
-            put("link_names", linkNames);
-        }};
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(prototype.prefix.length + 256);
+        out.write(prototype.prefix, 0, prototype.prefix.length);
+        out.write(TEXT_FIELD, 0, TEXT_FIELD.length);
 
-        if (!isNullOrEmpty(userName)) {
-            params.put("username", userName);
-        }
+        try (final JsonGenerator generator = OBJECT_MAPPER.getFactory().createGenerator(out)) {
+            generator.setRootValueSeparator(null);
+            generator.writeString(message);
 
-        if (!isNullOrEmpty(iconUrl)) {
-            params.put("icon_url", iconUrl);
-        }
+            if (!blocks.isEmpty()) {
+                // With blocks, the text is only shown in notifications.
+                generator.flush();
+                out.write(BLOCKS_FIELD, 0, BLOCKS_FIELD.length);
+                generator.writeStartArray();
+                for (Block block : blocks) {
+                    block.writeTo(generator);
+                }
+                generator.writeEndArray();
+            }
 
-        if (!isNullOrEmpty(iconEmoji)) {
-            params.put("icon_emoji", ensureEmojiSyntax(iconEmoji));
+            final List<Attachment> attachments = buildAttachments();
+            if (!attachments.isEmpty()) {
+                generator.flush();
+                out.write(ATTACHMENTS_FIELD, 0, ATTACHMENTS_FIELD.length);
+                generator.writeObject(attachments);
+            }
+            generator.writeRaw('}');
+        } catch (IOException e) {
+            throw new RuntimeException("Could not build payload JSON.", e);
         }
 
-        final List<Attachment> attachments = new ArrayList<>();
+        return out.toByteArray();
+    }
+
+    private List<Attachment> buildAttachments() {
+        final List<Attachment> attachments = new ArrayList<>(2);
         if (!isNullOrEmpty(customMessage)) {
             final Attachment attachment = new Attachment(
-                    color,
+                    prototype.color,
                     customMessage,
                     "Custom Message",
                     "Custom Message:",
@@ -79,37 +113,160 @@ public class SlackMessage {
             attachments.add(attachment);
         }
 
-        if (!detailFields.isEmpty()) {
+        if (detailCount > 0) {
             final Attachment attachment = new Attachment(
-                    color,
+                    prototype.color,
                     null,
                     "Alert details",
                     "Alert Details:",
-                    detailFields
+                    getDetailFields()
             );
             attachments.add(attachment);
         }
 
-        if (!attachments.isEmpty()) {
-            params.put("attachments", attachments);
+        return attachments;
+    }
+
+    /**
+     * Returns a message with the same sender settings but a different text and neither attachments nor blocks.
+     */
+    public SlackMessage withMessage(String message) {
+        return new SlackMessage(prototype, message);
+    }
+
+    public String getChannel() {
+        return prototype.channel;
+    }
+
+    public String getUserName() {
+        return prototype.userName;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public String getIconUrl() {
+        return prototype.iconUrl;
+    }
+
+    public String getIconEmoji() {
+        return prototype.iconEmoji;
+    }
+
+    public String getColor() {
+        return prototype.color;
+    }
+
+    public boolean isLinkNames() {
+        return prototype.linkNames;
+    }
+
+    public String getCustomMessage() {
+        return customMessage;
+    }
+
+    public List<AttachmentField> getDetailFields() {
+        final List<AttachmentField> fields = new ArrayList<>(detailCount);
+        for (int i = 0; i < detailCount; i++) {
+            fields.add(new AttachmentField(details[2 * i], details[2 * i + 1], shortDetails[i]));
         }
+        return fields;
+    }
 
-        try {
-            return new ObjectMapper().writeValueAsString(params);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException("Could not build payload JSON.", e);
+    public List<Block> getBlocks() {
+        return blocks;
+    }
+
+    public boolean hasBlocks() {
+        return !blocks.isEmpty();
+    }
+
+    /**
+     * Adds a block to the Block Kit layout of the message. Blocks beyond {@link Block#MAX_BLOCKS_PER_MESSAGE} are
+     * ignored, because Slack would reject the message.
+     *
+     * @return {@code false} if the message is full
+     */
+    public boolean addBlock(Block block) {
+        checkState(!compacted, "message has been compacted");
+        if (blocks.isEmpty()) {
+            blocks = new ArrayList<>();
+        }
+        if (blocks.size() >= Block.MAX_BLOCKS_PER_MESSAGE) {
+            return false;
         }
+        return blocks.add(block);
+    }
+
+    public boolean hasAttachments() {
+        return !isNullOrEmpty(customMessage) || detailCount > 0;
     }
 
     public void addDetailsAttachmentField(AttachmentField attachmentField) {
-        this.detailFields.add(attachmentField);
+        checkState(!compacted, "message has been compacted");
+        if (detailCount == shortDetails.length) {
+            final int capacity = Math.max(4, 2 * detailCount);
+            details = Arrays.copyOf(details, 2 * capacity);
+            shortDetails = Arrays.copyOf(shortDetails, capacity);
+        }
+        details[2 * detailCount] = attachmentField.title;
+        details[2 * detailCount + 1] = attachmentField.value;
+        shortDetails[detailCount++] = attachmentField.isShort;
     }
 
     public void setCustomMessage(String customMessage) {
+        checkState(!compacted, "message has been compacted");
         this.customMessage = customMessage;
     }
 
-    private String ensureEmojiSyntax(final String x) {
+    /**
+     * Turns the message into a compact snapshot for the send queue: arrays are trimmed and blocks are kept as their
+     * serialized JSON. The message can't be changed afterwards.
+     *
+     * @return this message
+     */
+    public SlackMessage compact() {
+        if (compacted) {
+            return this;
+        }
+        if (details.length > 2 * detailCount) {
+            details = Arrays.copyOf(details, 2 * detailCount);
+            shortDetails = Arrays.copyOf(shortDetails, detailCount);
+        }
+        if (!blocks.isEmpty()) {
+            final Block[] serialized = new Block[blocks.size()];
+            for (int i = 0; i < serialized.length; i++) {
+                serialized[i] = SerializedBlock.of(blocks.get(i));
+            }
+            blocks = Collections.unmodifiableList(Arrays.asList(serialized));
+        }
+        compacted = true;
+        return this;
+    }
+
+    /**
+     * Estimates the heap held by the message, not counting the prototype which is shared by all messages of an
+     * output. Exact for the serialized blocks of a {@link #compact() compacted} message.
+     */
+    public long retainedBytes() {
+        long bytes = OBJECT_OVERHEAD_BYTES + sizeOf(message) + sizeOf(customMessage);
+        for (int i = 0; i < 2 * detailCount; i++) {
+            bytes += sizeOf(details[i]);
+        }
+        bytes += OBJECT_OVERHEAD_BYTES + 8L * details.length + shortDetails.length;
+        for (Block block : blocks) {
+            // Blocks which haven't been serialized yet are estimated generously.
+            bytes += block instanceof SerializedBlock ? OBJECT_OVERHEAD_BYTES + ((SerializedBlock) block).size() : 1024;
+        }
+        return bytes;
+    }
+
+    private static long sizeOf(String string) {
+        return string == null ? 0 : 2 * OBJECT_OVERHEAD_BYTES + 2L * string.length();
+    }
+
+    private static String ensureEmojiSyntax(final String x) {
         String emoji = x.trim();
 
         if (!emoji.isEmpty() && !emoji.startsWith(":")) {
@@ -123,6 +280,70 @@ public class SlackMessage {
         return emoji;
     }
 
+    /**
+     * The parts of a message which are the same for every post of an output or alarm callback.
+     * <p>
+     * They are serialized once into a JSON prefix, so building a payload only has to append the text and the
+     * attachments of each individual message.
+     */
+    public static class Prototype {
+        private final String color;
+        private final String iconEmoji;
+        private final String iconUrl;
+        private final String userName;
+        private final String channel;
+        private final boolean linkNames;
+        private final byte[] prefix;
+
+        public Prototype(String color, String iconEmoji, String iconUrl, String userName, String channel, boolean linkNames) {
+            this.color = color;
+            this.iconEmoji = iconEmoji;
+            this.iconUrl = iconUrl;
+            this.userName = userName;
+            this.channel = channel;
+            this.linkNames = linkNames;
+            this.prefix = serializePrefix();
+        }
+
+        public SlackMessage newMessage(String message) {
+            return new SlackMessage(this, message);
+        }
+
+        public Prototype withChannel(String channel) {
+            return new Prototype(color, iconEmoji, iconUrl, userName, channel, linkNames);
+        }
+
+        public String getChannel() {
+            return channel;
+        }
+
+        private byte[] serializePrefix() {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+            try (final JsonGenerator generator = OBJECT_MAPPER.getFactory().createGenerator(out)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+                generator.writeStartObject();
+                generator.writeStringField("channel", channel);
+                generator.writeBooleanField("link_names", linkNames);
+
+                if (!isNullOrEmpty(userName)) {
+                    generator.writeStringField("username", userName);
+                }
+
+                if (!isNullOrEmpty(iconUrl)) {
+                    generator.writeStringField("icon_url", iconUrl);
+                }
+
+                if (!isNullOrEmpty(iconEmoji)) {
+                    generator.writeStringField("icon_emoji", ensureEmojiSyntax(iconEmoji));
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Could not build payload JSON.", e);
+            }
+
+            return out.toByteArray();
+        }
+    }
+
     @JsonInclude(JsonInclude.Include.NON_NULL)
     @JsonIgnoreProperties(ignoreUnknown = true)
     public static class Attachment {
@@ -158,7 +379,9 @@ public class SlackMessage {
         public boolean isShort;
 
         @JsonCreator
-        public AttachmentField(String title, String value, boolean isShort) {
+        public AttachmentField(@JsonProperty("title") String title,
+                               @JsonProperty("value") String value,
+                               @JsonProperty("short") boolean isShort) {
             this.title = title;
             this.value = value;
             this.isShort = isShort;
@@ -1,5 +1,6 @@
 package org.graylog2.plugins.slack;
 
+import com.google.common.hash.Hashing;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.configuration.ConfigurationException;
 import org.graylog2.plugin.streams.Stream;
@@ -7,9 +8,13 @@ import org.graylog2.plugins.slack.configuration.SlackConfiguration;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Objects;
 
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static com.google.common.base.Strings.nullToEmpty;
+
 public class SlackPluginBase {
 
     protected Configuration configuration;
@@ -37,7 +42,7 @@ public class SlackPluginBase {
             throw new ConfigurationException(SlackConfiguration.CK_COLOR + " is mandatory and must not be empty.");
         }
 
-        checkUri(configuration, SlackConfiguration.CK_PROXY_ADDRESS);
+        checkProxies(configuration);
         checkUri(configuration, SlackConfiguration.CK_ICON_URL);
         checkUri(configuration, SlackConfiguration.CK_GRAYLOG2_URL);
     }
@@ -55,6 +60,20 @@ public class SlackPluginBase {
         }
     }
 
+    private static void checkProxies(Configuration configuration) throws ConfigurationException {
+        for (String proxy : ProxyPool.addressesOf(configuration.getString(SlackConfiguration.CK_PROXY_ADDRESS))) {
+            try {
+                final URI uri = new URI(proxy);
+                if (!isValidUriScheme(uri, "http", "https") || uri.getPort() < 0) {
+                    throw new ConfigurationException(SlackConfiguration.CK_PROXY_ADDRESS
+                            + " must be a list of HTTP or HTTPS URLs with ports.");
+                }
+            } catch (URISyntaxException e) {
+                throw new ConfigurationException("Couldn't parse " + SlackConfiguration.CK_PROXY_ADDRESS + " correctly.", e);
+            }
+        }
+    }
+
     private static boolean isValidUriScheme(URI uri, String... validSchemes) {
         return uri.getScheme() != null && Arrays.binarySearch(validSchemes, uri.getScheme(), null) >= 0;
     }
@@ -68,6 +87,10 @@ public class SlackPluginBase {
     }
 
     protected static SlackMessage createSlackMessage(Configuration configuration, String message) {
+        return createSlackMessagePrototype(configuration).newMessage(message);
+    }
+
+    protected static SlackMessage.Prototype createSlackMessagePrototype(Configuration configuration) {
         String color = configuration.getString(SlackConfiguration.CK_COLOR);
         String emoji = configuration.getString(SlackConfiguration.CK_ICON_EMOJI);
         String url = configuration.getString(SlackConfiguration.CK_ICON_URL);
@@ -78,7 +101,15 @@ public class SlackPluginBase {
         boolean linkNames = configuration.getBoolean(SlackConfiguration.CK_LINK_NAMES) ||
                 configuration.getBoolean(SlackConfiguration.CK_NOTIFY_CHANNEL);
 
-        return new SlackMessage(color, emoji, url, message, user, channel, linkNames);
+        return new SlackMessage.Prototype(color, emoji, url, user, channel, linkNames);
+    }
+
+    protected String buildStreamTitleLink(String baseUrl, Stream stream) {
+        if (!isNullOrEmpty(baseUrl)) {
+            return "<" + buildStreamLink(baseUrl, stream) + "|" + SlackEscaper.escape(stream.getTitle()) + ">";
+        } else {
+            return "_" + SlackEscaper.escape(stream.getTitle()) + "_";
+        }
     }
 
     protected String buildMessageLink(String baseUrl, String index, String id) {
@@ -88,4 +119,15 @@ public class SlackPluginBase {
 
         return baseUrl + "messages/" + index + "/" + id;
     }
+
+    /**
+     * Names the notifications of an output or alarm callback, e.g. {@code "output:<stream id>:<hash>"}, where the hash
+     * identifies webhook and channel. The name stays the same when the plugin is recreated with the same settings.
+     */
+    protected static String buildDeliveryName(String kind, Stream stream, Configuration configuration) {
+        final String destination = nullToEmpty(configuration.getString(SlackConfiguration.CK_WEBHOOK_URL))
+                + '|' + nullToEmpty(configuration.getString(SlackConfiguration.CK_CHANNEL));
+        final String streamId = stream == null ? "none" : stream.getId();
+        return kind + ':' + streamId + ':' + Hashing.murmur3_32().hashString(destination, StandardCharsets.UTF_8);
+    }
 }
@@ -2,6 +2,8 @@ package org.graylog2.plugins.slack;
 
 import org.graylog2.plugins.slack.callback.SlackAlarmCallback;
 import org.graylog2.plugins.slack.output.SlackMessageOutput;
+import org.graylog2.plugins.slack.rest.SlackOutputsResource;
+import org.graylog2.plugins.slack.rest.SlackStatisticsResource;
 import org.graylog2.plugin.PluginModule;
 
 public class SlackPluginModule extends PluginModule {
@@ -9,5 +11,7 @@ public class SlackPluginModule extends PluginModule {
     protected void configure() {
         addAlarmCallback(SlackAlarmCallback.class);
         addMessageOutput(SlackMessageOutput.class);
+        addRestResource(SlackStatisticsResource.class);
+        addRestResource(SlackOutputsResource.class);
     }
 }
@@ -0,0 +1,21 @@
+package org.graylog2.plugins.slack.blocks;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+
+/**
+ * A layout block of a Slack message, see https://api.slack.com/reference/block-kit/blocks.
+ * <p>
+ * Blocks write themselves straight to the payload generator. They are immutable, so the blocks of several messages
+ * can be combined into one post.
+ */
+public abstract class Block {
+
+    public static final int MAX_BLOCKS_PER_MESSAGE = 50;
+
+    Block() {
+    }
+
+    public abstract void writeTo(JsonGenerator generator) throws IOException;
+}
@@ -0,0 +1,46 @@
+package org.graylog2.plugins.slack.blocks;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Small print below a section, e.g. the source and time of a message.
+ */
+public class ContextBlock extends Block {
+
+    public static final int MAX_ELEMENTS = 10;
+    public static final int MAX_ELEMENT_LENGTH = 2000;
+
+    private final List<TextObject> elements;
+
+    public ContextBlock(TextObject... elements) {
+        this(ImmutableList.copyOf(elements));
+    }
+
+    public ContextBlock(List<TextObject> elements) {
+        final ImmutableList.Builder<TextObject> truncated = ImmutableList.builder();
+        for (int i = 0; i < Math.min(MAX_ELEMENTS, elements.size()); i++) {
+            truncated.add(elements.get(i).truncate(MAX_ELEMENT_LENGTH));
+        }
+        this.elements = truncated.build();
+    }
+
+    public List<TextObject> getElements() {
+        return elements;
+    }
+
+    @Override
+    public void writeTo(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("type", "context");
+        generator.writeArrayFieldStart("elements");
+        for (TextObject element : elements) {
+            element.writeTo(generator);
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+}
@@ -0,0 +1,20 @@
+package org.graylog2.plugins.slack.blocks;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+
+public class DividerBlock extends Block {
+
+    public static final DividerBlock INSTANCE = new DividerBlock();
+
+    private DividerBlock() {
+    }
+
+    @Override
+    public void writeTo(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("type", "divider");
+        generator.writeEndObject();
+    }
+}
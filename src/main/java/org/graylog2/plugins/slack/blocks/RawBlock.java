@@ -0,0 +1,23 @@
+package org.graylog2.plugins.slack.blocks;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+
+/**
+ * A block which has already been serialized, e.g. one restored from the recovery file.
+ */
+public class RawBlock extends Block {
+
+    private final JsonNode node;
+
+    public RawBlock(JsonNode node) {
+        this.node = node;
+    }
+
+    @Override
+    public void writeTo(JsonGenerator generator) throws IOException {
+        generator.writeTree(node);
+    }
+}
@@ -0,0 +1,79 @@
+package org.graylog2.plugins.slack.blocks;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A text, optionally followed by fields which Slack lays out in two columns.
+ */
+public class SectionBlock extends Block {
+
+    public static final int MAX_TEXT_LENGTH = 3000;
+    public static final int MAX_FIELDS = 10;
+    public static final int MAX_FIELD_LENGTH = 2000;
+
+    private final TextObject text;
+    private final List<TextObject> fields;
+
+    public SectionBlock(TextObject text) {
+        this(text, Collections.<TextObject>emptyList());
+    }
+
+    /**
+     * @param text   may be {@code null} if there are fields
+     * @param fields at most {@link #MAX_FIELDS}, the rest is ignored
+     */
+    public SectionBlock(TextObject text, List<TextObject> fields) {
+        this.text = text == null ? null : text.truncate(MAX_TEXT_LENGTH);
+        final List<TextObject> truncated = new ArrayList<>(Math.min(MAX_FIELDS, fields.size()));
+        for (TextObject field : fields) {
+            if (truncated.size() == MAX_FIELDS) {
+                break;
+            }
+            truncated.add(field.truncate(MAX_FIELD_LENGTH));
+        }
+        this.fields = ImmutableList.copyOf(truncated);
+    }
+
+    /**
+     * Splits the given fields into as many sections as needed.
+     */
+    public static List<SectionBlock> ofFields(List<TextObject> fields) {
+        final List<SectionBlock> sections = new ArrayList<>((fields.size() + MAX_FIELDS - 1) / MAX_FIELDS);
+        for (int i = 0; i < fields.size(); i += MAX_FIELDS) {
+            sections.add(new SectionBlock(null, fields.subList(i, Math.min(fields.size(), i + MAX_FIELDS))));
+        }
+        return sections;
+    }
+
+    public TextObject getText() {
+        return text;
+    }
+
+    public List<TextObject> getFields() {
+        return fields;
+    }
+
+    @Override
+    public void writeTo(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("type", "section");
+        if (text != null) {
+            generator.writeFieldName("text");
+            text.writeTo(generator);
+        }
+        if (!fields.isEmpty()) {
+            generator.writeArrayFieldStart("fields");
+            for (TextObject field : fields) {
+                field.writeTo(generator);
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+    }
+}
@@ -0,0 +1,46 @@
+package org.graylog2.plugins.slack.blocks;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A block kept as its UTF-8 encoded JSON, which takes a fraction of the memory of the block objects while the
+ * message waits in the send queue.
+ */
+public class SerializedBlock extends Block {
+
+    // Raw blocks write JSON trees, which needs a generator with a codec.
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final byte[] json;
+
+    private SerializedBlock(byte[] json) {
+        this.json = json;
+    }
+
+    public static SerializedBlock of(Block block) {
+        if (block instanceof SerializedBlock) {
+            return (SerializedBlock) block;
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        try (final JsonGenerator generator = OBJECT_MAPPER.getFactory().createGenerator(out)) {
+            block.writeTo(generator);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not serialize block.", e);
+        }
+        return new SerializedBlock(out.toByteArray());
+    }
+
+    public int size() {
+        return json.length;
+    }
+
+    @Override
+    public void writeTo(JsonGenerator generator) throws IOException {
+        generator.writeRawValue(new String(json, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,58 @@
+package org.graylog2.plugins.slack.blocks;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+
+/**
+ * Text of a block, either formatted as Slack markdown or plain.
+ */
+public final class TextObject {
+
+    private static final String ELLIPSIS = "\u2026";
+
+    private final boolean markdown;
+    private final String text;
+
+    private TextObject(boolean markdown, String text) {
+        this.markdown = markdown;
+        this.text = text;
+    }
+
+    public static TextObject markdown(String text) {
+        return new TextObject(true, text);
+    }
+
+    public static TextObject plain(String text) {
+        return new TextObject(false, text);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public boolean isMarkdown() {
+        return markdown;
+    }
+
+    /**
+     * Slack rejects the whole message if a single text is too long, so long texts are cut off.
+     */
+    TextObject truncate(int maxLength) {
+        if (text == null || text.length() <= maxLength) {
+            return this;
+        }
+        int end = maxLength - ELLIPSIS.length();
+        if (Character.isHighSurrogate(text.charAt(end - 1))) {
+            end--;
+        }
+        return new TextObject(markdown, text.substring(0, end) + ELLIPSIS);
+    }
+
+    void writeTo(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("type", markdown ? "mrkdwn" : "plain_text");
+        generator.writeStringField("text", text == null ? "" : text);
+        generator.writeEndObject();
+    }
+}
@@ -0,0 +1,252 @@
+package org.graylog2.plugins.slack.callback;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import org.graylog2.plugin.MessageSummary;
+import org.joda.time.DateTime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Strings.nullToEmpty;
+
+/**
+ * Aggregates the messages matching an alert into the number of messages, their time range and the most frequent
+ * values of some fields, in a single pass and with memory which doesn't grow with the number of messages.
+ * <p>
+ * The most frequent values are counted with the Space-Saving algorithm: each field keeps
+ * {@value #COUNTERS_PER_VALUE} counters per value to be reported, and a value without a counter takes over the
+ * smallest one. Counts can therefore be too high by up to the count of the counter taken over, which is reported as
+ * the error of the value, but no value occurring more often than that is missed.
+ */
+public class BacklogAggregator {
+
+    static final int COUNTERS_PER_VALUE = 10;
+    static final int MAX_VALUE_LENGTH = 200;
+
+    private static final Splitter FIELD_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    private final List<String> fields;
+    private final int topValues;
+
+    public BacklogAggregator(List<String> fields, int topValues) {
+        checkArgument(topValues > 0, "topValues must be positive");
+        this.fields = fields;
+        this.topValues = topValues;
+    }
+
+    /**
+     * @return the comma separated field names
+     */
+    public static List<String> parseFieldList(String fields) {
+        return FIELD_SPLITTER.splitToList(nullToEmpty(fields));
+    }
+
+    public Aggregates aggregate(Iterable<MessageSummary> messages) {
+        final Map<String, SpaceSaving> counters = new LinkedHashMap<>();
+        for (String field : fields) {
+            counters.put(field, new SpaceSaving(topValues * COUNTERS_PER_VALUE));
+        }
+
+        int count = 0;
+        DateTime first = null;
+        DateTime last = null;
+        for (MessageSummary message : messages) {
+            count++;
+            final DateTime timestamp = message.getTimestamp();
+            if (timestamp != null) {
+                if (first == null || timestamp.isBefore(first)) {
+                    first = timestamp;
+                }
+                if (last == null || timestamp.isAfter(last)) {
+                    last = timestamp;
+                }
+            }
+            for (Map.Entry<String, SpaceSaving> entry : counters.entrySet()) {
+                final Object value = message.getField(entry.getKey());
+                if (value != null) {
+                    entry.getValue().offer(truncate(value.toString()));
+                }
+            }
+        }
+
+        final Map<String, FieldAggregate> aggregates = new LinkedHashMap<>();
+        for (Map.Entry<String, SpaceSaving> entry : counters.entrySet()) {
+            aggregates.put(entry.getKey(), entry.getValue().toAggregate(entry.getKey(), topValues));
+        }
+        return new Aggregates(count, first, last, aggregates);
+    }
+
+    private static String truncate(String value) {
+        return value.length() <= MAX_VALUE_LENGTH ? value : value.substring(0, MAX_VALUE_LENGTH);
+    }
+
+    private static class SpaceSaving {
+        private final int capacity;
+        private final Map<String, ValueCount> counters = new HashMap<>();
+        private int offered;
+        private boolean evicted;
+
+        private SpaceSaving(int capacity) {
+            this.capacity = capacity;
+        }
+
+        private void offer(String value) {
+            offered++;
+            final ValueCount counter = counters.get(value);
+            if (counter != null) {
+                counter.count++;
+                return;
+            }
+            if (counters.size() < capacity) {
+                counters.put(value, new ValueCount(value, 1, 0));
+                return;
+            }
+
+            // There are only a few dozen counters, so a scan is cheaper than keeping them sorted.
+            ValueCount smallest = null;
+            for (ValueCount candidate : counters.values()) {
+                if (smallest == null || candidate.count < smallest.count) {
+                    smallest = candidate;
+                }
+            }
+            evicted = true;
+            counters.remove(smallest.value);
+            counters.put(value, new ValueCount(value, smallest.count + 1, smallest.count));
+        }
+
+        private FieldAggregate toAggregate(String field, int topValues) {
+            final List<ValueCount> sorted = new ArrayList<>(counters.values());
+            Collections.sort(sorted, new Comparator<ValueCount>() {
+                @Override
+                public int compare(ValueCount a, ValueCount b) {
+                    final int byCount = Integer.compare(b.count, a.count);
+                    return byCount != 0 ? byCount : a.value.compareTo(b.value);
+                }
+            });
+            return new FieldAggregate(field, offered, !evicted,
+                    new ArrayList<>(sorted.subList(0, Math.min(topValues, sorted.size()))));
+        }
+    }
+
+    public static class Aggregates {
+        private final int count;
+        private final DateTime firstTimestamp;
+        private final DateTime lastTimestamp;
+        private final Map<String, FieldAggregate> fields;
+
+        private Aggregates(int count, DateTime firstTimestamp, DateTime lastTimestamp, Map<String, FieldAggregate> fields) {
+            this.count = count;
+            this.firstTimestamp = firstTimestamp;
+            this.lastTimestamp = lastTimestamp;
+            this.fields = fields;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return {@code null} if there were no messages
+         */
+        public DateTime getFirstTimestamp() {
+            return firstTimestamp;
+        }
+
+        /**
+         * @return {@code null} if there were no messages
+         */
+        public DateTime getLastTimestamp() {
+            return lastTimestamp;
+        }
+
+        /**
+         * The aggregates of the fields, in the configured order.
+         */
+        public Map<String, FieldAggregate> getFields() {
+            return fields;
+        }
+    }
+
+    public static class FieldAggregate {
+        private final String field;
+        private final int count;
+        private final boolean exact;
+        private final List<ValueCount> top;
+
+        private FieldAggregate(String field, int count, boolean exact, List<ValueCount> top) {
+            this.field = field;
+            this.count = count;
+            this.exact = exact;
+            this.top = top;
+        }
+
+        public String getField() {
+            return field;
+        }
+
+        /**
+         * The number of messages with the field.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Whether there were few enough distinct values to count all of them exactly.
+         */
+        public boolean isExact() {
+            return exact;
+        }
+
+        /**
+         * The most frequent values, most frequent first.
+         */
+        public List<ValueCount> getTop() {
+            return top;
+        }
+
+        @Override
+        public String toString() {
+            return Joiner.on(", ").join(top);
+        }
+    }
+
+    public static class ValueCount {
+        private final String value;
+        private int count;
+        private final int error;
+
+        private ValueCount(String value, int count, int error) {
+            this.value = value;
+            this.count = count;
+            this.error = error;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * How much the count may be too high.
+         */
+        public int getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return value + " (" + (error > 0 ? "~" : "") + count + ")";
+        }
+    }
+}
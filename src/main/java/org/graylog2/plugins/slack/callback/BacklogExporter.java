@@ -0,0 +1,136 @@
+package org.graylog2.plugins.slack.callback;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.Message;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes backlog messages as a gzipped CSV or NDJSON document, one message at a time. Memory use doesn't depend on
+ * the size of the backlog, because the document goes through buffers of {@value #BUFFER_SIZE} bytes.
+ */
+class BacklogExporter {
+
+    static final int BUFFER_SIZE = 8192;
+    static final List<String> DEFAULT_FIELDS = ImmutableList.of(Message.FIELD_TIMESTAMP, Message.FIELD_SOURCE, Message.FIELD_MESSAGE);
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final Splitter FIELD_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    enum Format {
+        CSV("text/csv"), NDJSON("application/x-ndjson");
+
+        private final String contentType;
+
+        Format(String contentType) {
+            this.contentType = contentType;
+        }
+
+        String extension() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+
+        String contentType() {
+            return contentType;
+        }
+
+        /**
+         * @return {@code null} if backlogs aren't exported
+         */
+        static Format parse(String format) {
+            if (format == null || format.isEmpty() || "none".equalsIgnoreCase(format)) {
+                return null;
+            }
+            return valueOf(format.toUpperCase(Locale.ENGLISH));
+        }
+    }
+
+    private final Format format;
+    private final List<String> fields;
+
+    BacklogExporter(Format format, String fields) {
+        this.format = format;
+        final List<String> names = FIELD_SPLITTER.splitToList(fields == null ? "" : fields);
+        this.fields = names.isEmpty() ? DEFAULT_FIELDS : names;
+    }
+
+    Format getFormat() {
+        return format;
+    }
+
+    void export(Iterable<Message> messages, OutputStream out) throws IOException {
+        final GZIPOutputStream gzip = new GZIPOutputStream(new BufferedOutputStream(out, BUFFER_SIZE), BUFFER_SIZE);
+        if (format == Format.CSV) {
+            final Writer writer = new OutputStreamWriter(gzip, StandardCharsets.UTF_8);
+            writeCsvRow(writer, fields);
+            for (Message message : messages) {
+                writeCsvRow(writer, valuesOf(message));
+            }
+            writer.close();
+        } else {
+            final JsonGenerator generator = OBJECT_MAPPER.getFactory().createGenerator(gzip);
+            generator.setRootValueSeparator(null);
+            for (Message message : messages) {
+                generator.writeStartObject();
+                for (String field : fields) {
+                    final Object value = valueOf(message, field);
+                    if (value instanceof Number || value instanceof Boolean) {
+                        generator.writeObjectField(field, value);
+                    } else if (value != null) {
+                        generator.writeStringField(field, value.toString());
+                    }
+                }
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+            }
+            generator.close();
+        }
+    }
+
+    private List<String> valuesOf(Message message) {
+        final ImmutableList.Builder<String> values = ImmutableList.builder();
+        for (String field : fields) {
+            final Object value = valueOf(message, field);
+            values.add(value == null ? "" : value.toString());
+        }
+        return values.build();
+    }
+
+    private static Object valueOf(Message message, String field) {
+        if (Message.FIELD_TIMESTAMP.equals(field)) {
+            return message.getTimestamp();
+        }
+        return message.getField(field);
+    }
+
+    private static void writeCsvRow(Writer writer, List<String> values) throws IOException {
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writeCsvValue(writer, values.get(i));
+        }
+        writer.write("\r\n");
+    }
+
+    private static void writeCsvValue(Writer writer, String value) throws IOException {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
@@ -0,0 +1,153 @@
+package org.graylog2.plugins.slack.callback;
+
+import org.graylog2.plugin.Message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Strings.nullToEmpty;
+
+/**
+ * Groups the backlog of an alert by the pattern of its messages, so that dozens of nearly identical lines are shown
+ * once with a count.
+ * <p>
+ * The pattern of a message is its text with every word containing a digit masked, which covers numbers, IDs,
+ * addresses and timestamps. Messages are looked at once each, and at most {@code maxClusters} patterns of at most
+ * {@code maxPatternLength} characters are kept; messages with further patterns are only counted.
+ */
+public class BacklogSummarizer {
+
+    static final String MASK = "<*>";
+
+    private final int maxClusters;
+    private final int maxPatternLength;
+
+    public BacklogSummarizer(int maxClusters, int maxPatternLength) {
+        checkArgument(maxClusters > 0, "maxClusters must be positive");
+        checkArgument(maxPatternLength > 0, "maxPatternLength must be positive");
+        this.maxClusters = maxClusters;
+        this.maxPatternLength = maxPatternLength;
+    }
+
+    public Summary summarize(List<Message> backlog) {
+        final Map<String, Cluster> clusters = new LinkedHashMap<>();
+        int unclustered = 0;
+        for (Message message : backlog) {
+            final String pattern = normalize(message.getMessage(), maxPatternLength);
+            final Cluster cluster = clusters.get(pattern);
+            if (cluster != null) {
+                cluster.count++;
+            } else if (clusters.size() < maxClusters) {
+                clusters.put(pattern, new Cluster(pattern, message));
+            } else {
+                unclustered++;
+            }
+        }
+
+        final List<Cluster> sorted = new ArrayList<>(clusters.values());
+        // Stable, so clusters of the same size stay in the order of the backlog.
+        Collections.sort(sorted, new Comparator<Cluster>() {
+            @Override
+            public int compare(Cluster a, Cluster b) {
+                return Integer.compare(b.count, a.count);
+            }
+        });
+        return new Summary(sorted, unclustered);
+    }
+
+    /**
+     * Masks every word which contains a digit. A word is a run of letters, digits and {@code _-.:/}, so IP
+     * addresses, timestamps and paths with IDs are masked as a whole.
+     */
+    static String normalize(String message, int maxLength) {
+        final String text = nullToEmpty(message);
+        final StringBuilder pattern = new StringBuilder(Math.min(text.length(), maxLength));
+        int i = 0;
+        while (i < text.length() && pattern.length() < maxLength) {
+            if (!isWordChar(text.charAt(i))) {
+                pattern.append(text.charAt(i++));
+                continue;
+            }
+
+            final int start = i;
+            boolean hasDigit = false;
+            while (i < text.length() && isWordChar(text.charAt(i))) {
+                hasDigit |= Character.isDigit(text.charAt(i));
+                i++;
+            }
+            if (hasDigit) {
+                pattern.append(MASK);
+            } else {
+                pattern.append(text, start, i);
+            }
+        }
+        if (pattern.length() > maxLength) {
+            pattern.setLength(maxLength);
+        }
+        return pattern.toString();
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.' || c == ':' || c == '/';
+    }
+
+    public static class Summary {
+        private final List<Cluster> clusters;
+        private final int unclustered;
+
+        private Summary(List<Cluster> clusters, int unclustered) {
+            this.clusters = clusters;
+            this.unclustered = unclustered;
+        }
+
+        /**
+         * The clusters, largest first.
+         */
+        public List<Cluster> getClusters() {
+            return clusters;
+        }
+
+        /**
+         * Messages which didn't fit into any cluster, because the limit of clusters had been reached.
+         */
+        public int getUnclustered() {
+            return unclustered;
+        }
+    }
+
+    public static class Cluster {
+        private final String pattern;
+        private final Message example;
+        private int count = 1;
+
+        private Cluster(String pattern, Message example) {
+            this.pattern = pattern;
+            this.example = example;
+        }
+
+        public String getPattern() {
+            return pattern;
+        }
+
+        /**
+         * The first message of the backlog with this pattern.
+         */
+        public Message getExample() {
+            return example;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return count + "x " + example.getMessage();
+        }
+    }
+}
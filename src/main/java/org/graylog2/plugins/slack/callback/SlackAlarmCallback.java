@@ -1,7 +1,12 @@
 package org.graylog2.plugins.slack.callback;
 
+import com.codahale.metrics.MetricRegistry;
 import com.floreysoft.jmte.Engine;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.MessageSummary;
@@ -13,25 +18,82 @@ import org.graylog2.plugin.configuration.ConfigurationException;
 import org.graylog2.plugin.configuration.ConfigurationRequest;
 import org.graylog2.plugin.streams.Stream;
 import org.graylog2.plugins.slack.SlackClient;
+import org.graylog2.plugins.slack.SlackEscaper;
 import org.graylog2.plugins.slack.SlackMessage;
 import org.graylog2.plugins.slack.SlackPluginBase;
+import org.graylog2.plugins.slack.blocks.Block;
+import org.graylog2.plugins.slack.blocks.ContextBlock;
+import org.graylog2.plugins.slack.blocks.DividerBlock;
+import org.graylog2.plugins.slack.blocks.SectionBlock;
+import org.graylog2.plugins.slack.blocks.TextObject;
 import org.graylog2.plugins.slack.configuration.SlackConfiguration;
 import org.graylog2.plugins.slack.configuration.SlackConfigurationRequestFactory;
+import org.graylog2.plugins.slack.dispatch.DeliveryPolicy;
+import org.graylog2.plugins.slack.dispatch.Priority;
+import org.graylog2.plugins.slack.dispatch.SlackDispatcher;
+import org.graylog2.plugins.slack.dispatch.SlackDispatchers;
+import org.graylog2.plugins.slack.stats.DeliveryStatistics;
+import org.graylog2.plugins.slack.stats.DeliveryStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
 
 public class SlackAlarmCallback extends SlackPluginBase implements AlarmCallback {
 
+    private static final Logger LOG = LoggerFactory.getLogger(SlackAlarmCallback.class);
+    private static final BacklogSummarizer SUMMARIZER = new BacklogSummarizer(50, 500);
+    private static final int UPLOAD_THREADS = 2;
+    private static final int MAX_QUEUED_UPLOADS = 20;
+    private static final ThreadPoolExecutor UPLOAD_EXECUTOR = new ThreadPoolExecutor(
+            UPLOAD_THREADS, UPLOAD_THREADS, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(MAX_QUEUED_UPLOADS),
+            new ThreadFactoryBuilder()
+                    .setNameFormat("slack-backlog-upload-%d")
+                    .setDaemon(true)
+                    .build());
+
+    static {
+        UPLOAD_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
     private final Engine templateEngine;
+    private final SlackDispatchers dispatchers;
+    private final DeliveryStatistics statistics;
 
     @Inject
+    public SlackAlarmCallback(SlackDispatchers dispatchers, DeliveryStatistics statistics) {
+        this(SlackEscaper.templateEngine(), dispatchers, statistics);
+    }
+
+    /**
+     * Creates a callback outside of Guice, which shares neither its dispatcher nor its statistics with others. The
+     * template engine is used as it is, see {@link SlackEscaper#templateEngine()} for one which escapes the values it
+     * inserts.
+     */
     public SlackAlarmCallback(Engine templateEngine) {
+        this(templateEngine, new SlackDispatchers(), new DeliveryStatistics(new MetricRegistry()));
+    }
+
+    private SlackAlarmCallback(Engine templateEngine, SlackDispatchers dispatchers, DeliveryStatistics statistics) {
         this.templateEngine = templateEngine;
+        this.dispatchers = dispatchers;
+        this.statistics = statistics;
     }
 
     @Override
@@ -41,48 +103,327 @@ public class SlackAlarmCallback extends SlackPluginBase implements AlarmCallback
         } catch (ConfigurationException e) {
             throw new AlarmCallbackConfigurationException("Configuration error. " + e.getMessage());
         }
+
+        try {
+            if (backlogExporter(config) != null && !config.stringIsSet(SlackConfiguration.CK_API_TOKEN)) {
+                throw new AlarmCallbackConfigurationException("Configuration error. Backlog files need an API token.");
+            }
+        } catch (IllegalArgumentException e) {
+            throw new AlarmCallbackConfigurationException("Configuration error. Unknown backlog file format.");
+        }
+
+        // Graylog initializes a new instance for every alert, so only the first one connects ahead of time.
+        if (config.getBoolean(SlackConfiguration.CK_WARM_UP, false)) {
+            final SlackDispatcher dispatcher = dispatchers.forConfiguration(config);
+            try {
+                dispatcher.ensureConnected();
+            } catch (SlackClient.SlackClientException e) {
+                throw new AlarmCallbackConfigurationException("Slack webhook is unreachable: " + e.getMessage());
+            } finally {
+                dispatchers.release(dispatcher);
+            }
+        }
     }
 
+    /**
+     * Queues the alert and returns right away, the alert scanner never waits for retries or rate limits. Failed
+     * attempts are counted in the delivery statistics and an alert which couldn't be delivered is logged.
+     */
     @Override
-    public void call(Stream stream, AlertCondition.CheckResult result) {
-        final SlackClient client = new SlackClient(configuration);
+    public void call(final Stream stream, final AlertCondition.CheckResult result) {
+        final BacklogExporter exporter = backlogExporter(configuration);
+        if (exporter == null) {
+            post(stream, result, null);
+            return;
+        }
+
+        // Uploading the backlog can take a while, so the alert is posted in the background.
+        try {
+            UPLOAD_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        post(stream, result, exporter);
+                    } catch (RuntimeException e) {
+                        LOG.error("Could not send alert for stream <{}> to Slack.", stream.getId(), e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOG.warn("Too many Slack backlog uploads pending, sending alert for stream <{}> without backlog file.",
+                    stream.getId());
+            stats(buildDeliveryName("alert", stream, configuration)).recordUploadFailed();
+            post(stream, result, null);
+        }
+    }
+
+    private void post(final Stream stream, AlertCondition.CheckResult result, BacklogExporter exporter) {
+        final boolean blockLayout = configuration.getBoolean(SlackConfiguration.CK_BLOCK_LAYOUT, false);
+        String template = configuration.getString(SlackConfiguration.CK_CUSTOM_MESSAGE);
+        boolean hasTemplate = !isNullOrEmpty(template);
+        final List<Message> backlog = hasTemplate || blockLayout || exporter != null
+                ? getAlarmBacklog(result) : Collections.<Message>emptyList();
+
+        final String deliveryName = buildDeliveryName("alert", stream, configuration);
+        final DeliveryStats stats = stats(deliveryName);
         String text = buildFullMessageBody(stream, result);
+        final String backlogLink = exporter == null || backlog.isEmpty() ? null : uploadBacklog(exporter, stream, backlog, stats);
+        if (backlogLink != null) {
+            text += backlogLink + "\n";
+        }
         SlackMessage slackMessage = createSlackMessage(configuration, text);
 
+        if (blockLayout) {
+            slackMessage.addBlock(new SectionBlock(TextObject.markdown(text)));
+        }
+
+        final BacklogSummarizer.Summary summary = configuration.getBoolean(SlackConfiguration.CK_SUMMARIZE_BACKLOG, false)
+                ? SUMMARIZER.summarize(backlog) : null;
+        final BacklogAggregator.Aggregates aggregates = aggregate(result);
+
         // Add custom message
-        String template = configuration.getString(SlackConfiguration.CK_CUSTOM_MESSAGE);
-        boolean hasTemplate = !isNullOrEmpty(template);
         if (hasTemplate) {
-            String customMessage = buildCustomMessage(stream, result, template);
-            slackMessage.setCustomMessage(customMessage);
+            String customMessage = buildCustomMessage(stream, result, template, backlog, summary, aggregates);
+            if (blockLayout) {
+                slackMessage.addBlock(new SectionBlock(TextObject.markdown(customMessage)));
+            } else {
+                slackMessage.setCustomMessage(customMessage);
+            }
+        }
+
+        if (aggregates != null) {
+            buildAggregates(aggregates, slackMessage, blockLayout);
+        }
+
+        if (blockLayout) {
+            if (summary == null) {
+                buildBacklogBlocks(backlog, slackMessage);
+            } else {
+                buildBacklogSummaryBlocks(summary, slackMessage);
+            }
+        }
+
+        final long triggeredAt = result.getTriggeredAt() == null ? System.currentTimeMillis() : result.getTriggeredAt().getMillis();
+        final String dedupKey = deduplicationKey(deliveryName, result);
+
+        // Retries can take a while, the alert scanner must not wait for them.
+        final SlackDispatcher dispatcher = dispatchers.forConfiguration(configuration);
+        final ListenableFuture<Void> delivery;
+        try {
+            delivery = dispatcher.submit(Priority.ALERT, slackMessage, dedupKey, stats, triggeredAt,
+                    DeliveryPolicy.fromConfiguration(configuration));
+        } catch (RuntimeException e) {
+            dispatchers.release(dispatcher);
+            throw e;
+        }
+        Futures.addCallback(delivery, new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void ignored) {
+                dispatchers.release(dispatcher);
+                LOG.debug("Sent alert <{}> to Slack.", dedupKey);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                dispatchers.release(dispatcher);
+                LOG.error("Could not send alert for stream <{}> to Slack.", stream.getId(), t);
+            }
+        });
+    }
+
+    private DeliveryStats stats(String deliveryName) {
+        return statistics.forSender(deliveryName,
+                configuration.getInt(SlackConfiguration.CK_LATENCY_SLO, SlackConfigurationRequestFactory.DEFAULT_LATENCY_SLO_MILLIS));
+    }
+
+    /**
+     * Aggregates all messages matching the alert, not just the backlog.
+     *
+     * @return {@code null} if no fields are aggregated
+     */
+    private BacklogAggregator.Aggregates aggregate(AlertCondition.CheckResult result) {
+        final List<String> fields = BacklogAggregator.parseFieldList(configuration.getString(SlackConfiguration.CK_AGGREGATE_FIELDS));
+        final List<MessageSummary> matchingMessages = result.getMatchingMessages();
+        if (fields.isEmpty() || matchingMessages == null) {
+            return null;
         }
+        final int topValues = Math.max(1, configuration.getInt(SlackConfiguration.CK_AGGREGATE_TOP_VALUES, 5));
+        return new BacklogAggregator(fields, topValues).aggregate(matchingMessages);
+    }
 
+    /**
+     * @return {@code null} if backlogs aren't uploaded as files
+     */
+    static BacklogExporter backlogExporter(Configuration configuration) {
+        final BacklogExporter.Format format = BacklogExporter.Format.parse(
+                configuration.getString(SlackConfiguration.CK_BACKLOG_FILE_FORMAT));
+        if (format == null) {
+            return null;
+        }
+        return new BacklogExporter(format, configuration.getString(SlackConfiguration.CK_BACKLOG_FILE_FIELDS));
+    }
+
+    /**
+     * Uploads the backlog as a file, which is written through a small buffer and never held in memory as a whole. The
+     * upload goes through the client of the webhook's dispatcher, so it shares its proxies and connections.
+     *
+     * @return a link to the file, {@code null} if the upload failed and the alert has to go out without it
+     */
+    private String uploadBacklog(BacklogExporter exporter, Stream stream, List<Message> backlog, DeliveryStats stats) {
+        final String extension = exporter.getFormat().extension();
+        final String filename = "backlog-" + stream.getId() + '-' + System.currentTimeMillis() + '.' + extension + ".gz";
+        final SlackDispatcher dispatcher = dispatchers.forConfiguration(configuration);
+        File file = null;
         try {
-            client.send(slackMessage);
-        } catch (SlackClient.SlackClientException e) {
-            throw new RuntimeException("Could not send message to Slack.", e);
+            file = File.createTempFile("slack-backlog-", '.' + extension + ".gz");
+            try (final OutputStream out = new FileOutputStream(file)) {
+                exporter.export(backlog, out);
+            }
+            final String permalink = dispatcher.getClient().upload(
+                    configuration.getString(SlackConfiguration.CK_API_TOKEN), file, filename,
+                    "Backlog of " + stream.getTitle(), configuration.getString(SlackConfiguration.CK_BACKLOG_FILE_CHANNEL));
+            return permalink == null ? null : "<" + permalink + "|Backlog of " + backlog.size() + " messages>";
+        } catch (IOException | SlackClient.SlackClientException e) {
+            LOG.warn("Could not upload the backlog of stream <{}> to Slack.", stream.getId(), e);
+            stats.recordUploadFailed();
+            return null;
+        } finally {
+            dispatchers.release(dispatcher);
+            if (file != null && !file.delete()) {
+                LOG.debug("Could not delete {}.", file);
+            }
+        }
+    }
+
+    /**
+     * Includes the delivery name, so callbacks of the same stream posting to other channels don't drop the alert.
+     */
+    private static String deduplicationKey(String deliveryName, AlertCondition.CheckResult result) {
+        final AlertCondition condition = result.getTriggeredCondition();
+        if (condition == null || result.getTriggeredAt() == null) {
+            return null;
+        }
+        return deliveryName + ':' + condition.getId() + ':' + result.getTriggeredAt().getMillis();
+    }
+
+    /**
+     * Lists the backlog messages, each with its source and timestamp, as far as the block limit of Slack allows.
+     */
+    private void buildBacklogBlocks(List<Message> backlog, SlackMessage slackMessage) {
+        final int items = Math.min(backlog.size(), configuration.getInt(SlackConfiguration.CK_ADD_BLITEMS, 5));
+        if (items <= 0) {
+            return;
+        }
+
+        slackMessage.addBlock(DividerBlock.INSTANCE);
+        for (Message message : backlog.subList(0, items)) {
+            if (slackMessage.getBlocks().size() + 2 > Block.MAX_BLOCKS_PER_MESSAGE) {
+                break;
+            }
+            slackMessage.addBlock(new SectionBlock(TextObject.markdown(SlackEscaper.escape(message.getMessage()))));
+            slackMessage.addBlock(new ContextBlock(
+                    TextObject.plain(message.getSource()),
+                    TextObject.plain(String.valueOf(message.getTimestamp()))));
+        }
+    }
+
+    /**
+     * Shows the number of matching messages, their time range and the most frequent values of the aggregated fields,
+     * as short fields of the details attachment or of a section.
+     */
+    private static void buildAggregates(BacklogAggregator.Aggregates aggregates, SlackMessage slackMessage, boolean blockLayout) {
+        final Map<String, String> fields = new LinkedHashMap<>();
+        fields.put("Matching messages", String.valueOf(aggregates.getCount()));
+        if (aggregates.getFirstTimestamp() != null) {
+            fields.put("Time range", aggregates.getFirstTimestamp() + " \u2013 " + aggregates.getLastTimestamp());
+        }
+        for (BacklogAggregator.FieldAggregate field : aggregates.getFields().values()) {
+            if (field.getTop().isEmpty()) {
+                continue;
+            }
+            final StringBuilder values = new StringBuilder();
+            for (BacklogAggregator.ValueCount value : field.getTop()) {
+                if (values.length() > 0) {
+                    values.append('\n');
+                }
+                values.append(SlackEscaper.escape(value.toString()));
+            }
+            fields.put("Top " + field.getField(), values.toString());
+        }
+
+        if (!blockLayout) {
+            for (Map.Entry<String, String> field : fields.entrySet()) {
+                slackMessage.addDetailsAttachmentField(new SlackMessage.AttachmentField(field.getKey(), field.getValue(), true));
+            }
+            return;
+        }
+        final List<TextObject> texts = new ArrayList<>(fields.size());
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            texts.add(TextObject.markdown("*" + SlackEscaper.escape(field.getKey()) + "*\n" + field.getValue()));
+        }
+        for (SectionBlock section : SectionBlock.ofFields(texts)) {
+            slackMessage.addBlock(section);
+        }
+    }
+
+    /**
+     * Lists each pattern of the backlog once, with the number of its messages and the first of them.
+     */
+    private void buildBacklogSummaryBlocks(BacklogSummarizer.Summary summary, SlackMessage slackMessage) {
+        final List<BacklogSummarizer.Cluster> clusters = summary.getClusters();
+        final int items = Math.min(clusters.size(), configuration.getInt(SlackConfiguration.CK_ADD_BLITEMS, 5));
+        if (items <= 0) {
+            return;
+        }
+
+        slackMessage.addBlock(DividerBlock.INSTANCE);
+        int shown = 0;
+        for (BacklogSummarizer.Cluster cluster : clusters.subList(0, items)) {
+            // Leaves room for the note about the messages which aren't shown.
+            if (slackMessage.getBlocks().size() + 3 > Block.MAX_BLOCKS_PER_MESSAGE) {
+                break;
+            }
+            final Message example = cluster.getExample();
+            final String count = cluster.getCount() > 1 ? "*" + cluster.getCount() + "\u00d7* " : "";
+            slackMessage.addBlock(new SectionBlock(TextObject.markdown(count + SlackEscaper.escape(example.getMessage()))));
+            slackMessage.addBlock(new ContextBlock(
+                    TextObject.plain(example.getSource()),
+                    TextObject.plain(String.valueOf(example.getTimestamp()))));
+            shown += cluster.getCount();
+        }
+
+        int hidden = summary.getUnclustered();
+        for (BacklogSummarizer.Cluster cluster : clusters) {
+            hidden += cluster.getCount();
+        }
+        hidden -= shown;
+        if (hidden > 0) {
+            slackMessage.addBlock(new ContextBlock(TextObject.plain(hidden + " more messages with other patterns")));
         }
     }
 
     private String buildFullMessageBody(Stream stream, AlertCondition.CheckResult result) {
         String graylogUri = configuration.getString(SlackConfiguration.CK_GRAYLOG2_URL);
-        String titleLink;
-        if (!isNullOrEmpty(graylogUri)) {
-            titleLink = "<" + buildStreamLink(graylogUri, stream) + "|" + stream.getTitle() + ">";
-        } else {
-            titleLink = "_" + stream.getTitle() + "_";
-        }
+        String titleLink = buildStreamTitleLink(graylogUri, stream);
 
         // Build custom message
         boolean notifyChannel = configuration.getBoolean(SlackConfiguration.CK_NOTIFY_CHANNEL);
         String audience = notifyChannel ? "@channel " : "";
-        String description = result.getResultDescription();
+        String description = SlackEscaper.escape(result.getResultDescription());
         return String.format("%s*Alert for Graylog stream %s*:\n> %s \n", audience, titleLink, description);
     }
 
-    private String buildCustomMessage(Stream stream, AlertCondition.CheckResult result, String template) {
-        List<Message> backlog = getAlarmBacklog(result);
+    private String buildCustomMessage(Stream stream, AlertCondition.CheckResult result, String template,
+                                      List<Message> backlog, BacklogSummarizer.Summary summary,
+                                      BacklogAggregator.Aggregates aggregates) {
         Map<String, Object> model = getModel(stream, result, backlog);
+        if (summary != null) {
+            model.put("backlog_summary", summary.getClusters());
+            model.put("backlog_unclustered", summary.getUnclustered());
+        }
+        if (aggregates != null) {
+            model.put("aggregates", aggregates);
+        }
         try {
             return templateEngine.transform(template, model);
         } catch (Exception ex) {
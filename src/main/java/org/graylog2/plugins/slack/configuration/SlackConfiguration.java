@@ -15,4 +15,29 @@ public class SlackConfiguration {
     public static final String CK_ADD_BLITEMS = "backlog_items";
     public static final String CK_CUSTOM_MESSAGE = "custom_message";
     public static final String CK_ADD_DETAILS = "add_details";
+    public static final String CK_HIGH_PRIORITY_LEVEL = "high_priority_level";
+    public static final String CK_CLUSTER_COORDINATION = "cluster_coordination";
+    public static final String CK_LATENCY_SLO = "latency_slo";
+    public static final String CK_SHUTDOWN_TIMEOUT = "shutdown_timeout";
+    public static final String CK_BLOCK_LAYOUT = "block_layout";
+    public static final String CK_DETAIL_FIELDS = "detail_fields";
+    public static final String CK_MAX_BLOCK_TIME = "max_block_time";
+    public static final String CK_WARM_UP = "warm_up";
+    public static final String CK_KEEP_ALIVE_INTERVAL = "keep_alive_interval";
+    public static final String CK_DNS_CACHE_TTL = "dns_cache_ttl";
+    public static final String CK_ATTEMPT_TIMEOUT = "attempt_timeout";
+    public static final String CK_MAX_ATTEMPTS = "max_attempts";
+    public static final String CK_HEDGE_PERCENTILE = "hedge_percentile";
+    public static final String CK_SUMMARIZE_BACKLOG = "summarize_backlog";
+    public static final String CK_FALLBACK_CHANNEL = "fallback_channel";
+    public static final String CK_MAX_QUEUE_SIZE = "max_queue_size";
+    public static final String CK_WEBHOOK_POOL = "webhook_pool";
+    public static final String CK_BACKLOG_FILE_FORMAT = "backlog_file_format";
+    public static final String CK_BACKLOG_FILE_FIELDS = "backlog_file_fields";
+    public static final String CK_BACKLOG_FILE_CHANNEL = "backlog_file_channel";
+    public static final String CK_API_TOKEN = "api_token";
+    public static final String CK_STREAM_WEIGHT = "stream_weight";
+    public static final String CK_MIN_STREAM_SHARE = "min_stream_share";
+    public static final String CK_AGGREGATE_FIELDS = "aggregate_fields";
+    public static final String CK_AGGREGATE_TOP_VALUES = "aggregate_top_values";
 }
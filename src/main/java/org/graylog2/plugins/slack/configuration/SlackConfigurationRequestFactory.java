@@ -1,12 +1,20 @@
 package org.graylog2.plugins.slack.configuration;
 
+import com.google.common.collect.ImmutableMap;
 import org.graylog2.plugin.configuration.ConfigurationRequest;
 import org.graylog2.plugin.configuration.fields.BooleanField;
 import org.graylog2.plugin.configuration.fields.ConfigurationField;
+import org.graylog2.plugin.configuration.fields.DropdownField;
 import org.graylog2.plugin.configuration.fields.NumberField;
 import org.graylog2.plugin.configuration.fields.TextField;
 
 public class SlackConfigurationRequestFactory {
+    public static final int DEFAULT_LATENCY_SLO_MILLIS = 60000;
+    public static final int DEFAULT_SHUTDOWN_TIMEOUT_SECONDS = 10;
+    public static final int DEFAULT_MAX_BLOCK_TIME_MILLIS = 100;
+    public static final int DEFAULT_DNS_CACHE_TTL_SECONDS = 60;
+    public static final int DEFAULT_ATTEMPT_TIMEOUT_SECONDS = 30;
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
 
     public static ConfigurationRequest createSlackMessageOutputConfigurationRequest() {
         final ConfigurationRequest configurationRequest = new ConfigurationRequest();
@@ -39,9 +47,24 @@ public class SlackConfigurationRequestFactory {
                 ConfigurationField.Optional.NOT_OPTIONAL)
         );
         configurationRequest.addField(new TextField(
-                SlackConfiguration.CK_CHANNEL, "Channel", "#channel", "Name of Slack #channel or @user for a direct message.",
+                SlackConfiguration.CK_WEBHOOK_POOL, "Additional webhook URLs", "",
+                "More incoming webhooks of the same workspace, separated by commas or line breaks. Messages are " +
+                        "spread over all webhooks to post more than the rate limit of one webhook allows, but may " +
+                        "then show up out of order. Failing webhooks are skipped for a while.",
+                ConfigurationField.Optional.OPTIONAL,
+                TextField.Attribute.TEXTAREA)
+        );
+        configurationRequest.addField(new TextField(
+                SlackConfiguration.CK_CHANNEL, "Channel", "#channel",
+                "Name of Slack #channel or @user for a direct message. Message fields can be used to pick the channel, " +
+                        "e.g. #team-${team}. Channels are posted in parallel, each in the order of its messages.",
                 ConfigurationField.Optional.NOT_OPTIONAL)
         );
+        configurationRequest.addField(new TextField(
+                SlackConfiguration.CK_FALLBACK_CHANNEL, "Fallback channel", null,
+                "Channel for messages lacking a field used in the channel. Such messages are skipped if it is empty.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
         configurationRequest.addField(new TextField(
                 SlackConfiguration.CK_USER_NAME, "User name", "Graylog",
                 "User name of the sender in Slack",
@@ -72,7 +95,10 @@ public class SlackConfigurationRequestFactory {
         );
         configurationRequest.addField(new TextField(
                 SlackConfiguration.CK_PROXY_ADDRESS, "Proxy", null,
-                "Please insert the proxy information in the follwoing format: <ProxyAddress>:<Port>",
+                "Please insert the proxy information in the following format: http://<ProxyAddress>:<Port>. Separate several "
+                        + "proxies with commas to fail over between them. Credentials go before the address: "
+                        + "http://<User>:<Password>@<ProxyAddress>:<Port> (HTTPS webhooks need the proxy credentials "
+                        + "set up for the Graylog JVM, see README)",
                 ConfigurationField.Optional.OPTIONAL)
         );
         configurationRequest.addField(new BooleanField(
@@ -84,6 +110,65 @@ public class SlackConfigurationRequestFactory {
                 SlackConfiguration.CK_ADD_DETAILS, "Include more information", true,
                 "Add structured information as message attachment")
         );
+        configurationRequest.addField(new TextField(
+                SlackConfiguration.CK_DETAIL_FIELDS, "Detail fields", "",
+                "Comma separated names of the message fields to include in the details, in this order. " +
+                        "Leave empty to include all fields.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new BooleanField(
+                SlackConfiguration.CK_BLOCK_LAYOUT, "Block Kit layout", false,
+                "Lay out messages with Slack blocks instead of attachments. Queued messages are combined into fewer posts.")
+        );
+        configurationRequest.addField(new NumberField(
+                SlackConfiguration.CK_HIGH_PRIORITY_LEVEL, "High priority level", 3,
+                "Messages with a syslog level up to this value (e.g. 3 = error) are sent ahead of other messages. " +
+                        "Alarm callbacks posting to the same webhook always take precedence.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+
+        configurationRequest.addField(new BooleanField(
+                SlackConfiguration.CK_CLUSTER_COORDINATION, "Coordinate cluster nodes", false,
+                "Share the rate limit of the webhook and suppress duplicate notifications across all Graylog nodes " +
+                        "by keeping track of them in MongoDB.")
+        );
+        addConnectionFields(configurationRequest);
+        configurationRequest.addField(new NumberField(
+                SlackConfiguration.CK_LATENCY_SLO, "Delivery latency SLO (ms)", DEFAULT_LATENCY_SLO_MILLIS,
+                "Maximum time in milliseconds from the timestamp of a message or alert until it has been posted to Slack. " +
+                        "Slower deliveries are logged and counted as SLO breaches, 0 disables the check.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                SlackConfiguration.CK_SHUTDOWN_TIMEOUT, "Shutdown timeout (s)", DEFAULT_SHUTDOWN_TIMEOUT_SECONDS,
+                "Seconds to wait for pending messages to be posted when the output is stopped. Messages left over are " +
+                        "saved on the node and posted when the output is started again.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                SlackConfiguration.CK_MAX_BLOCK_TIME, "Maximum block time (ms)", DEFAULT_MAX_BLOCK_TIME_MILLIS,
+                "Milliseconds to wait for room in the send queue before a message is rejected and left to Graylog " +
+                        "to retry. High priority messages push out queued low priority messages instead.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                SlackConfiguration.CK_MAX_QUEUE_SIZE, "Maximum queue size (MB)", 0,
+                "Memory the messages waiting in the send queue of the webhook may take, on top of the limit of " +
+                        "1000 messages. 0 for no limit. If several outputs share the webhook, the smallest limit wins.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                SlackConfiguration.CK_STREAM_WEIGHT, "Stream weight", 1,
+                "If the webhook can't keep up with all streams posting to it, streams take turns in proportion to " +
+                        "their weights, so a stream with weight 2 gets twice the posts of a stream with weight 1.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                SlackConfiguration.CK_MIN_STREAM_SHARE, "Minimum stream share (%)", 0,
+                "Percentage of the posts of the webhook the stream gets at least while it has messages waiting, " +
+                        "regardless of its weight. 0 for none.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
 
         return configurationRequest;
     }
@@ -145,6 +230,50 @@ public class SlackConfigurationRequestFactory {
                 SlackConfiguration.CK_ADD_BLITEMS, "Backlog items", 5,
                 "Number of backlog item descriptions to attach")
         );
+        configurationRequest.addField(new BooleanField(
+                SlackConfiguration.CK_BLOCK_LAYOUT, "Block Kit layout", false,
+                "Lay out the alert with Slack blocks instead of attachments and list the backlog items in it.")
+        );
+        configurationRequest.addField(new BooleanField(
+                SlackConfiguration.CK_SUMMARIZE_BACKLOG, "Summarize backlog", false,
+                "Group backlog messages which only differ in numbers and IDs, and list each group once with its size. " +
+                        "Templates can use \"backlog_summary\", whose entries have a \"count\", \"pattern\" and \"example\" message.")
+        );
+        configurationRequest.addField(new TextField(
+                SlackConfiguration.CK_AGGREGATE_FIELDS, "Aggregated fields", "",
+                "Comma separated names of message fields whose most frequent values among the matching messages are " +
+                        "shown in the alert, together with the number of messages and their time range. Templates can " +
+                        "use \"aggregates\", e.g. ${aggregates.count} or ${aggregates.fields.source}.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                SlackConfiguration.CK_AGGREGATE_TOP_VALUES, "Top values per field", 5,
+                "Number of most frequent values to show per aggregated field.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new DropdownField(
+                SlackConfiguration.CK_BACKLOG_FILE_FORMAT, "Backlog file", "none",
+                ImmutableMap.of("none", "None", "csv", "CSV", "ndjson", "NDJSON"),
+                "Upload the whole backlog as a gzipped file and link it in the alert, for backlogs too large for a message. " +
+                        "Needs an API token.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new TextField(
+                SlackConfiguration.CK_BACKLOG_FILE_FIELDS, "Backlog file fields", "timestamp,source,message",
+                "Comma-separated message fields to write to the backlog file.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new TextField(
+                SlackConfiguration.CK_BACKLOG_FILE_CHANNEL, "Backlog file channel ID", null,
+                "ID of the channel to share backlog files in, e.g. C024BE91L. Files which aren't shared can only be opened by the app.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new TextField(
+                SlackConfiguration.CK_API_TOKEN, "API token", null,
+                "Token of a Slack app with the files:write scope, used to upload backlog files.",
+                ConfigurationField.Optional.OPTIONAL,
+                TextField.Attribute.IS_PASSWORD)
+        );
 
         configurationRequest.addField(new BooleanField(
                 SlackConfiguration.CK_NOTIFY_CHANNEL, "Notify Channel", false,
@@ -171,11 +300,63 @@ public class SlackConfigurationRequestFactory {
         );
         configurationRequest.addField(new TextField(
                 SlackConfiguration.CK_PROXY_ADDRESS, "Proxy", null,
-                "Please insert the proxy information in the follwoing format: <ProxyAddress>:<Port>",
+                "Please insert the proxy information in the following format: http://<ProxyAddress>:<Port>. Separate several "
+                        + "proxies with commas to fail over between them. Credentials go before the address: "
+                        + "http://<User>:<Password>@<ProxyAddress>:<Port> (HTTPS webhooks need the proxy credentials "
+                        + "set up for the Graylog JVM, see README)",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+
+        configurationRequest.addField(new BooleanField(
+                SlackConfiguration.CK_CLUSTER_COORDINATION, "Coordinate cluster nodes", false,
+                "Share the rate limit of the webhook and suppress duplicate notifications across all Graylog nodes " +
+                        "by keeping track of them in MongoDB.")
+        );
+        addConnectionFields(configurationRequest);
+        configurationRequest.addField(new NumberField(
+                SlackConfiguration.CK_LATENCY_SLO, "Delivery latency SLO (ms)", DEFAULT_LATENCY_SLO_MILLIS,
+                "Maximum time in milliseconds from the timestamp of a message or alert until it has been posted to Slack. " +
+                        "Slower deliveries are logged and counted as SLO breaches, 0 disables the check.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                SlackConfiguration.CK_ATTEMPT_TIMEOUT, "Attempt timeout (s)", DEFAULT_ATTEMPT_TIMEOUT_SECONDS,
+                "Seconds to wait for Slack to accept or answer a single delivery attempt. 0 waits forever.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                SlackConfiguration.CK_MAX_ATTEMPTS, "Delivery attempts", DEFAULT_MAX_ATTEMPTS,
+                "Number of times a failed alert is posted, with growing pauses in between. Retries are limited to " +
+                        "a share of the successful posts to the webhook, so an outage doesn't lead to a retry storm. " +
+                        "Alerts which were sent but got no response in time aren't retried, Slack may have posted them.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                SlackConfiguration.CK_HEDGE_PERCENTILE, "Hedging percentile", 0,
+                "If connecting to Slack takes longer than this percentile of the recent post latencies (e.g. 95), " +
+                        "a second connection is opened and the alert is posted over whichever is ready first. " +
+                        "The alert is never posted twice. 0 disables hedging.",
                 ConfigurationField.Optional.OPTIONAL)
         );
 
         return configurationRequest;
     }
 
+    private static void addConnectionFields(ConfigurationRequest configurationRequest) {
+        configurationRequest.addField(new BooleanField(
+                SlackConfiguration.CK_WARM_UP, "Warm up connection", false,
+                "Connect to the webhook when the configuration is saved, and refuse the configuration if it can't be reached.")
+        );
+        configurationRequest.addField(new NumberField(
+                SlackConfiguration.CK_KEEP_ALIVE_INTERVAL, "Keep-alive interval (s)", 0,
+                "Seconds without posts after which the connection to the webhook is refreshed, so the next post " +
+                        "doesn't have to connect first. 0 disables keep-alive requests.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                SlackConfiguration.CK_DNS_CACHE_TTL, "DNS cache TTL (s)", DEFAULT_DNS_CACHE_TTL_SECONDS,
+                "Seconds to cache the resolved addresses of the webhook and proxy hosts.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+    }
 }
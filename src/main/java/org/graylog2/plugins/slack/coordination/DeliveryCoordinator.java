@@ -0,0 +1,34 @@
+package org.graylog2.plugins.slack.coordination;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares rate limit budgets and deduplication keys between everything that posts to Slack.
+ * <p>
+ * Rate limits are counted in fixed windows of {@link #WINDOW_MILLIS}. A request which finds its window exhausted is
+ * told how long to wait until the next one starts.
+ */
+public interface DeliveryCoordinator {
+
+    long WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    long DEDUPLICATION_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Takes a permit from the budget of the given key, as long as {@code reserved} permits remain for others.
+     *
+     * @return {@code 0} if a permit was taken, otherwise the number of milliseconds until the next window starts
+     */
+    long tryAcquire(String key, int permitsPerWindow, int reserved);
+
+    /**
+     * Claims a deduplication key for {@link #DEDUPLICATION_TTL_MILLIS}.
+     *
+     * @return {@code true} if nobody else holds the key, {@code false} if the delivery is a duplicate
+     */
+    boolean claim(String dedupKey);
+
+    /**
+     * Releases a key claimed by {@link #claim(String)}, e.g. because the delivery failed and may be retried.
+     */
+    void release(String dedupKey);
+}
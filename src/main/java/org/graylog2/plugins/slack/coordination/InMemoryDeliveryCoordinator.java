@@ -0,0 +1,69 @@
+package org.graylog2.plugins.slack.coordination;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coordinates the deliveries of a single Graylog node.
+ */
+public class InMemoryDeliveryCoordinator implements DeliveryCoordinator {
+
+    private static final long MAX_DEDUPLICATION_KEYS = 100_000L;
+
+    private final Map<String, Window> windows = new HashMap<>();
+    private final Cache<String, Boolean> claimedKeys = CacheBuilder.newBuilder()
+            .expireAfterWrite(DEDUPLICATION_TTL_MILLIS, TimeUnit.MILLISECONDS)
+            .maximumSize(MAX_DEDUPLICATION_KEYS)
+            .build();
+
+    @Override
+    public synchronized long tryAcquire(String key, int permitsPerWindow, int reserved) {
+        final long now = System.currentTimeMillis();
+        final long window = now / WINDOW_MILLIS;
+
+        Window current = windows.get(key);
+        if (current == null || current.window != window) {
+            expireWindows(window);
+            current = new Window(window);
+            windows.put(key, current);
+        }
+
+        if (current.used < permitsPerWindow - reserved) {
+            current.used++;
+            return 0L;
+        }
+        return (window + 1) * WINDOW_MILLIS - now;
+    }
+
+    private void expireWindows(long window) {
+        for (Iterator<Window> it = windows.values().iterator(); it.hasNext(); ) {
+            if (it.next().window < window) {
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public boolean claim(String dedupKey) {
+        return claimedKeys.asMap().putIfAbsent(dedupKey, Boolean.TRUE) == null;
+    }
+
+    @Override
+    public void release(String dedupKey) {
+        claimedKeys.invalidate(dedupKey);
+    }
+
+    private static class Window {
+        private final long window;
+        private int used;
+
+        private Window(long window) {
+            this.window = window;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.graylog2.plugins.slack.coordination;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DuplicateKeyException;
+import com.mongodb.MongoException;
+import org.graylog2.database.MongoConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Date;
+
+/**
+ * Coordinates the deliveries of all Graylog nodes through the MongoDB database of the cluster.
+ * <p>
+ * Both collections carry a TTL index, so MongoDB removes finished rate limit windows and expired deduplication keys
+ * by itself. If MongoDB can't be reached, deliveries go ahead rather than being held back.
+ */
+@Singleton
+public class MongoDeliveryCoordinator implements DeliveryCoordinator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MongoDeliveryCoordinator.class);
+
+    static final String RATE_LIMITS_COLLECTION = "slack_rate_limits";
+    static final String DEDUPLICATION_COLLECTION = "slack_delivery_keys";
+
+    private static final String FIELD_ID = "_id";
+    private static final String FIELD_COUNT = "count";
+    private static final String FIELD_EXPIRE_AT = "expire_at";
+
+    private final DBCollection rateLimits;
+    private final DBCollection deliveryKeys;
+
+    @Inject
+    public MongoDeliveryCoordinator(MongoConnection mongoConnection) {
+        this.rateLimits = mongoConnection.getDatabase().getCollection(RATE_LIMITS_COLLECTION);
+        this.deliveryKeys = mongoConnection.getDatabase().getCollection(DEDUPLICATION_COLLECTION);
+
+        final BasicDBObject expireImmediately = new BasicDBObject("expireAfterSeconds", 0);
+        rateLimits.createIndex(new BasicDBObject(FIELD_EXPIRE_AT, 1), expireImmediately);
+        deliveryKeys.createIndex(new BasicDBObject(FIELD_EXPIRE_AT, 1), expireImmediately);
+    }
+
+    @Override
+    public long tryAcquire(String key, int permitsPerWindow, int reserved) {
+        final long now = System.currentTimeMillis();
+        final long window = now / WINDOW_MILLIS;
+        final long nextWindowStart = (window + 1) * WINDOW_MILLIS;
+
+        // The count condition makes the update a no-op once the window is exhausted. The upsert then collides with
+        // the existing document, so checking and taking a permit is a single atomic operation.
+        final BasicDBObject query = new BasicDBObject(FIELD_ID, key + ':' + window)
+                .append(FIELD_COUNT, new BasicDBObject("$lt", permitsPerWindow - reserved));
+        final BasicDBObject update = new BasicDBObject("$inc", new BasicDBObject(FIELD_COUNT, 1))
+                .append("$setOnInsert", new BasicDBObject(FIELD_EXPIRE_AT, new Date(nextWindowStart + WINDOW_MILLIS)));
+        try {
+            rateLimits.findAndModify(query, null, null, false, update, true, true);
+            return 0L;
+        } catch (DuplicateKeyException e) {
+            return nextWindowStart - now;
+        } catch (MongoException e) {
+            LOG.warn("Couldn't take a Slack rate limit permit from MongoDB, sending without cluster rate limit.", e);
+            return 0L;
+        }
+    }
+
+    @Override
+    public boolean claim(String dedupKey) {
+        final Date expireAt = new Date(System.currentTimeMillis() + DEDUPLICATION_TTL_MILLIS);
+        try {
+            deliveryKeys.insert(new BasicDBObject(FIELD_ID, dedupKey).append(FIELD_EXPIRE_AT, expireAt));
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        } catch (MongoException e) {
+            LOG.warn("Couldn't claim Slack delivery key in MongoDB, sending without deduplication.", e);
+            return true;
+        }
+    }
+
+    @Override
+    public void release(String dedupKey) {
+        try {
+            deliveryKeys.remove(new BasicDBObject(FIELD_ID, dedupKey));
+        } catch (MongoException e) {
+            LOG.warn("Couldn't release Slack delivery key in MongoDB.", e);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package org.graylog2.plugins.slack.dispatch;
+
+public class DeliveryDroppedException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public DeliveryDroppedException(String msg) {
+        super(msg);
+    }
+
+}
@@ -0,0 +1,73 @@
+package org.graylog2.plugins.slack.dispatch;
+
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugins.slack.configuration.SlackConfiguration;
+import org.graylog2.plugins.slack.configuration.SlackConfigurationRequestFactory;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * How hard the dispatcher tries to deliver a notification: the timeout of every attempt, how many attempts it may
+ * make and whether a slow attempt is hedged with a second one.
+ */
+public class DeliveryPolicy {
+    public static final DeliveryPolicy DEFAULT = new DeliveryPolicy(
+            (int) TimeUnit.SECONDS.toMillis(SlackConfigurationRequestFactory.DEFAULT_ATTEMPT_TIMEOUT_SECONDS), 1, 0);
+
+    private static final long INITIAL_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final int attemptTimeoutMillis;
+    private final int maxAttempts;
+    private final int hedgePercentile;
+
+    /**
+     * @param attemptTimeoutMillis connect and read timeout of a single attempt, 0 waits forever
+     * @param maxAttempts          attempts including the first one
+     * @param hedgePercentile      percentile of the recent post latencies after which a connection attempt is hedged,
+     *                             0 disables hedging
+     */
+    public DeliveryPolicy(int attemptTimeoutMillis, int maxAttempts, int hedgePercentile) {
+        checkArgument(attemptTimeoutMillis >= 0, "attemptTimeoutMillis must not be negative");
+        checkArgument(maxAttempts >= 1, "maxAttempts must be at least 1");
+        checkArgument(hedgePercentile >= 0 && hedgePercentile < 100, "hedgePercentile must be between 0 and 99");
+        this.attemptTimeoutMillis = attemptTimeoutMillis;
+        this.maxAttempts = maxAttempts;
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    public static DeliveryPolicy fromConfiguration(Configuration configuration) {
+        final int timeoutSeconds = configuration.getInt(SlackConfiguration.CK_ATTEMPT_TIMEOUT,
+                SlackConfigurationRequestFactory.DEFAULT_ATTEMPT_TIMEOUT_SECONDS);
+        final int maxAttempts = configuration.getInt(SlackConfiguration.CK_MAX_ATTEMPTS,
+                SlackConfigurationRequestFactory.DEFAULT_MAX_ATTEMPTS);
+        final int hedgePercentile = configuration.getInt(SlackConfiguration.CK_HEDGE_PERCENTILE, 0);
+        return new DeliveryPolicy((int) TimeUnit.SECONDS.toMillis(Math.max(0, timeoutSeconds)),
+                Math.max(1, maxAttempts), Math.min(99, Math.max(0, hedgePercentile)));
+    }
+
+    public int getAttemptTimeoutMillis() {
+        return attemptTimeoutMillis;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public int getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    public boolean isHedged() {
+        return hedgePercentile > 0;
+    }
+
+    /**
+     * Exponential backoff before the given retry, starting at one second.
+     */
+    long backoffNanos(int retry) {
+        return Math.min(MAX_BACKOFF_NANOS, INITIAL_BACKOFF_NANOS << Math.min(retry - 1, 16));
+    }
+}
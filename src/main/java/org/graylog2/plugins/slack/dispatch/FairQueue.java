@@ -0,0 +1,196 @@
+package org.graylog2.plugins.slack.dispatch;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A lane of a dispatcher which takes turns among streams instead of going first come, first served, so a stream
+ * flooding the webhook can't starve the others.
+ * <p>
+ * Streams are served by start-time fair queueing: each post advances the virtual time of its stream by the inverse
+ * of the stream's weight, and the stream furthest behind goes next. Before that, a stream which got less than its
+ * minimum share of the recent posts of the webhook goes first. Notifications of a stream stay in order.
+ * <p>
+ * Not thread-safe, the dispatcher guards it with its lock.
+ */
+class FairQueue<E> implements Iterable<E> {
+
+    private final Map<String, Flow<E>> flows = new LinkedHashMap<>();
+    private double virtualTime;
+    private int size;
+
+    void addLast(E element, StreamShare share) {
+        final Flow<E> flow = flowOf(share);
+        if (flow.queue.isEmpty()) {
+            // A stream which was idle starts at the current virtual time, without credit for its idle time.
+            flow.start = Math.max(flow.start, virtualTime);
+        }
+        flow.queue.addLast(element);
+        size++;
+    }
+
+    /**
+     * Puts an element taken with {@link #pollFirst(StreamUsage)} back in front, e.g. because the rate limit didn't
+     * let it through after all. Its stream gets the turn back.
+     */
+    void addFirst(E element, StreamShare share, StreamUsage usage) {
+        final boolean known = flows.containsKey(share.getStreamId());
+        final Flow<E> flow = flowOf(share);
+        if (known) {
+            flow.start -= 1.0d / flow.weight;
+        }
+        flow.queue.addFirst(element);
+        size++;
+        usage.record(share.getStreamId(), -1.0d);
+    }
+
+    /**
+     * @return the element {@link #pollFirst(StreamUsage)} would take, {@code null} if the queue is empty
+     */
+    E peekFirst(StreamUsage usage) {
+        final Flow<E> flow = next(usage);
+        return flow == null ? null : flow.queue.peekFirst();
+    }
+
+    E pollFirst(StreamUsage usage) {
+        final Flow<E> flow = next(usage);
+        if (flow == null) {
+            return null;
+        }
+        virtualTime = Math.max(virtualTime, flow.start);
+        flow.start += 1.0d / flow.weight;
+        usage.record(flow.streamId, 1.0d);
+        size--;
+        final E element = flow.queue.pollFirst();
+        forgetIdleFlows();
+        return element;
+    }
+
+    /**
+     * Takes the oldest element of the stream with the longest queue for its weight, to make room for others.
+     */
+    E pollVictim() {
+        Flow<E> victim = null;
+        for (Flow<E> flow : flows.values()) {
+            if (flow.queue.isEmpty()) {
+                continue;
+            }
+            if (victim == null || flow.queue.size() / flow.weight > victim.queue.size() / victim.weight) {
+                victim = flow;
+            }
+        }
+        if (victim == null) {
+            return null;
+        }
+        size--;
+        return victim.queue.pollFirst();
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private Flow<E> next(StreamUsage usage) {
+        Flow<E> next = null;
+        double largestDeficit = 0;
+        for (Flow<E> flow : flows.values()) {
+            if (flow.minShare <= 0 || flow.queue.isEmpty()) {
+                continue;
+            }
+            final double deficit = flow.minShare - usage.share(flow.streamId);
+            if (deficit > largestDeficit) {
+                largestDeficit = deficit;
+                next = flow;
+            }
+        }
+        if (next != null) {
+            return next;
+        }
+        for (Flow<E> flow : flows.values()) {
+            if (!flow.queue.isEmpty() && (next == null || flow.start < next.start)) {
+                next = flow;
+            }
+        }
+        return next;
+    }
+
+    private Flow<E> flowOf(StreamShare share) {
+        Flow<E> flow = flows.get(share.getStreamId());
+        if (flow == null) {
+            flow = new Flow<>(share.getStreamId(), virtualTime);
+            flows.put(share.getStreamId(), flow);
+        }
+        // Outputs of the same stream may set different weights, the latest one wins.
+        flow.weight = share.getWeight();
+        flow.minShare = share.getMinShare();
+        return flow;
+    }
+
+    /**
+     * Streams without queued elements are only remembered while they are ahead of the virtual time, so that they
+     * can't get ahead of the others by emptying their queue now and then.
+     */
+    private void forgetIdleFlows() {
+        for (Iterator<Flow<E>> it = flows.values().iterator(); it.hasNext(); ) {
+            final Flow<E> flow = it.next();
+            if (flow.queue.isEmpty() && flow.start <= virtualTime) {
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        final Iterator<Flow<E>> flowIterator = flows.values().iterator();
+        return new Iterator<E>() {
+            private Iterator<E> elements;
+
+            @Override
+            public boolean hasNext() {
+                while (elements == null || !elements.hasNext()) {
+                    if (!flowIterator.hasNext()) {
+                        return false;
+                    }
+                    elements = flowIterator.next().queue.iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public E next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return elements.next();
+            }
+
+            @Override
+            public void remove() {
+                elements.remove();
+                size--;
+            }
+        };
+    }
+
+    private static class Flow<E> {
+        private final String streamId;
+        private final Deque<E> queue = new ArrayDeque<>();
+        // Virtual time at which the first queued element of the stream is due.
+        private double start;
+        private double weight;
+        private double minShare;
+
+        private Flow(String streamId, double start) {
+            this.streamId = streamId;
+            this.start = start;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package org.graylog2.plugins.slack.dispatch;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.graylog2.plugins.slack.SlackMessage;
+import org.graylog2.plugins.slack.stats.DeliveryStats;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Spreads the channels of a webhook over a fixed set of dispatchers, each of which sends with a single thread. Messages
+ * of the same channel and priority are posted in the order they were submitted, while different channels are posted
+ * in parallel.
+ * <p>
+ * A channel goes to the partition its name hashes to. It sticks to that partition as long as it has messages in
+ * flight; once they are all delivered, the channel is free to move, so it's put on the least loaded partition if its
+ * own one is hot.
+ */
+public class PartitionedDispatcher {
+
+    public static final int DEFAULT_PARTITIONS = 4;
+    static final int DEFAULT_REBALANCE_THRESHOLD = 100;
+
+    private final String webhookKey;
+    private final List<SlackDispatcher> partitions;
+    private final int rebalanceThreshold;
+    private final Map<String, Assignment> assignments = new HashMap<>();
+    private final AtomicLong rebalanced = new AtomicLong();
+
+    PartitionedDispatcher(String webhookKey, List<SlackDispatcher> partitions) {
+        this(webhookKey, partitions, DEFAULT_REBALANCE_THRESHOLD);
+    }
+
+    @VisibleForTesting
+    PartitionedDispatcher(String webhookKey, List<SlackDispatcher> partitions, int rebalanceThreshold) {
+        checkArgument(!partitions.isEmpty(), "at least one partition is required");
+        this.webhookKey = webhookKey;
+        this.partitions = ImmutableList.copyOf(partitions);
+        this.rebalanceThreshold = rebalanceThreshold;
+    }
+
+    /**
+     * Like {@link SlackDispatcher#offer(Priority, SlackMessage, String, DeliveryStats, long, long)} on the partition
+     * of the channel.
+     *
+     * @throws QueueSaturatedException if the queue of the partition is still full after waiting
+     */
+    public ListenableFuture<Void> offer(final String channel, Priority priority, SlackMessage message, String dedupKey,
+                                        DeliveryStats stats, long eventMillis, long maxWaitNanos)
+            throws QueueSaturatedException {
+        return offer(channel, priority, message, dedupKey, stats, eventMillis, maxWaitNanos, StreamShare.DEFAULT);
+    }
+
+    /**
+     * @param share the stream of the notification and its share of the webhook
+     */
+    public ListenableFuture<Void> offer(final String channel, Priority priority, SlackMessage message, String dedupKey,
+                                        DeliveryStats stats, long eventMillis, long maxWaitNanos, StreamShare share)
+            throws QueueSaturatedException {
+        final Assignment assignment = acquire(channel);
+        final ListenableFuture<Void> future;
+        try {
+            future = partitions.get(assignment.partition).offer(priority, message, dedupKey, stats, eventMillis,
+                    maxWaitNanos, share);
+        } catch (QueueSaturatedException | RuntimeException e) {
+            release(channel);
+            throw e;
+        }
+
+        Futures.addCallback(future, new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                release(channel);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                release(channel);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * @see SlackDispatcher#withdraw(ListenableFuture)
+     */
+    public boolean withdraw(ListenableFuture<Void> future) {
+        for (SlackDispatcher partition : partitions) {
+            if (partition.withdraw(future)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @see SlackDispatcher#streamShare(String)
+     */
+    public double streamShare(String streamId) {
+        // The partitions keep track of the streams together.
+        return partitions.get(0).streamShare(streamId);
+    }
+
+    List<SlackDispatcher> partitions() {
+        return partitions;
+    }
+
+    /**
+     * The number of times a channel was moved off its hot partition.
+     */
+    public long rebalancedCount() {
+        return rebalanced.get();
+    }
+
+    @VisibleForTesting
+    synchronized Integer partitionOf(String channel) {
+        final Assignment assignment = assignments.get(channel);
+        return assignment == null ? null : assignment.partition;
+    }
+
+    @VisibleForTesting
+    int homePartition(String channel) {
+        final int hash = Hashing.murmur3_32().hashString(webhookKey + '|' + channel, StandardCharsets.UTF_8).asInt();
+        return Hashing.consistentHash(hash, partitions.size());
+    }
+
+    private synchronized Assignment acquire(String channel) {
+        Assignment assignment = assignments.get(channel);
+        if (assignment == null) {
+            assignment = new Assignment(choosePartition(channel));
+            assignments.put(channel, assignment);
+        }
+        assignment.inFlight++;
+        return assignment;
+    }
+
+    private synchronized void release(String channel) {
+        final Assignment assignment = assignments.get(channel);
+        if (assignment != null && --assignment.inFlight == 0) {
+            assignments.remove(channel);
+        }
+    }
+
+    private int choosePartition(String channel) {
+        final int home = homePartition(channel);
+        final int homeQueued = partitions.get(home).queued();
+        if (homeQueued < rebalanceThreshold) {
+            return home;
+        }
+
+        int leastLoaded = home;
+        int leastQueued = homeQueued;
+        for (int i = 0; i < partitions.size(); i++) {
+            final int queued = partitions.get(i).queued();
+            if (queued < leastQueued) {
+                leastLoaded = i;
+                leastQueued = queued;
+            }
+        }
+        if (homeQueued - leastQueued < rebalanceThreshold) {
+            return home;
+        }
+        rebalanced.incrementAndGet();
+        return leastLoaded;
+    }
+
+    private static class Assignment {
+        private final int partition;
+        private int inFlight;
+
+        private Assignment(int partition) {
+            this.partition = partition;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.graylog2.plugins.slack.dispatch;
+
+/**
+ * Delivery lanes of a {@link SlackDispatcher}, highest priority first.
+ * <p>
+ * Each lane must leave {@link #reservedTokens()} tokens in the rate limit bucket, so lower lanes can never use up the
+ * capacity which is kept for the lanes above them.
+ */
+public enum Priority {
+    ALERT(0),
+    HIGH(1),
+    BULK(2);
+
+    private final int reservedTokens;
+
+    Priority(int reservedTokens) {
+        this.reservedTokens = reservedTokens;
+    }
+
+    public int reservedTokens() {
+        return reservedTokens;
+    }
+}
@@ -0,0 +1,14 @@
+package org.graylog2.plugins.slack.dispatch;
+
+/**
+ * Thrown when a message can't be queued because the send queue of the webhook stayed full for too long.
+ */
+public class QueueSaturatedException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public QueueSaturatedException(String msg) {
+        super(msg);
+    }
+
+}
@@ -0,0 +1,31 @@
+package org.graylog2.plugins.slack.dispatch;
+
+import org.graylog2.plugins.slack.coordination.DeliveryCoordinator;
+
+/**
+ * The rate limit window of a webhook, shared by all its dispatchers. It is counted by the cluster coordinator while
+ * one of them is cluster coordinated, so local and cluster coordinated dispatchers don't post at the full rate each.
+ */
+class RateWindow {
+
+    private volatile DeliveryCoordinator coordinator;
+
+    RateWindow(DeliveryCoordinator coordinator) {
+        this.coordinator = coordinator;
+    }
+
+    /**
+     * @see DeliveryCoordinator#tryAcquire(String, int, int)
+     */
+    long tryAcquire(String key, int permitsPerWindow, int reserved) {
+        return coordinator.tryAcquire(key, permitsPerWindow, reserved);
+    }
+
+    void coordinateWith(DeliveryCoordinator coordinator) {
+        this.coordinator = coordinator;
+    }
+
+    DeliveryCoordinator coordinator() {
+        return coordinator;
+    }
+}
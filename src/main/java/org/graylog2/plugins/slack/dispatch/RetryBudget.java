@@ -0,0 +1,34 @@
+package org.graylog2.plugins.slack.dispatch;
+
+/**
+ * Limits retries to a fraction of the successful posts, so that a failing webhook isn't flooded with retries.
+ */
+class RetryBudget {
+
+    private final double maxTokens;
+    private final double tokensPerSuccess;
+
+    private double tokens;
+
+    RetryBudget(double maxTokens, double tokensPerSuccess) {
+        this.maxTokens = maxTokens;
+        this.tokensPerSuccess = tokensPerSuccess;
+        this.tokens = maxTokens;
+    }
+
+    synchronized boolean tryAcquire() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    synchronized double available() {
+        return tokens;
+    }
+
+    synchronized void recordSuccess() {
+        tokens = Math.min(maxTokens, tokens + tokensPerSuccess);
+    }
+}
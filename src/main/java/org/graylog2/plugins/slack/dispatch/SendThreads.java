@@ -0,0 +1,97 @@
+package org.graylog2.plugins.slack.dispatch;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The threads which post to Slack. Posting blocks on the network, so on Java 21 and later it runs on virtual threads,
+ * which cost next to nothing while they wait. Older JVMs use platform threads: background posts and attempts of
+ * hedged posts share a pool of at most {@value #MAX_PLATFORM_ATTEMPT_THREADS} of them, with room for
+ * {@value #MAX_QUEUED_PLATFORM_ATTEMPTS} more waiting.
+ * <p>
+ * Workers take batches off the lanes of their dispatcher and hand them to the attempt threads, so a webhook has as
+ * many posts in progress as its send permits allow. When the pool is exhausted, a post runs on the thread which
+ * started it instead and hedges are skipped.
+ * <p>
+ * The plugin is built for Java 8, so virtual threads are looked up by reflection.
+ */
+final class SendThreads {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SendThreads.class);
+
+    static final int MAX_PLATFORM_ATTEMPT_THREADS = 64;
+    static final int MAX_QUEUED_PLATFORM_ATTEMPTS = 64;
+
+    private static final ThreadFactory VIRTUAL_WORKERS = virtualThreadFactory("slack-dispatcher-");
+    private static final ThreadFactory VIRTUAL_ATTEMPTS = virtualThreadFactory("slack-attempt-");
+    private static final ThreadFactory PLATFORM_WORKERS = new ThreadFactoryBuilder()
+            .setNameFormat("slack-dispatcher-%d")
+            .setDaemon(true)
+            .build();
+
+    static {
+        LOG.debug("Posting to Slack on {} threads.", isVirtual() ? "virtual" : "platform");
+    }
+
+    private SendThreads() {
+    }
+
+    static boolean isVirtual() {
+        return VIRTUAL_WORKERS != null && VIRTUAL_ATTEMPTS != null;
+    }
+
+    /**
+     * Threads for the dispatch loops, which take one batch after another off the lanes.
+     */
+    static ThreadFactory workers() {
+        return isVirtual() ? VIRTUAL_WORKERS : PLATFORM_WORKERS;
+    }
+
+    /**
+     * Runs background posts and the attempts of hedged posts. On platform threads it throws
+     * {@link java.util.concurrent.RejectedExecutionException} once all threads are busy and the queue is full.
+     */
+    static Executor attempts() {
+        return isVirtual() ? new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                VIRTUAL_ATTEMPTS.newThread(command).start();
+            }
+        } : PlatformAttempts.EXECUTOR;
+    }
+
+    private static ThreadFactory virtualThreadFactory(String prefix) {
+        try {
+            final Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            final Object named = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(named);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Before Java 21 virtual threads don't exist, or are a preview feature which is usually disabled.
+            return null;
+        }
+    }
+
+    // Only created if there are no virtual threads.
+    private static class PlatformAttempts {
+        private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+                MAX_PLATFORM_ATTEMPT_THREADS, MAX_PLATFORM_ATTEMPT_THREADS, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_QUEUED_PLATFORM_ATTEMPTS),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("slack-attempt-%d")
+                        .setDaemon(true)
+                        .build(),
+                new ThreadPoolExecutor.AbortPolicy());
+
+        static {
+            EXECUTOR.allowCoreThreadTimeOut(true);
+        }
+    }
+}
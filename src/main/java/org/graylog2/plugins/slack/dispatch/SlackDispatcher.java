@@ -0,0 +1,1149 @@
+package org.graylog2.plugins.slack.dispatch;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.graylog2.plugins.slack.SlackClient;
+import org.graylog2.plugins.slack.SlackMessage;
+import org.graylog2.plugins.slack.blocks.Block;
+import org.graylog2.plugins.slack.coordination.DeliveryCoordinator;
+import org.graylog2.plugins.slack.stats.DeliveryStats;
+import org.graylog2.plugins.slack.stats.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sends messages to a single Slack webhook from prioritized lanes.
+ * <p>
+ * Alerts always go out first and have rate limit capacity reserved for them. They are posted by a worker of their
+ * own, so a slow post of another lane doesn't hold them up. The other lanes are posted in the background, up to the
+ * {@link #shareSendPermits(Semaphore) send permits} of the webhook at once. Messages of a channel still go out one
+ * after the other. When the webhook is saturated, queued bulk messages are
+ * coalesced into a single post and, once the lanes are full, dropped before anything else.
+ * <p>
+ * Before a post goes out, its deduplication key is claimed and a permit is taken from the rate limit budget shared
+ * through the {@link DeliveryCoordinator}, which can span all nodes of the cluster.
+ * <p>
+ * Within a lane, streams take turns by weight, so a stream flooding a webhook shared with others can't starve them.
+ * See {@link FairQueue}.
+ * <p>
+ * Failed posts are retried according to the {@link DeliveryPolicy} of the notification, as long as the retry budget
+ * of the webhook lasts. When Slack rate limits a post, no lane posts again before its {@code Retry-After} is over. A
+ * hedged post opens a second connection if the first one is slow to connect, and is written to whichever connection
+ * is established first, so Slack never receives it twice.
+ * <p>
+ * Webhooks take no idempotency key, so a post which went out but got no response, e.g. because reading the response
+ * timed out, isn't retried: Slack may already have posted it. Its deduplication keys stay claimed for the same reason.
+ */
+public class SlackDispatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SlackDispatcher.class);
+
+    // Slack allows roughly one message per second per incoming webhook, with short bursts.
+    public static final double DEFAULT_MESSAGES_PER_SECOND = 1.0d;
+    public static final int DEFAULT_LANE_CAPACITY = 1000;
+    // Caps the posts in progress of all dispatchers of a webhook together, alerts aside.
+    public static final int DEFAULT_MAX_CONCURRENT_SENDS = 8;
+
+    static final int MAX_COALESCED_MESSAGES = 20;
+    static final int MAX_COALESCED_LENGTH = 3500;
+
+    private static final long IDLE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final ScheduledExecutorService HEDGE_TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("slack-hedge-timer-%d")
+            .setDaemon(true)
+            .build());
+    private static final Executor ATTEMPT_EXECUTOR = SendThreads.attempts();
+
+    // Hedging needs some history to pick a delay from, until then it waits this long.
+    private static final int MIN_HEDGE_SAMPLES = 20;
+    private static final long DEFAULT_HEDGE_DELAY_MILLIS = 1000;
+    private static final long MIN_HEDGE_DELAY_MILLIS = 10;
+    private static final int PRIMARY_ATTEMPT = 1;
+    private static final List<Priority> ALERT_LANES = Collections.singletonList(Priority.ALERT);
+    private static final List<Priority> OTHER_LANES = Arrays.asList(Priority.HIGH, Priority.BULK);
+    private static final int HEDGED_ATTEMPT = 2;
+
+    private final SlackClient client;
+    private final String coordinationKey;
+    private final Ticker ticker;
+    private final TokenBucket bucket;
+    private final int permitsPerWindow;
+    private final int laneCapacity;
+    private final DeliveryCoordinator coordinator;
+    private volatile Semaphore sendPermits = new Semaphore(DEFAULT_MAX_CONCURRENT_SENDS);
+    private volatile RateWindow rateWindow;
+    // Guarded by the lock.
+    private StreamUsage streamUsage;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Map<Priority, FairQueue<Delivery>> lanes = new EnumMap<>(Priority.class);
+    private final long[] coordinatorBlockedUntil = new long[Priority.values().length];
+    private final long[] queuedBytes = new long[Priority.values().length];
+    // Channels with a post in progress in the background. Guarded by the lock.
+    private final Set<String> channelsInFlight = new HashSet<>();
+    private volatile long maxQueuedBytes;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long lastFailureNanos;
+    private final RetryBudget retryBudget = new RetryBudget(10.0d, 0.1d);
+    private final LatencyHistogram postLatency = new LatencyHistogram();
+    private volatile long lastActivity;
+    private volatile boolean connected;
+    // One worker posts alerts and one everything else, so an alert never waits for a slow post of another lane.
+    private Thread alertWorker;
+    private Thread worker;
+
+    public SlackDispatcher(SlackClient client, String coordinationKey, DeliveryCoordinator coordinator) {
+        this(client, coordinationKey, coordinator, DEFAULT_MESSAGES_PER_SECOND, DEFAULT_LANE_CAPACITY, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    SlackDispatcher(SlackClient client, String coordinationKey, DeliveryCoordinator coordinator,
+                    double messagesPerSecond, int laneCapacity, Ticker ticker) {
+        this.client = client;
+        this.coordinationKey = coordinationKey;
+        this.coordinator = coordinator;
+        this.rateWindow = new RateWindow(coordinator);
+        this.ticker = ticker;
+        this.bucket = new TokenBucket(Priority.BULK.reservedTokens() + Math.max(1.0d, messagesPerSecond), messagesPerSecond, ticker);
+        this.permitsPerWindow = (int) Math.max(1L, Math.round(messagesPerSecond * DeliveryCoordinator.WINDOW_MILLIS / 1000.0d));
+        this.laneCapacity = laneCapacity;
+        for (Priority priority : Priority.values()) {
+            lanes.put(priority, new FairQueue<Delivery>());
+        }
+        Arrays.fill(coordinatorBlockedUntil, ticker.read());
+        this.streamUsage = new StreamUsage(ticker);
+        this.lastActivity = ticker.read();
+    }
+
+    /**
+     * The client posting to the webhook, which can also reach the Slack API through the same proxies.
+     */
+    public SlackClient getClient() {
+        return client;
+    }
+
+    /**
+     * Connects to the webhook ahead of the first post.
+     *
+     * @see SlackClient#warmUp()
+     */
+    public void warmUp() throws SlackClient.SlackClientException {
+        client.warmUp();
+        lastActivity = ticker.read();
+        connected = true;
+    }
+
+    /**
+     * Warms up the connection unless the webhook has already been reached before, e.g. by another output.
+     */
+    public void ensureConnected() throws SlackClient.SlackClientException {
+        if (!connected) {
+            warmUp();
+        }
+    }
+
+    /**
+     * Refreshes the connection to the webhook if nothing has been posted for the given time.
+     */
+    public void keepAlive(long idleNanos) {
+        if (ticker.read() - lastActivity < idleNanos) {
+            return;
+        }
+        try {
+            warmUp();
+        } catch (SlackClient.SlackClientException | RuntimeException e) {
+            LOG.debug("Keep-alive request to Slack failed.", e);
+        }
+    }
+
+    public ListenableFuture<Void> submit(Priority priority, SlackMessage message) {
+        return submit(priority, message, null);
+    }
+
+    /**
+     * @param dedupKey identifies the notification, so it is only posted once even if it is submitted several times
+     *                 or on several nodes, may be {@code null}
+     */
+    public ListenableFuture<Void> submit(Priority priority, SlackMessage message, String dedupKey) {
+        return submit(priority, message, dedupKey, null, 0L);
+    }
+
+    /**
+     * @param stats       records the queueing delay and end-to-end latency of the notification, may be {@code null}
+     * @param eventMillis timestamp of the message or alert the notification is about, the end-to-end latency is
+     *                    measured from it
+     */
+    public ListenableFuture<Void> submit(Priority priority, SlackMessage message, String dedupKey,
+                                         DeliveryStats stats, long eventMillis) {
+        return submit(priority, message, dedupKey, stats, eventMillis, DeliveryPolicy.DEFAULT);
+    }
+
+    /**
+     * @param policy timeout, retries and hedging of the post
+     */
+    public ListenableFuture<Void> submit(Priority priority, SlackMessage message, String dedupKey,
+                                         DeliveryStats stats, long eventMillis, DeliveryPolicy policy) {
+        return submit(priority, message, dedupKey, stats, eventMillis, policy, StreamShare.DEFAULT);
+    }
+
+    /**
+     * @param share the stream of the notification and its share of the webhook
+     */
+    public ListenableFuture<Void> submit(Priority priority, SlackMessage message, String dedupKey,
+                                         DeliveryStats stats, long eventMillis, DeliveryPolicy policy,
+                                         StreamShare share) {
+        final Delivery delivery = new Delivery(message, dedupKey, stats, eventMillis, ticker.read(), policy, share);
+        lock.lock();
+        try {
+            while (priority != Priority.ALERT && isFull()) {
+                // Make room by dropping the oldest messages of the lowest non-empty lane, but never a higher one.
+                final Priority victims = victimLane(priority);
+                if (lanes.get(victims).isEmpty()) {
+                    drop(delivery);
+                    return delivery.future;
+                }
+                drop(pollVictim(victims));
+            }
+            enqueue(priority, delivery);
+        } finally {
+            lock.unlock();
+        }
+
+        return delivery.future;
+    }
+
+    /**
+     * Like {@link #submit(Priority, SlackMessage, String, DeliveryStats, long)}, but instead of dropping queued
+     * messages of the same priority, waits up to the given time for the queue to make room.
+     * <p>
+     * High priority messages still push out queued bulk messages.
+     *
+     * @throws QueueSaturatedException if the queue is still full after waiting
+     */
+    public ListenableFuture<Void> offer(Priority priority, SlackMessage message, String dedupKey,
+                                        DeliveryStats stats, long eventMillis, long maxWaitNanos)
+            throws QueueSaturatedException {
+        return offer(priority, message, dedupKey, stats, eventMillis, maxWaitNanos, StreamShare.DEFAULT);
+    }
+
+    /**
+     * @param share the stream of the notification and its share of the webhook
+     */
+    public ListenableFuture<Void> offer(Priority priority, SlackMessage message, String dedupKey,
+                                        DeliveryStats stats, long eventMillis, long maxWaitNanos, StreamShare share)
+            throws QueueSaturatedException {
+        final Delivery delivery = new Delivery(message, dedupKey, stats, eventMillis, ticker.read(),
+                DeliveryPolicy.DEFAULT, share);
+        lock.lock();
+        try {
+            long remainingNanos = maxWaitNanos;
+            boolean blocked = false;
+            final long waitStarted = System.nanoTime();
+            while (priority != Priority.ALERT && isFull()) {
+                if (priority == Priority.HIGH && !lanes.get(Priority.BULK).isEmpty()) {
+                    drop(pollVictim(Priority.BULK));
+                    continue;
+                }
+                if (remainingNanos <= 0) {
+                    rejected.incrementAndGet();
+                    if (stats != null) {
+                        stats.recordRejected();
+                    }
+                    throw new QueueSaturatedException("Slack send queue is full.");
+                }
+                blocked = true;
+                try {
+                    remainingNanos = notFull.awaitNanos(remainingNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    remainingNanos = 0;
+                }
+            }
+            if (blocked && stats != null) {
+                stats.recordBlocked(System.nanoTime() - waitStarted);
+            }
+            enqueue(priority, delivery);
+        } finally {
+            lock.unlock();
+        }
+
+        return delivery.future;
+    }
+
+    private void enqueue(Priority priority, Delivery delivery) {
+        lanes.get(priority).addLast(delivery, delivery.share);
+        queuedBytes[priority.ordinal()] += delivery.bytes;
+        ensureWorker(priority);
+        changed.signalAll();
+    }
+
+    /**
+     * Starts the worker of the lane unless it is running. Must be called with the lock held.
+     */
+    private void ensureWorker(Priority priority) {
+        if (priority == Priority.ALERT) {
+            if (alertWorker == null) {
+                alertWorker = startWorker(true);
+            }
+        } else if (worker == null) {
+            worker = startWorker(false);
+        }
+    }
+
+    private Thread startWorker(final boolean alerts) {
+        final Thread thread = SendThreads.workers().newThread(new Runnable() {
+            @Override
+            public void run() {
+                dispatchLoop(alerts);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private void stopWorker(boolean alerts) {
+        if (alerts) {
+            alertWorker = null;
+        } else {
+            worker = null;
+        }
+    }
+
+    /**
+     * Takes a notification out of the queue, as long as it isn't being sent yet. Its future is cancelled.
+     *
+     * @return {@code true} if the notification was still queued
+     */
+    public boolean withdraw(ListenableFuture<Void> future) {
+        Delivery withdrawn = null;
+        lock.lock();
+        try {
+            for (Map.Entry<Priority, FairQueue<Delivery>> lane : lanes.entrySet()) {
+                for (Iterator<Delivery> it = lane.getValue().iterator(); it.hasNext(); ) {
+                    final Delivery delivery = it.next();
+                    if (delivery.future == future) {
+                        it.remove();
+                        queuedBytes[lane.getKey().ordinal()] -= delivery.bytes;
+                        withdrawn = delivery;
+                        notFull.signalAll();
+                        break;
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (withdrawn == null) {
+            return false;
+        }
+        if (withdrawn.claimed) {
+            // The notification will be submitted again later, which must not be mistaken for a duplicate.
+            coordinator.release(withdrawn.dedupKey);
+        }
+        withdrawn.future.cancel(false);
+        return true;
+    }
+
+    public int queued() {
+        lock.lock();
+        try {
+            int queued = 0;
+            for (FairQueue<Delivery> lane : lanes.values()) {
+                queued += lane.size();
+            }
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int queued(Priority priority) {
+        lock.lock();
+        try {
+            return lanes.get(priority).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long droppedCount() {
+        return dropped.get();
+    }
+
+    public long rejectedCount() {
+        return rejected.get();
+    }
+
+    public long retriedCount() {
+        return retried.get();
+    }
+
+    public long hedgedCount() {
+        return hedged.get();
+    }
+
+    /**
+     * The number of posts which failed since the last successful one, retries included.
+     */
+    public int consecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    public long nanosSinceLastFailure() {
+        return ticker.read() - lastFailureNanos;
+    }
+
+    /**
+     * Time until the rate limit window of the webhook lets messages of the given priority through again, {@code 0}
+     * or less if it does right now.
+     */
+    public long rateLimitedNanos(Priority priority) {
+        lock.lock();
+        try {
+            return coordinatorBlockedUntil[priority.ordinal()] - ticker.read();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Summary summary() {
+        final Map<String, Integer> queued = new LinkedHashMap<>();
+        long bytes = 0;
+        long rateLimitedNanos = 0;
+        final Map<String, Double> streamShares;
+        lock.lock();
+        try {
+            final long now = ticker.read();
+            for (Priority priority : Priority.values()) {
+                queued.put(priority.name().toLowerCase(Locale.ENGLISH), lanes.get(priority).size());
+                bytes += queuedBytes[priority.ordinal()];
+                rateLimitedNanos = Math.max(rateLimitedNanos, coordinatorBlockedUntil[priority.ordinal()] - now);
+            }
+            streamShares = streamUsage.shares();
+        } finally {
+            lock.unlock();
+        }
+        return new Summary(queued, bytes, bucket.availableTokens(), TimeUnit.NANOSECONDS.toMillis(rateLimitedNanos),
+                connected, retryBudget.available(), dropped.get(), rejected.get(), retried.get(), hedged.get(),
+                consecutiveFailures.get(), streamShares);
+    }
+
+    /**
+     * Limits the posts in progress together with the other dispatchers of the webhook, e.g. its partitions. Hedged
+     * posts count twice while both attempts are running. Alerts don't take permits, so posts of other lanes can't
+     * hold them up.
+     */
+    public void shareSendPermits(Semaphore sendPermits) {
+        this.sendPermits = sendPermits;
+    }
+
+    /**
+     * Counts the posts against the rate limit window of the webhook together with its other dispatchers, which may
+     * be coordinated differently. Deduplication keys are still claimed from the coordinator of this dispatcher.
+     */
+    void shareRateWindow(RateWindow rateWindow) {
+        this.rateWindow = rateWindow;
+    }
+
+    @VisibleForTesting
+    RateWindow rateWindow() {
+        return rateWindow;
+    }
+
+    String coordinationKey() {
+        return coordinationKey;
+    }
+
+    DeliveryCoordinator coordinator() {
+        return coordinator;
+    }
+
+    /**
+     * Keeps track of the shares of the streams together with the other dispatchers of the webhook, e.g. its
+     * partitions.
+     */
+    void shareStreamUsage(StreamUsage streamUsage) {
+        lock.lock();
+        try {
+            this.streamUsage = streamUsage;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the fraction of the recent posts of the webhook which belonged to the stream
+     */
+    public double streamShare(String streamId) {
+        lock.lock();
+        try {
+            return streamUsage.share(streamId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Limits the memory held by queued notifications below the alert lane, on top of the limit of their number. If
+     * several outputs set a limit, the smallest one wins.
+     *
+     * @param bytes the limit, {@code 0} for none
+     */
+    public void limitQueuedBytes(long bytes) {
+        lock.lock();
+        try {
+            if (bytes > 0 && (maxQueuedBytes == 0 || bytes < maxQueuedBytes)) {
+                maxQueuedBytes = bytes;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long queuedBytes() {
+        lock.lock();
+        try {
+            long bytes = 0;
+            for (long laneBytes : queuedBytes) {
+                bytes += laneBytes;
+            }
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isFull() {
+        if (lanes.get(Priority.HIGH).size() + lanes.get(Priority.BULK).size() >= laneCapacity) {
+            return true;
+        }
+        final long maxBytes = maxQueuedBytes;
+        return maxBytes > 0 && queuedBytes[Priority.HIGH.ordinal()] + queuedBytes[Priority.BULK.ordinal()] >= maxBytes;
+    }
+
+    private Priority victimLane(Priority incoming) {
+        if (!lanes.get(Priority.BULK).isEmpty() || incoming == Priority.BULK) {
+            return Priority.BULK;
+        }
+        return Priority.HIGH;
+    }
+
+    private Delivery pollVictim(Priority priority) {
+        final Delivery delivery = lanes.get(priority).pollVictim();
+        queuedBytes[priority.ordinal()] -= delivery.bytes;
+        return delivery;
+    }
+
+    private void drop(Delivery delivery) {
+        dropped.incrementAndGet();
+        delivery.future.setException(new DeliveryDroppedException("Dropped message because the Slack send queue is full."));
+        LOG.debug("Slack send queue is full, dropped queued message.");
+    }
+
+    /**
+     * Posts the notifications of the alert lane, or of all other lanes, until they have been empty for a while.
+     */
+    private void dispatchLoop(boolean alerts) {
+        while (true) {
+            final Batch batch;
+            lock.lock();
+            try {
+                batch = awaitNext(alerts ? ALERT_LANES : OTHER_LANES);
+                if (batch == null) {
+                    stopWorker(alerts);
+                    return;
+                }
+            } catch (InterruptedException e) {
+                stopWorker(alerts);
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            if (!claimDeduplicationKeys(batch)) {
+                continue;
+            }
+
+            final long waitMillis = rateWindow.tryAcquire(coordinationKey, permitsPerWindow, batch.priority.reservedTokens());
+            if (waitMillis > 0) {
+                requeue(batch, TimeUnit.MILLISECONDS.toNanos(waitMillis));
+                continue;
+            }
+
+            if (alerts) {
+                send(batch);
+            } else if (!sendInBackground(batch)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Posts the batch on an attempt thread as soon as the webhook has a send permit free, so the worker can go on with
+     * the next batch while the post is in progress. The next batch of the channel waits for the post to complete.
+     *
+     * @return {@code false} if the worker was interrupted while waiting for a permit
+     */
+    private boolean sendInBackground(final Batch batch) {
+        final Semaphore permits = sendPermits;
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            requeue(batch, 0L);
+            lock.lock();
+            try {
+                stopWorker(false);
+            } finally {
+                lock.unlock();
+            }
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        final String channel = channelOf(batch.deliveries.get(0));
+        lock.lock();
+        try {
+            channelsInFlight.add(channel);
+        } finally {
+            lock.unlock();
+        }
+        final Runnable post = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    send(batch);
+                } finally {
+                    permits.release();
+                    lock.lock();
+                    try {
+                        channelsInFlight.remove(channel);
+                        changed.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        };
+        try {
+            ATTEMPT_EXECUTOR.execute(post);
+        } catch (RejectedExecutionException e) {
+            // All attempt threads are busy, so the worker posts the batch itself.
+            post.run();
+        }
+        return true;
+    }
+
+    private static String channelOf(Delivery delivery) {
+        final String channel = delivery.message.getChannel();
+        return channel == null ? "" : channel;
+    }
+
+    private Batch awaitNext(List<Priority> priorities) throws InterruptedException {
+        long idleNanos = IDLE_TIMEOUT_NANOS;
+        while (true) {
+            long waitNanos = Long.MAX_VALUE;
+            boolean empty = true;
+            for (Priority priority : priorities) {
+                final FairQueue<Delivery> lane = lanes.get(priority);
+                if (lane.isEmpty()) {
+                    continue;
+                }
+                empty = false;
+
+                final long blockedNanos = coordinatorBlockedUntil[priority.ordinal()] - ticker.read();
+                if (blockedNanos > 0) {
+                    waitNanos = Math.min(waitNanos, blockedNanos);
+                    continue;
+                }
+                if (priority != Priority.ALERT && channelsInFlight.contains(channelOf(lane.peekFirst(streamUsage)))) {
+                    // Waits to be signalled once the post in progress is done, so the channel keeps its order.
+                    continue;
+                }
+                if (bucket.tryAcquire(priority.reservedTokens())) {
+                    final Batch batch = new Batch(priority, priority == Priority.BULK ? takeCoalesced(lane) : takeFirst(lane));
+                    for (Delivery delivery : batch.deliveries) {
+                        queuedBytes[priority.ordinal()] -= delivery.bytes;
+                    }
+                    notFull.signalAll();
+                    return batch;
+                }
+                // Lower lanes have to leave even more tokens behind, so there is no point in looking at them.
+                waitNanos = Math.min(waitNanos, bucket.nanosUntilAvailable(priority.reservedTokens()));
+                break;
+            }
+
+            if (empty) {
+                if (idleNanos <= 0) {
+                    return null;
+                }
+                idleNanos = changed.awaitNanos(idleNanos);
+            } else {
+                idleNanos = IDLE_TIMEOUT_NANOS;
+                changed.awaitNanos(Math.max(1L, waitNanos));
+            }
+        }
+    }
+
+    private boolean claimDeduplicationKeys(Batch batch) {
+        for (Iterator<Delivery> it = batch.deliveries.iterator(); it.hasNext(); ) {
+            final Delivery delivery = it.next();
+            if (delivery.dedupKey == null || delivery.claimed) {
+                continue;
+            }
+            if (coordinator.claim(delivery.dedupKey)) {
+                delivery.claimed = true;
+            } else {
+                LOG.debug("Skipping duplicate Slack notification <{}>.", delivery.dedupKey);
+                delivery.future.set(null);
+                it.remove();
+            }
+        }
+        return !batch.deliveries.isEmpty();
+    }
+
+    private void requeue(Batch batch, long waitNanos) {
+        requeue(batch, waitNanos, true);
+    }
+
+    private void requeue(Batch batch, long waitNanos, boolean refund) {
+        lock.lock();
+        try {
+            final FairQueue<Delivery> lane = lanes.get(batch.priority);
+            for (int i = batch.deliveries.size() - 1; i >= 0; i--) {
+                final Delivery delivery = batch.deliveries.get(i);
+                lane.addFirst(delivery, delivery.share, streamUsage);
+                queuedBytes[batch.priority.ordinal()] += delivery.bytes;
+            }
+            if (refund) {
+                bucket.refund();
+            }
+            // Background posts are retried after the worker may have gone idle.
+            ensureWorker(batch.priority);
+
+            // Lower lanes have to leave more permits behind, so they are blocked as well.
+            block(batch.priority, waitNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Keeps the lanes of the given and lower priorities from posting for a while. Must be called with the lock held.
+     */
+    private void block(Priority priority, long waitNanos) {
+        final long blockedUntil = ticker.read() + waitNanos;
+        for (int i = priority.ordinal(); i < coordinatorBlockedUntil.length; i++) {
+            coordinatorBlockedUntil[i] = Math.max(coordinatorBlockedUntil[i], blockedUntil);
+        }
+    }
+
+    private List<Delivery> takeFirst(FairQueue<Delivery> lane) {
+        final List<Delivery> batch = new ArrayList<>(1);
+        batch.add(lane.pollFirst(streamUsage));
+        return batch;
+    }
+
+    private List<Delivery> takeCoalesced(FairQueue<Delivery> lane) {
+        final List<Delivery> batch = takeFirst(lane);
+        final Delivery first = batch.get(0);
+        if (first.message.hasAttachments()) {
+            return batch;
+        }
+
+        // Block layouts are limited by the number of blocks, plain messages by the length of the text.
+        final boolean blocks = first.message.hasBlocks();
+        int size = blocks ? first.message.getBlocks().size() : first.message.getMessage().length();
+        while ((blocks || batch.size() < MAX_COALESCED_MESSAGES) && !lane.isEmpty()) {
+            final Delivery next = lane.peekFirst(streamUsage);
+            if (next.policy != first.policy || !canCoalesce(first.message, next.message)) {
+                break;
+            }
+            final int nextSize = blocks ? next.message.getBlocks().size() : 1 + next.message.getMessage().length();
+            if (size + nextSize > (blocks ? Block.MAX_BLOCKS_PER_MESSAGE : MAX_COALESCED_LENGTH)) {
+                break;
+            }
+            size += nextSize;
+            batch.add(lane.pollFirst(streamUsage));
+        }
+
+        return batch;
+    }
+
+    private static boolean canCoalesce(SlackMessage first, SlackMessage next) {
+        return !next.hasAttachments()
+                && first.hasBlocks() == next.hasBlocks()
+                && first.isLinkNames() == next.isLinkNames()
+                && Objects.equal(first.getChannel(), next.getChannel())
+                && Objects.equal(first.getUserName(), next.getUserName())
+                && Objects.equal(first.getIconUrl(), next.getIconUrl())
+                && Objects.equal(first.getIconEmoji(), next.getIconEmoji());
+    }
+
+    private void send(Batch batch) {
+        final List<Delivery> deliveries = batch.deliveries;
+        final SlackMessage message = deliveries.size() == 1 ? deliveries.get(0).message : coalesce(deliveries);
+        final long sendStarted = ticker.read();
+        lastActivity = sendStarted;
+        for (Delivery delivery : deliveries) {
+            if (delivery.stats != null) {
+                delivery.stats.recordQueueing(sendStarted - delivery.enqueuedNanos);
+            }
+        }
+        final DeliveryPolicy policy = deliveries.get(0).policy;
+        try {
+            post(message, policy, batch.priority == Priority.ALERT);
+            connected = true;
+            consecutiveFailures.set(0);
+            retryBudget.recordSuccess();
+            postLatency.record(TimeUnit.NANOSECONDS.toMillis(ticker.read() - sendStarted));
+            for (Delivery delivery : deliveries) {
+                if (delivery.stats != null) {
+                    delivery.stats.recordDelivered(delivery.eventMillis);
+                }
+                delivery.future.set(null);
+            }
+        } catch (SlackClient.SlackClientException | RuntimeException e) {
+            final int status = e instanceof SlackClient.SlackClientException ? ((SlackClient.SlackClientException) e).getStatus() : 0;
+            final long retryAfterNanos = e instanceof SlackClient.SlackClientException
+                    ? TimeUnit.MILLISECONDS.toNanos(((SlackClient.SlackClientException) e).getRetryAfterMillis()) : 0L;
+            final boolean mayHaveBeenPosted = e instanceof SlackClient.SlackClientException
+                    && ((SlackClient.SlackClientException) e).mayHaveBeenPosted();
+            lastFailureNanos = ticker.read();
+            consecutiveFailures.incrementAndGet();
+            for (Delivery delivery : deliveries) {
+                if (delivery.stats != null) {
+                    delivery.stats.recordFailed(status);
+                }
+            }
+            if (retryAfterNanos > 0) {
+                // Slack rate limits the whole webhook, so nothing may be posted until it asked us to retry.
+                lock.lock();
+                try {
+                    block(Priority.ALERT, retryAfterNanos);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            if (!mayHaveBeenPosted && retry(batch, policy, retryAfterNanos)) {
+                LOG.debug("Could not post to Slack, retrying.", e);
+                return;
+            }
+            for (Delivery delivery : deliveries) {
+                if (delivery.claimed && !mayHaveBeenPosted) {
+                    // Somebody else may still be able to deliver it.
+                    coordinator.release(delivery.dedupKey);
+                }
+                delivery.future.setException(e);
+            }
+        }
+    }
+
+    /**
+     * Puts a failed batch back at the front of its lane after a backoff, if it has attempts left and the retry budget
+     * allows it. Its deduplication keys stay claimed in the meantime.
+     *
+     * @param retryAfterNanos how long Slack asked to wait, the backoff is at least that long
+     */
+    private boolean retry(Batch batch, DeliveryPolicy policy, long retryAfterNanos) {
+        int attempts = 0;
+        for (Delivery delivery : batch.deliveries) {
+            attempts = Math.max(attempts, ++delivery.attempts);
+        }
+        if (attempts >= policy.getMaxAttempts() || !retryBudget.tryAcquire()) {
+            return false;
+        }
+        retried.incrementAndGet();
+        requeue(batch, Math.max(policy.backoffNanos(attempts), retryAfterNanos), false);
+        return true;
+    }
+
+    /**
+     * @param alert whether the message is an alert, which doesn't take a send permit of the webhook
+     */
+    private void post(final SlackMessage message, DeliveryPolicy policy, boolean alert) throws SlackClient.SlackClientException {
+        final int timeoutMillis = policy.getAttemptTimeoutMillis();
+        if (!policy.isHedged()) {
+            client.send(message, timeoutMillis, null);
+            return;
+        }
+
+        // Both attempts run in the background, so a hedged attempt can finish while the first one is still stuck.
+        final HedgedPost post = new HedgedPost(message, timeoutMillis);
+        final ScheduledFuture<?> hedge = HEDGE_TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                hedge(post, alert);
+            }
+        }, hedgeDelayMillis(policy), TimeUnit.MILLISECONDS);
+        try {
+            ATTEMPT_EXECUTOR.execute(post.attempt(PRIMARY_ATTEMPT, null));
+        } catch (RejectedExecutionException e) {
+            // All attempt threads are busy, the hedge may still overtake it if a thread becomes free.
+            post.attempt(PRIMARY_ATTEMPT, null).run();
+        }
+
+        try {
+            post.outcome.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while posting to Slack.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SlackClient.SlackClientException) {
+                throw (SlackClient.SlackClientException) e.getCause();
+            }
+            throw new RuntimeException("Could not post to Slack.", e.getCause());
+        } finally {
+            hedge.cancel(false);
+        }
+    }
+
+    /**
+     * Starts the second attempt of a hedged post, unless the first one has written the message already. Except for
+     * alerts, the hedge takes a send permit of its own. It is skipped if no permit or no attempt thread is free.
+     */
+    private void hedge(HedgedPost post, boolean alert) {
+        if (post.isWritten()) {
+            post.abandon(null);
+            return;
+        }
+        final Semaphore permits = alert ? null : sendPermits;
+        if (permits != null && !permits.tryAcquire()) {
+            post.abandon(null);
+            return;
+        }
+        hedged.incrementAndGet();
+        try {
+            ATTEMPT_EXECUTOR.execute(post.attempt(HEDGED_ATTEMPT, permits));
+        } catch (RejectedExecutionException e) {
+            hedged.decrementAndGet();
+            if (permits != null) {
+                permits.release();
+            }
+            post.abandon(null);
+        }
+    }
+
+    private long hedgeDelayMillis(DeliveryPolicy policy) {
+        if (postLatency.count() < MIN_HEDGE_SAMPLES) {
+            return DEFAULT_HEDGE_DELAY_MILLIS;
+        }
+        return Math.max(MIN_HEDGE_DELAY_MILLIS, postLatency.percentile(policy.getHedgePercentile()));
+    }
+
+    private static SlackMessage coalesce(List<Delivery> batch) {
+        final SlackMessage first = batch.get(0).message;
+        if (first.hasBlocks()) {
+            // The text only shows up in notifications, so it doesn't have to contain every message.
+            final SlackMessage coalesced = first.withMessage(first.getMessage() + " (+" + (batch.size() - 1) + " more)");
+            for (Delivery delivery : batch) {
+                for (Block block : delivery.message.getBlocks()) {
+                    coalesced.addBlock(block);
+                }
+            }
+            return coalesced;
+        }
+
+        final StringBuilder text = new StringBuilder();
+        for (Delivery delivery : batch) {
+            if (text.length() > 0) {
+                text.append('\n');
+            }
+            text.append(delivery.message.getMessage());
+        }
+
+        return first.withMessage(text.toString());
+    }
+
+    public static class Summary {
+        @JsonProperty
+        public final Map<String, Integer> queued;
+        // Estimated memory held by the queued notifications.
+        @JsonProperty("queued_bytes")
+        public final long queuedBytes;
+        // Posts which can go out right away before the local rate limit kicks in.
+        @JsonProperty("available_permits")
+        public final double availablePermits;
+        // Time until the shared rate limit window lets posts through again.
+        @JsonProperty("rate_limited_ms")
+        public final long rateLimitedMillis;
+        @JsonProperty
+        public final boolean connected;
+        @JsonProperty("retry_budget")
+        public final double retryBudget;
+        @JsonProperty
+        public final long dropped;
+        @JsonProperty
+        public final long rejected;
+        @JsonProperty
+        public final long retried;
+        @JsonProperty
+        public final long hedged;
+        @JsonProperty("consecutive_failures")
+        public final int consecutiveFailures;
+        // Fraction of the recent posts of the webhook, by stream ID.
+        @JsonProperty("stream_shares")
+        public final Map<String, Double> streamShares;
+
+        public Summary(Map<String, Integer> queued, long queuedBytes, double availablePermits, long rateLimitedMillis,
+                       boolean connected, double retryBudget, long dropped, long rejected, long retried, long hedged,
+                       int consecutiveFailures, Map<String, Double> streamShares) {
+            this.queued = queued;
+            this.queuedBytes = queuedBytes;
+            this.availablePermits = availablePermits;
+            this.rateLimitedMillis = rateLimitedMillis;
+            this.connected = connected;
+            this.retryBudget = retryBudget;
+            this.dropped = dropped;
+            this.rejected = rejected;
+            this.retried = retried;
+            this.hedged = hedged;
+            this.consecutiveFailures = consecutiveFailures;
+            this.streamShares = streamShares;
+        }
+    }
+
+    private static class Delivery {
+        private final SlackMessage message;
+        private final String dedupKey;
+        private final DeliveryStats stats;
+        private final long eventMillis;
+        private final long enqueuedNanos;
+        private final DeliveryPolicy policy;
+        private final StreamShare share;
+        private final long bytes;
+        private final SettableFuture<Void> future = SettableFuture.create();
+        private boolean claimed;
+        private int attempts;
+
+        private Delivery(SlackMessage message, String dedupKey, DeliveryStats stats, long eventMillis,
+                         long enqueuedNanos, DeliveryPolicy policy, StreamShare share) {
+            // Only a compact snapshot of the message is kept while it waits in the queue.
+            this.message = message.compact();
+            this.bytes = this.message.retainedBytes();
+            this.dedupKey = dedupKey;
+            this.stats = stats;
+            this.eventMillis = eventMillis;
+            this.enqueuedNanos = enqueuedNanos;
+            this.policy = policy;
+            this.share = share == null ? StreamShare.DEFAULT : share;
+        }
+    }
+
+    /**
+     * A post with up to two attempts. The first attempt which gets connected writes the message, the other one is
+     * turned away before it writes anything.
+     */
+    private class HedgedPost {
+        private final SlackMessage message;
+        private final int timeoutMillis;
+        private final AtomicInteger writer = new AtomicInteger();
+        private final AtomicInteger undecided = new AtomicInteger(2);
+        private final AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+        private final SettableFuture<Void> outcome = SettableFuture.create();
+
+        private HedgedPost(SlackMessage message, int timeoutMillis) {
+            this.message = message;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        private boolean isWritten() {
+            return writer.get() != 0;
+        }
+
+        /**
+         * @param permits the send permits one of which the attempt took and gives back when it is done, may be
+         *                {@code null}
+         */
+        private Runnable attempt(final int attempt, final Semaphore permits) {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (client.send(message, timeoutMillis, new SlackClient.WriteGate() {
+                            @Override
+                            public boolean tryOpen() {
+                                return writer.compareAndSet(0, attempt);
+                            }
+                        })) {
+                            outcome.set(null);
+                        } else {
+                            abandon(null);
+                        }
+                    } catch (Throwable t) {
+                        if (writer.get() == attempt) {
+                            outcome.setException(t);
+                        } else {
+                            abandon(t);
+                        }
+                    } finally {
+                        if (permits != null) {
+                            permits.release();
+                        }
+                    }
+                }
+            };
+        }
+
+        /**
+         * Records an attempt which didn't write the message. Once neither attempt can write it anymore, the post
+         * has failed.
+         */
+        private void abandon(Throwable failure) {
+            if (failure != null) {
+                firstFailure.compareAndSet(null, failure);
+            }
+            if (undecided.decrementAndGet() == 0 && !isWritten()) {
+                final Throwable cause = firstFailure.get();
+                outcome.setException(cause == null ? client.new SlackClientException("Could not connect to Slack API") : cause);
+            }
+        }
+    }
+
+    private static class Batch {
+        private final Priority priority;
+        private final List<Delivery> deliveries;
+
+        private Batch(Priority priority, List<Delivery> deliveries) {
+            this.priority = priority;
+            this.deliveries = deliveries;
+        }
+    }
+}
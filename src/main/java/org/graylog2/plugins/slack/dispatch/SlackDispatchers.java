@@ -0,0 +1,385 @@
+package org.graylog2.plugins.slack.dispatch;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.Ticker;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugins.slack.SlackClient;
+import org.graylog2.plugins.slack.configuration.SlackConfiguration;
+import org.graylog2.plugins.slack.coordination.DeliveryCoordinator;
+import org.graylog2.plugins.slack.coordination.InMemoryDeliveryCoordinator;
+import org.graylog2.plugins.slack.coordination.MongoDeliveryCoordinator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Strings.nullToEmpty;
+
+/**
+ * Node-wide registry of dispatchers, so that all outputs and alarm callbacks posting to the same webhook share one
+ * rate limit and one send queue.
+ * <p>
+ * Configurations with {@link SlackConfiguration#CK_CLUSTER_COORDINATION cluster coordination} get dispatchers of their
+ * own, so enabling it for one output doesn't change how the duplicates of the others are suppressed. Both kinds share
+ * the send permits and the rate limit window of the webhook, which is counted across the cluster as soon as one of its
+ * configurations is cluster coordinated.
+ * <p>
+ * Outputs and alerts {@link #release(SlackDispatcher) release} what they got when they stop. Dispatchers, partitioned
+ * dispatchers and pools which nobody used for {@link #UNUSED_RETENTION_NANOS five minutes} are dropped, together with
+ * their keep-alive. Their workers end on their own once their queues are empty.
+ */
+@Singleton
+public class SlackDispatchers {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SlackDispatchers.class);
+    private static final long KEEP_ALIVE_CHECK_SECONDS = 1;
+    private static final long SWEEP_INTERVAL_SECONDS = 60;
+    // Alerts come and go, so their webhook stays connected for a while after the last one.
+    static final long UNUSED_RETENTION_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final Splitter WEBHOOK_SPLITTER = Splitter.on(CharMatcher.anyOf(", \t\r\n")).omitEmptyStrings();
+
+    private final ConcurrentMap<String, SlackDispatcher> dispatchers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, PartitionedDispatcher> partitionedDispatchers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, WebhookPool> pools = new ConcurrentHashMap<>();
+    // By coordination key, so partitions and dispatchers with other proxies count against the same webhook.
+    private final ConcurrentMap<String, Semaphore> sendPermits = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, StreamUsage> streamUsages = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, RateWindow> rateWindows = new ConcurrentHashMap<>();
+    private final ConcurrentMap<SlackDispatcher, Long> keepAliveIntervals = new ConcurrentHashMap<>();
+    private final ConcurrentMap<SlackDispatcher, ScheduledFuture<?>> keepAliveTasks = new ConcurrentHashMap<>();
+    // Guarded by this. Dispatchers, partitioned dispatchers and pools by identity.
+    private final Map<Object, Usage> usages = new IdentityHashMap<>();
+    private final DeliveryCoordinator localCoordinator = new InMemoryDeliveryCoordinator();
+    private final Provider<MongoDeliveryCoordinator> clusterCoordinator;
+    private final Ticker ticker;
+    private ScheduledExecutorService keepAliveExecutor;
+    private ScheduledFuture<?> sweepTask;
+
+    /**
+     * Creates a registry which only coordinates the deliveries of this node.
+     */
+    public SlackDispatchers() {
+        this(null);
+    }
+
+    @Inject
+    public SlackDispatchers(Provider<MongoDeliveryCoordinator> clusterCoordinator) {
+        this(clusterCoordinator, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    SlackDispatchers(Provider<MongoDeliveryCoordinator> clusterCoordinator, Ticker ticker) {
+        this.clusterCoordinator = clusterCoordinator;
+        this.ticker = ticker;
+    }
+
+    /**
+     * Returns the dispatcher of the webhook, which is kept until it is {@link #release(SlackDispatcher) released}.
+     */
+    public synchronized SlackDispatcher forConfiguration(final Configuration configuration) {
+        final SlackDispatcher dispatcher = forKey(configuration, dispatcherKey(configuration));
+
+        // The JVM shares idle connections among all dispatchers of a webhook, so only this one keeps them alive.
+        final int keepAliveInterval = configuration.getInt(SlackConfiguration.CK_KEEP_ALIVE_INTERVAL, 0);
+        if (keepAliveInterval > 0) {
+            scheduleKeepAlive(dispatcher, TimeUnit.SECONDS.toNanos(keepAliveInterval));
+        }
+
+        return dispatcher;
+    }
+
+    /**
+     * Returns the partitioned dispatcher of the webhook, for outputs which post to several channels. Its partitions
+     * have send queues of their own, but share the rate limit window of the webhook.
+     */
+    public synchronized PartitionedDispatcher partitioned(final Configuration configuration) {
+        final String key = dispatcherKey(configuration);
+        final List<SlackDispatcher> partitions = new ArrayList<>(PartitionedDispatcher.DEFAULT_PARTITIONS);
+        for (int i = 0; i < PartitionedDispatcher.DEFAULT_PARTITIONS; i++) {
+            partitions.add(forKey(configuration, key + "|partition-" + i));
+        }
+
+        PartitionedDispatcher dispatcher = partitionedDispatchers.get(key);
+        if (dispatcher == null) {
+            final PartitionedDispatcher created = new PartitionedDispatcher(key, partitions);
+            dispatcher = partitionedDispatchers.putIfAbsent(key, created);
+            if (dispatcher == null) {
+                dispatcher = created;
+            }
+        }
+        acquire(dispatcher);
+        return dispatcher;
+    }
+
+    /**
+     * Returns the pool of the webhook and the {@link SlackConfiguration#CK_WEBHOOK_POOL additional webhooks} of the
+     * configuration. Each webhook has a dispatcher of its own, shared with everything else posting to it.
+     */
+    public synchronized WebhookPool pool(final Configuration configuration) {
+        final Set<String> webhookUrls = new LinkedHashSet<>();
+        webhookUrls.add(nullToEmpty(configuration.getString(SlackConfiguration.CK_WEBHOOK_URL)));
+        webhookUrls.addAll(webhookPoolOf(configuration));
+
+        final List<SlackDispatcher> members = new ArrayList<>(webhookUrls.size());
+        for (String webhookUrl : webhookUrls) {
+            final Map<String, Object> source = new HashMap<>(configuration.getSource());
+            source.put(SlackConfiguration.CK_WEBHOOK_URL, webhookUrl);
+            members.add(forConfiguration(new Configuration(source)));
+        }
+
+        final String key = Joiner.on('\n').join(webhookUrls) + '|'
+                + nullToEmpty(configuration.getString(SlackConfiguration.CK_PROXY_ADDRESS))
+                + (isClusterCoordinated(configuration) ? "|cluster" : "");
+        WebhookPool pool = pools.get(key);
+        if (pool == null) {
+            final WebhookPool created = new WebhookPool(members);
+            pool = pools.putIfAbsent(key, created);
+            if (pool == null) {
+                pool = created;
+            }
+        }
+        acquire(pool);
+        return pool;
+    }
+
+    /**
+     * Gives back a dispatcher got from {@link #forConfiguration(Configuration)}.
+     */
+    public synchronized void release(SlackDispatcher dispatcher) {
+        releaseUsage(dispatcher);
+    }
+
+    /**
+     * Gives back a dispatcher got from {@link #partitioned(Configuration)}, together with its partitions.
+     */
+    public synchronized void release(PartitionedDispatcher dispatcher) {
+        releaseUsage(dispatcher);
+        for (SlackDispatcher partition : dispatcher.partitions()) {
+            releaseUsage(partition);
+        }
+    }
+
+    /**
+     * Gives back a pool got from {@link #pool(Configuration)}, together with the dispatchers of its webhooks.
+     */
+    public synchronized void release(WebhookPool pool) {
+        releaseUsage(pool);
+        for (SlackDispatcher member : pool.getMembers()) {
+            releaseUsage(member);
+        }
+    }
+
+    /**
+     * @return the additional webhook URLs of the configuration, which may be separated by commas or whitespace
+     */
+    public static List<String> webhookPoolOf(Configuration configuration) {
+        return WEBHOOK_SPLITTER.splitToList(nullToEmpty(configuration.getString(SlackConfiguration.CK_WEBHOOK_POOL)));
+    }
+
+    private SlackDispatcher forKey(final Configuration configuration, String key) {
+        final String webhookUrl = nullToEmpty(configuration.getString(SlackConfiguration.CK_WEBHOOK_URL));
+
+        SlackDispatcher dispatcher = dispatchers.get(key);
+        if (dispatcher == null) {
+            // The webhook URL is a secret, so only its hash is shared with other nodes.
+            final String coordinationKey = Hashing.sha256().hashString(webhookUrl, StandardCharsets.UTF_8).toString();
+            final DeliveryCoordinator coordinator = isClusterCoordinated(configuration) ? clusterCoordinator() : localCoordinator;
+            final SlackDispatcher created = new SlackDispatcher(new SlackClient(configuration), coordinationKey, coordinator);
+            dispatcher = dispatchers.putIfAbsent(key, created);
+            if (dispatcher == null) {
+                sendPermits.putIfAbsent(coordinationKey, new Semaphore(SlackDispatcher.DEFAULT_MAX_CONCURRENT_SENDS));
+                created.shareSendPermits(sendPermits.get(coordinationKey));
+                streamUsages.putIfAbsent(coordinationKey, new StreamUsage(Ticker.systemTicker()));
+                created.shareStreamUsage(streamUsages.get(coordinationKey));
+                rateWindows.putIfAbsent(coordinationKey, new RateWindow(localCoordinator));
+                final RateWindow rateWindow = rateWindows.get(coordinationKey);
+                if (coordinator != localCoordinator) {
+                    rateWindow.coordinateWith(coordinator);
+                }
+                created.shareRateWindow(rateWindow);
+                dispatcher = created;
+            }
+        }
+
+        final int maxQueueSize = configuration.getInt(SlackConfiguration.CK_MAX_QUEUE_SIZE, 0);
+        if (maxQueueSize > 0) {
+            dispatcher.limitQueuedBytes(maxQueueSize * 1024L * 1024L);
+        }
+
+        acquire(dispatcher);
+        return dispatcher;
+    }
+
+    private void acquire(Object dispatcher) {
+        Usage usage = usages.get(dispatcher);
+        if (usage == null) {
+            usage = new Usage();
+            usages.put(dispatcher, usage);
+        }
+        usage.users++;
+    }
+
+    private void releaseUsage(Object dispatcher) {
+        final Usage usage = usages.get(dispatcher);
+        if (usage == null || usage.users == 0) {
+            return;
+        }
+        usage.users--;
+        if (usage.users == 0) {
+            usage.unusedSince = ticker.read();
+            if (sweepTask == null) {
+                sweepTask = keepAliveExecutor().scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        sweep();
+                    }
+                }, SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    /**
+     * Drops what has been unused for {@link #UNUSED_RETENTION_NANOS}.
+     */
+    @VisibleForTesting
+    synchronized void sweep() {
+        final long now = ticker.read();
+        for (Iterator<Map.Entry<Object, Usage>> it = usages.entrySet().iterator(); it.hasNext(); ) {
+            final Map.Entry<Object, Usage> entry = it.next();
+            final Usage usage = entry.getValue();
+            if (usage.users > 0 || now - usage.unusedSince < UNUSED_RETENTION_NANOS) {
+                continue;
+            }
+            final Object dispatcher = entry.getKey();
+            it.remove();
+            if (dispatcher instanceof SlackDispatcher) {
+                drop((SlackDispatcher) dispatcher);
+            } else if (dispatcher instanceof PartitionedDispatcher) {
+                partitionedDispatchers.values().remove(dispatcher);
+            } else {
+                pools.values().remove(dispatcher);
+            }
+        }
+    }
+
+    private void drop(SlackDispatcher dispatcher) {
+        dispatchers.values().remove(dispatcher);
+        keepAliveIntervals.remove(dispatcher);
+        final ScheduledFuture<?> keepAlive = keepAliveTasks.remove(dispatcher);
+        if (keepAlive != null) {
+            keepAlive.cancel(false);
+        }
+
+        final String coordinationKey = dispatcher.coordinationKey();
+        boolean used = false;
+        boolean clusterCoordinated = false;
+        for (SlackDispatcher other : dispatchers.values()) {
+            if (other.coordinationKey().equals(coordinationKey)) {
+                used = true;
+                clusterCoordinated |= other.coordinator() != localCoordinator;
+            }
+        }
+        if (!used) {
+            sendPermits.remove(coordinationKey);
+            streamUsages.remove(coordinationKey);
+            rateWindows.remove(coordinationKey);
+        } else if (!clusterCoordinated) {
+            rateWindows.get(coordinationKey).coordinateWith(localCoordinator);
+        }
+    }
+
+    /**
+     * Identifies the dispatcher of a configuration without giving away the webhook URL.
+     */
+    public static String webhookId(Configuration configuration) {
+        return Hashing.murmur3_32().hashString(dispatcherKey(configuration), StandardCharsets.UTF_8).toString();
+    }
+
+    private static String dispatcherKey(Configuration configuration) {
+        return nullToEmpty(configuration.getString(SlackConfiguration.CK_WEBHOOK_URL)) + '|'
+                + nullToEmpty(configuration.getString(SlackConfiguration.CK_PROXY_ADDRESS))
+                + (isClusterCoordinated(configuration) ? "|cluster" : "");
+    }
+
+    private static boolean isClusterCoordinated(Configuration configuration) {
+        return configuration.getBoolean(SlackConfiguration.CK_CLUSTER_COORDINATION, false);
+    }
+
+    /**
+     * Summaries of all dispatchers, by {@link #webhookId(Configuration) webhook ID}. Partitions of
+     * {@link #partitioned(Configuration) partitioned dispatchers} have IDs of their own.
+     */
+    public Map<String, SlackDispatcher.Summary> summaries() {
+        final Map<String, SlackDispatcher.Summary> summaries = new TreeMap<>();
+        for (Map.Entry<String, SlackDispatcher> entry : dispatchers.entrySet()) {
+            summaries.put(Hashing.murmur3_32().hashString(entry.getKey(), StandardCharsets.UTF_8).toString(),
+                    entry.getValue().summary());
+        }
+        return summaries;
+    }
+
+    private void scheduleKeepAlive(final SlackDispatcher dispatcher, long intervalNanos) {
+        // Several outputs may share the webhook, the shortest interval wins.
+        final Long current = keepAliveIntervals.putIfAbsent(dispatcher, intervalNanos);
+        if (current != null) {
+            if (intervalNanos < current) {
+                keepAliveIntervals.replace(dispatcher, current, intervalNanos);
+            }
+            return;
+        }
+
+        keepAliveTasks.put(dispatcher, keepAliveExecutor().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                dispatcher.keepAlive(keepAliveIntervals.get(dispatcher));
+            }
+        }, KEEP_ALIVE_CHECK_SECONDS, KEEP_ALIVE_CHECK_SECONDS, TimeUnit.SECONDS));
+    }
+
+    private synchronized ScheduledExecutorService keepAliveExecutor() {
+        if (keepAliveExecutor == null) {
+            keepAliveExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("slack-keep-alive-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+        return keepAliveExecutor;
+    }
+
+    private DeliveryCoordinator clusterCoordinator() {
+        if (clusterCoordinator == null) {
+            LOG.warn("Cluster coordination of Slack notifications isn't available, coordinating this node only.");
+            return localCoordinator;
+        }
+        return clusterCoordinator.get();
+    }
+
+    private static class Usage {
+        private int users;
+        private long unusedSince;
+    }
+}
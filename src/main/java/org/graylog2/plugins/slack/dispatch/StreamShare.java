@@ -0,0 +1,44 @@
+package org.graylog2.plugins.slack.dispatch;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The part of the rate limit of a webhook which the notifications of a stream are entitled to, when the webhook is
+ * shared with other streams and can't keep up with all of them.
+ */
+public class StreamShare {
+
+    /**
+     * For notifications which don't belong to a stream, e.g. of alarm callbacks.
+     */
+    public static final StreamShare DEFAULT = new StreamShare("none", 1.0d, 0.0d);
+
+    private final String streamId;
+    private final double weight;
+    private final double minShare;
+
+    /**
+     * @param weight   relative to the weights of the other streams of the webhook
+     * @param minShare fraction of the posts of the webhook the stream gets at least, as long as it has notifications
+     *                 queued, between 0 and 1
+     */
+    public StreamShare(String streamId, double weight, double minShare) {
+        checkArgument(weight > 0, "weight must be positive");
+        checkArgument(minShare >= 0 && minShare <= 1, "minimum share must be between 0 and 1");
+        this.streamId = streamId;
+        this.weight = weight;
+        this.minShare = minShare;
+    }
+
+    public String getStreamId() {
+        return streamId;
+    }
+
+    public double getWeight() {
+        return weight;
+    }
+
+    public double getMinShare() {
+        return minShare;
+    }
+}
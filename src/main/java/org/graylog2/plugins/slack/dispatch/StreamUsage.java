@@ -0,0 +1,75 @@
+package org.graylog2.plugins.slack.dispatch;
+
+import com.google.common.base.Ticker;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The posts of a webhook by stream, decaying exponentially so that the last {@link #DECAY_NANOS minute} or so counts
+ * most. Shared by all dispatchers of the webhook.
+ */
+class StreamUsage {
+
+    static final long DECAY_NANOS = TimeUnit.MINUTES.toNanos(1);
+    // Streams which haven't posted for a while are forgotten.
+    private static final double MIN_COUNT = 0.01d;
+
+    private final Ticker ticker;
+    private final Map<String, Double> counts = new HashMap<>();
+    private double total;
+    private long updated;
+
+    StreamUsage(Ticker ticker) {
+        this.ticker = ticker;
+        this.updated = ticker.read();
+    }
+
+    synchronized void record(String streamId, double posts) {
+        decay();
+        final Double count = counts.get(streamId);
+        final double updatedCount = Math.max(0.0d, (count == null ? 0.0d : count) + posts);
+        counts.put(streamId, updatedCount);
+        total = Math.max(0.0d, total + posts);
+    }
+
+    /**
+     * @return the fraction of the recent posts of the webhook which belonged to the stream
+     */
+    synchronized double share(String streamId) {
+        final Double count = counts.get(streamId);
+        return count == null || total <= 0 ? 0.0d : count / total;
+    }
+
+    synchronized Map<String, Double> shares() {
+        final Map<String, Double> shares = new TreeMap<>();
+        for (Map.Entry<String, Double> entry : counts.entrySet()) {
+            shares.put(entry.getKey(), total <= 0 ? 0.0d : entry.getValue() / total);
+        }
+        return shares;
+    }
+
+    private void decay() {
+        final long now = ticker.read();
+        if (now == updated) {
+            return;
+        }
+        // All counts decay alike, which leaves the shares as they are.
+        final double factor = Math.exp(-(double) (now - updated) / DECAY_NANOS);
+        updated = now;
+        total *= factor;
+        for (Iterator<Map.Entry<String, Double>> it = counts.entrySet().iterator(); it.hasNext(); ) {
+            final Map.Entry<String, Double> entry = it.next();
+            final double count = entry.getValue() * factor;
+            if (count < MIN_COUNT) {
+                total -= count;
+                it.remove();
+            } else {
+                entry.setValue(count);
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.graylog2.plugins.slack.dispatch;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+class TokenBucket {
+
+    private final Ticker ticker;
+    private final double capacity;
+    private final double tokensPerNano;
+
+    private double tokens;
+    private long lastRefill;
+
+    TokenBucket(double capacity, double tokensPerSecond, Ticker ticker) {
+        checkArgument(capacity >= 1, "capacity must be at least 1");
+        checkArgument(tokensPerSecond > 0, "tokensPerSecond must be positive");
+        this.ticker = ticker;
+        this.capacity = capacity;
+        this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.tokens = capacity;
+        this.lastRefill = ticker.read();
+    }
+
+    /**
+     * Takes one token if at least {@code reserved} tokens remain in the bucket afterwards.
+     */
+    synchronized boolean tryAcquire(int reserved) {
+        refill();
+        if (tokens >= 1 + reserved) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    synchronized void refund() {
+        refill();
+        tokens = Math.min(capacity, tokens + 1);
+    }
+
+    synchronized long nanosUntilAvailable(int reserved) {
+        refill();
+        final double missing = 1 + reserved - tokens;
+        return missing <= 0 ? 0L : (long) Math.ceil(missing / tokensPerNano);
+    }
+
+    synchronized double availableTokens() {
+        refill();
+        return tokens;
+    }
+
+    private void refill() {
+        final long now = ticker.read();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+}
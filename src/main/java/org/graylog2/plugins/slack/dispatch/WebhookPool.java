@@ -0,0 +1,126 @@
+package org.graylog2.plugins.slack.dispatch;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.graylog2.plugins.slack.SlackMessage;
+import org.graylog2.plugins.slack.stats.DeliveryStats;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Spreads messages over several webhooks of the same destination, each with a rate limit of its own, to post more
+ * messages than a single webhook allows.
+ * <p>
+ * Every message goes to the webhook with the shortest queue among those whose rate limit window isn't used up, ties
+ * are broken round-robin. A webhook whose posts failed {@value #FAILURES_TO_EJECT} times in a row is taken out of
+ * rotation for {@link #EJECTION_NANOS 30 seconds}; afterwards it gets a message whenever its queue is empty, and goes
+ * back into rotation once a post succeeds. Messages of a channel may be posted out of order across webhooks.
+ */
+public class WebhookPool {
+
+    static final int FAILURES_TO_EJECT = 3;
+    static final long EJECTION_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    // Scores of the tiers of webhooks, a lower tier always wins.
+    private static final long TIER = 1L << 50;
+    private static final long AVAILABLE = 0;
+    private static final long RATE_LIMITED = TIER;
+    private static final long PROBING = 2 * TIER;
+    private static final long EJECTED = 3 * TIER;
+
+    private final List<SlackDispatcher> members;
+    private final AtomicInteger next = new AtomicInteger();
+
+    WebhookPool(List<SlackDispatcher> members) {
+        checkArgument(!members.isEmpty(), "at least one webhook is required");
+        this.members = ImmutableList.copyOf(members);
+    }
+
+    /**
+     * Like {@link SlackDispatcher#offer(Priority, SlackMessage, String, DeliveryStats, long, long)} on the least
+     * loaded webhook.
+     */
+    public ListenableFuture<Void> offer(Priority priority, SlackMessage message, String dedupKey, DeliveryStats stats,
+                                        long eventMillis, long maxWaitNanos) throws QueueSaturatedException {
+        return offer(priority, message, dedupKey, stats, eventMillis, maxWaitNanos, StreamShare.DEFAULT);
+    }
+
+    /**
+     * @param share the stream of the notification and its share of the webhook it goes to
+     */
+    public ListenableFuture<Void> offer(Priority priority, SlackMessage message, String dedupKey, DeliveryStats stats,
+                                        long eventMillis, long maxWaitNanos, StreamShare share)
+            throws QueueSaturatedException {
+        return select(priority).offer(priority, message, dedupKey, stats, eventMillis, maxWaitNanos, share);
+    }
+
+    /**
+     * @see SlackDispatcher#withdraw(ListenableFuture)
+     */
+    public boolean withdraw(ListenableFuture<Void> future) {
+        for (SlackDispatcher member : members) {
+            if (member.withdraw(future)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The share of the stream across the webhooks of the pool, which get about the same number of posts.
+     *
+     * @see SlackDispatcher#streamShare(String)
+     */
+    public double streamShare(String streamId) {
+        double share = 0;
+        for (SlackDispatcher member : members) {
+            share += member.streamShare(streamId);
+        }
+        return share / members.size();
+    }
+
+    public List<SlackDispatcher> getMembers() {
+        return members;
+    }
+
+    @VisibleForTesting
+    SlackDispatcher select(Priority priority) {
+        final int start = next.getAndIncrement();
+        SlackDispatcher selected = null;
+        long selectedScore = Long.MAX_VALUE;
+        for (int i = 0; i < members.size(); i++) {
+            final SlackDispatcher member = members.get(Math.floorMod(start + i, members.size()));
+            final long score = score(member, priority);
+            if (selected == null || score < selectedScore) {
+                selected = member;
+                selectedScore = score;
+            }
+        }
+        return selected;
+    }
+
+    private static long score(SlackDispatcher member, Priority priority) {
+        final int queued = member.queued();
+        if (member.consecutiveFailures() >= FAILURES_TO_EJECT) {
+            final long ejectedNanos = EJECTION_NANOS - member.nanosSinceLastFailure();
+            if (ejectedNanos > 0) {
+                // If every webhook is out of rotation, the one which comes back first is used.
+                return EJECTED + Math.min(ejectedNanos, TIER - 1);
+            }
+            if (queued > 0) {
+                return PROBING + queued;
+            }
+        }
+
+        final long rateLimitedNanos = member.rateLimitedNanos(priority);
+        if (rateLimitedNanos > 0) {
+            return RATE_LIMITED + Math.min(rateLimitedNanos, TIER - 1);
+        }
+        return AVAILABLE + queued;
+    }
+}
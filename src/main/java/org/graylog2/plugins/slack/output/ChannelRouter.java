@@ -0,0 +1,99 @@
+package org.graylog2.plugins.slack.output;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.Message;
+
+import java.util.List;
+import java.util.Locale;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+/**
+ * Resolves the channel of a message from a template like {@code #team-${team}}, whose placeholders are replaced by
+ * message fields.
+ * <p>
+ * Field values are lower-cased and characters Slack doesn't allow in channel names are replaced by dashes. Messages
+ * lacking a field go to the fallback channel, or nowhere if there is none.
+ */
+class ChannelRouter {
+
+    private static final String PLACEHOLDER_START = "${";
+    private static final String PLACEHOLDER_END = "}";
+    private static final int MAX_CHANNEL_LENGTH = 80;
+
+    // Literal parts and field names alternate, starting and ending with a literal part.
+    private final List<String> literals;
+    private final List<String> fields;
+    private final String fallbackChannel;
+
+    private ChannelRouter(List<String> literals, List<String> fields, String fallbackChannel) {
+        this.literals = literals;
+        this.fields = fields;
+        this.fallbackChannel = isNullOrEmpty(fallbackChannel) ? null : fallbackChannel;
+    }
+
+    /**
+     * @return {@code null} if the channel doesn't contain placeholders
+     * @throws IllegalArgumentException if a placeholder isn't closed or is empty
+     */
+    static ChannelRouter compile(String template, String fallbackChannel) {
+        if (template == null || !template.contains(PLACEHOLDER_START)) {
+            return null;
+        }
+
+        final ImmutableList.Builder<String> literals = ImmutableList.builder();
+        final ImmutableList.Builder<String> fields = ImmutableList.builder();
+        int position = 0;
+        int start;
+        while ((start = template.indexOf(PLACEHOLDER_START, position)) >= 0) {
+            final int end = template.indexOf(PLACEHOLDER_END, start + PLACEHOLDER_START.length());
+            if (end < 0) {
+                throw new IllegalArgumentException("Unclosed placeholder in channel " + template);
+            }
+            final String field = template.substring(start + PLACEHOLDER_START.length(), end).trim();
+            if (field.isEmpty()) {
+                throw new IllegalArgumentException("Empty placeholder in channel " + template);
+            }
+            literals.add(template.substring(position, start));
+            fields.add(field);
+            position = end + PLACEHOLDER_END.length();
+        }
+        literals.add(template.substring(position));
+
+        return new ChannelRouter(literals.build(), fields.build(), fallbackChannel);
+    }
+
+    List<String> getFields() {
+        return fields;
+    }
+
+    /**
+     * @return the channel of the message, or {@code null} if it lacks a field and there is no fallback channel
+     */
+    String resolve(Message message) {
+        final StringBuilder channel = new StringBuilder(32);
+        for (int i = 0; i < fields.size(); i++) {
+            channel.append(literals.get(i));
+            final Object value = message.getField(fields.get(i));
+            if (value == null || value.toString().isEmpty()) {
+                return fallbackChannel;
+            }
+            appendSanitized(channel, value.toString());
+        }
+        channel.append(literals.get(fields.size()));
+
+        if (channel.length() > MAX_CHANNEL_LENGTH) {
+            channel.setLength(MAX_CHANNEL_LENGTH);
+        }
+        return channel.toString();
+    }
+
+    private static void appendSanitized(StringBuilder channel, String value) {
+        final String lowerCase = value.toLowerCase(Locale.ENGLISH);
+        for (int i = 0; i < lowerCase.length(); i++) {
+            final char c = lowerCase.charAt(i);
+            final boolean allowed = (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_' || c == '-' || c == '.';
+            channel.append(allowed ? c : '-');
+        }
+    }
+}
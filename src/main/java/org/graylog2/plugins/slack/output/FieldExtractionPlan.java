@@ -0,0 +1,263 @@
+package org.graylog2.plugins.slack.output;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.streams.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides once per output which parts of a message end up in the details and in the template model.
+ * <p>
+ * Details either contain the configured fields in the configured order, or all fields which aren't reserved. For the
+ * template, only the message properties and fields it references are copied into a map, so rendering neither walks
+ * all fields nor looks up getters by reflection. Templates which use the message in other ways get the message itself.
+ * The stream doesn't change during the lifetime of an output, so its referenced properties are read right away.
+ */
+class FieldExtractionPlan {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FieldExtractionPlan.class);
+
+    private static final String MESSAGE = "message";
+    private static final String STREAM = "stream";
+    private static final String FIELDS = "fields";
+
+    private final String[] detailFields;
+    private final MessageProperty[] messageProperties;
+    private final String[] templateFields;
+    private final boolean wholeFieldMap;
+    private final Object streamModel;
+
+    private FieldExtractionPlan(String[] detailFields, MessageProperty[] messageProperties, String[] templateFields,
+                                boolean wholeFieldMap, Object streamModel) {
+        this.detailFields = detailFields;
+        this.messageProperties = messageProperties;
+        this.templateFields = templateFields;
+        this.wholeFieldMap = wholeFieldMap;
+        this.streamModel = streamModel;
+    }
+
+    /**
+     * @param detailFields      names of the fields to show as details, all fields which aren't reserved if empty
+     * @param templateVariables variables used by the custom message template, e.g. {@code "message.fields.user"}
+     * @param stream            stream of the output, may be {@code null}
+     */
+    static FieldExtractionPlan compile(List<String> detailFields, Collection<String> templateVariables, Stream stream) {
+        final Set<MessageProperty> properties = new LinkedHashSet<>();
+        final Set<String> fields = new LinkedHashSet<>();
+        final Map<String, Method> streamGetters = new HashMap<>();
+        boolean wholeMessage = false;
+        boolean wholeFieldMap = false;
+        boolean wholeStream = false;
+
+        for (String variable : templateVariables) {
+            final String[] path = variable.split("\\.");
+            if (MESSAGE.equals(path[0])) {
+                if (path.length == 1) {
+                    wholeMessage = true;
+                } else if (FIELDS.equals(path[1])) {
+                    if (path.length == 2) {
+                        wholeFieldMap = true;
+                    } else {
+                        fields.add(path[2]);
+                    }
+                } else {
+                    final MessageProperty property = MessageProperty.forName(path[1]);
+                    if (property == null) {
+                        wholeMessage = true;
+                    } else {
+                        properties.add(property);
+                    }
+                }
+            } else if (STREAM.equals(path[0])) {
+                final Method getter = path.length == 2 && stream != null ? getterOf(stream, path[1]) : null;
+                if (getter == null) {
+                    wholeStream = true;
+                } else {
+                    streamGetters.put(path[1], getter);
+                }
+            }
+        }
+
+        final String[] details = detailFields.toArray(new String[detailFields.size()]);
+        final Object streamModel = wholeStream ? stream : readStream(stream, streamGetters);
+        if (wholeMessage) {
+            return new FieldExtractionPlan(details, null, null, false, streamModel);
+        }
+        return new FieldExtractionPlan(details,
+                properties.toArray(new MessageProperty[properties.size()]),
+                fields.toArray(new String[fields.size()]),
+                wholeFieldMap,
+                streamModel);
+    }
+
+    /**
+     * Returns the details of the message as pairs of name and value.
+     */
+    List<Map.Entry<String, Object>> details(Message msg) {
+        if (detailFields.length == 0) {
+            final Map<String, Object> all = msg.getFields();
+            final List<Map.Entry<String, Object>> details = new ArrayList<>(all.size());
+            for (Map.Entry<String, Object> field : all.entrySet()) {
+                if (!Message.RESERVED_FIELDS.contains(field.getKey())) {
+                    details.add(field);
+                }
+            }
+            return details;
+        }
+
+        final List<Map.Entry<String, Object>> details = new ArrayList<>(detailFields.length);
+        for (String name : detailFields) {
+            final Object value = msg.getField(name);
+            if (value != null) {
+                details.add(new AbstractMap.SimpleImmutableEntry<>(name, value));
+            }
+        }
+        return details;
+    }
+
+    Object messageModel(Message msg) {
+        if (messageProperties == null) {
+            return msg;
+        }
+
+        final Map<String, Object> model = new HashMap<>();
+        for (MessageProperty property : messageProperties) {
+            putIfNotNull(model, property.propertyName, property.get(msg));
+        }
+        if (wholeFieldMap) {
+            model.put(FIELDS, msg.getFields());
+        } else if (templateFields.length > 0) {
+            final Map<String, Object> fields = new HashMap<>();
+            for (String name : templateFields) {
+                putIfNotNull(fields, name, msg.getField(name));
+            }
+            model.put(FIELDS, fields);
+        }
+        return model;
+    }
+
+    Object streamModel() {
+        return streamModel;
+    }
+
+    private static void putIfNotNull(Map<String, Object> map, String key, Object value) {
+        // Missing values have to stay missing, so that "${if ...}" in templates keeps working.
+        if (value != null) {
+            map.put(key, value);
+        }
+    }
+
+    private static Method getterOf(Stream stream, String property) {
+        final String capitalized = property.substring(0, 1).toUpperCase(Locale.ENGLISH) + property.substring(1);
+        for (String prefix : new String[]{"get", "is"}) {
+            try {
+                return stream.getClass().getMethod(prefix + capitalized);
+            } catch (NoSuchMethodException e) {
+                // try the next prefix
+            }
+        }
+        return null;
+    }
+
+    private static Object readStream(Stream stream, Map<String, Method> getters) {
+        if (stream == null) {
+            return null;
+        }
+
+        final ImmutableMap.Builder<String, Object> model = ImmutableMap.builder();
+        for (Map.Entry<String, Method> getter : getters.entrySet()) {
+            try {
+                final Object value = getter.getValue().invoke(stream);
+                if (value != null) {
+                    model.put(getter.getKey(), value);
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOG.debug("Could not read stream property <{}>, passing the whole stream to the template.", getter.getKey(), e);
+                return stream;
+            }
+        }
+        return model.build();
+    }
+
+    static List<String> parseFieldList(String fieldList) {
+        if (fieldList == null) {
+            return ImmutableList.of();
+        }
+        final ImmutableList.Builder<String> names = ImmutableList.builder();
+        for (String name : fieldList.split(",")) {
+            if (!name.trim().isEmpty()) {
+                names.add(name.trim());
+            }
+        }
+        return names.build();
+    }
+
+    private enum MessageProperty {
+        ID("id") {
+            @Override
+            Object get(Message msg) {
+                return msg.getId();
+            }
+        },
+        MESSAGE("message") {
+            @Override
+            Object get(Message msg) {
+                return msg.getMessage();
+            }
+        },
+        SOURCE("source") {
+            @Override
+            Object get(Message msg) {
+                return msg.getSource();
+            }
+        },
+        TIMESTAMP("timestamp") {
+            @Override
+            Object get(Message msg) {
+                return msg.getTimestamp();
+            }
+        },
+        FIELD_COUNT("fieldCount") {
+            @Override
+            Object get(Message msg) {
+                return msg.getFieldCount();
+            }
+        },
+        STREAM_IDS("streamIds") {
+            @Override
+            Object get(Message msg) {
+                return msg.getStreamIds();
+            }
+        };
+
+        private final String propertyName;
+
+        MessageProperty(String propertyName) {
+            this.propertyName = propertyName;
+        }
+
+        abstract Object get(Message msg);
+
+        static MessageProperty forName(String name) {
+            for (MessageProperty property : values()) {
+                if (property.propertyName.equals(name)) {
+                    return property;
+                }
+            }
+            return null;
+        }
+    }
+}
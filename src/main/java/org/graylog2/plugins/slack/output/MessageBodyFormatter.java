@@ -0,0 +1,92 @@
+package org.graylog2.plugins.slack.output;
+
+import org.graylog2.plugin.Message;
+import org.graylog2.plugins.slack.SlackEscaper;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * Builds the text of short and full mode messages, with the message itself escaped for Slack.
+ * <p>
+ * Everything that does not depend on the message is prepared once. Each thread appends into its own reusable buffer,
+ * and the formatted time of day is cached per minute, because high volume streams see many messages per minute.
+ */
+class MessageBodyFormatter {
+
+    private static final long MILLIS_PER_MINUTE = 60_000L;
+    private static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+
+    private final DateTimeFormatter shortTimeFormatter;
+    private final String fullPrefix;
+    private final String messageLinkPrefix;
+    private final String fullInfix;
+
+    private final ThreadLocal<Buffer> buffers = new ThreadLocal<Buffer>() {
+        @Override
+        protected Buffer initialValue() {
+            return new Buffer();
+        }
+    };
+
+    /**
+     * @param audience          text to mention users with, e.g. {@code "@channel "}, or an empty string
+     * @param messageLinkPrefix URL of a message in the web interface without the message ID, or {@code null}
+     * @param titleLink         formatted link or title of the stream
+     * @param zone              time zone of the short mode timestamps
+     */
+    MessageBodyFormatter(String audience, String messageLinkPrefix, String titleLink, DateTimeZone zone) {
+        this.shortTimeFormatter = DateTimeFormat.shortTime().withZone(zone);
+        this.fullPrefix = audience + "*";
+        this.messageLinkPrefix = messageLinkPrefix == null ? null : "<" + messageLinkPrefix;
+        this.fullInfix = " in Graylog stream " + titleLink + "*:\n> ";
+    }
+
+    String formatShort(Message msg) {
+        final Buffer buffer = buffers.get();
+        final StringBuilder sb = buffer.reset();
+        sb.append(buffer.shortTime(msg.getTimestamp())).append(": ");
+        SlackEscaper.appendEscaped(sb, msg.getMessage());
+        return sb.toString();
+    }
+
+    String formatFull(Message msg) {
+        final StringBuilder sb = buffers.get().reset();
+        sb.append(fullPrefix);
+        if (messageLinkPrefix != null) {
+            sb.append(messageLinkPrefix).append(msg.getId()).append("|New message>");
+        } else {
+            sb.append("New message");
+        }
+        sb.append(fullInfix);
+        SlackEscaper.appendEscaped(sb, msg.getMessage());
+        return sb.toString();
+    }
+
+    private class Buffer {
+        private StringBuilder sb = new StringBuilder(256);
+        private long minute = Long.MIN_VALUE;
+        private String time;
+
+        private StringBuilder reset() {
+            if (sb.capacity() > MAX_RETAINED_CAPACITY) {
+                sb = new StringBuilder(256);
+            } else {
+                sb.setLength(0);
+            }
+            return sb;
+        }
+
+        // Time zone offsets only change at full minutes, so all instants within the same minute share their text.
+        private String shortTime(DateTime timestamp) {
+            final long millis = timestamp.getMillis();
+            final long currentMinute = Math.floorDiv(millis, MILLIS_PER_MINUTE);
+            if (currentMinute != minute) {
+                time = shortTimeFormatter.print(millis);
+                minute = currentMinute;
+            }
+            return time;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package org.graylog2.plugins.slack.output;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The running Slack outputs of this node, by delivery name, so they can be inspected and controlled over REST.
+ * <p>
+ * Stopped outputs stay here for {@link #RETENTION_NANOS ten minutes}, so that the output Graylog creates when the
+ * configuration of one changes takes over its queued notifications instead of starting from scratch. Graylog doesn't
+ * tell outputs their ID, so a new output takes over the stopped output of its stream with the same delivery name, or
+ * else the only stopped output of its stream.
+ */
+@Singleton
+public class OutputRegistry {
+
+    static final long RETENTION_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private final ConcurrentMap<String, SlackMessageOutput> outputs = new ConcurrentHashMap<>();
+    // Guarded by itself.
+    private final List<Handover> stopped = new ArrayList<>();
+    private final Ticker ticker;
+
+    @Inject
+    public OutputRegistry() {
+        this(Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    OutputRegistry(Ticker ticker) {
+        this.ticker = ticker;
+    }
+
+    void register(String name, SlackMessageOutput output) {
+        outputs.put(name, output);
+    }
+
+    void unregister(String name, SlackMessageOutput output) {
+        outputs.remove(name, output);
+    }
+
+    public SlackMessageOutput get(String name) {
+        return outputs.get(name);
+    }
+
+    public Map<String, OutputStatus> statuses() {
+        final Map<String, OutputStatus> statuses = new TreeMap<>();
+        for (Map.Entry<String, SlackMessageOutput> entry : outputs.entrySet()) {
+            statuses.put(entry.getKey(), entry.getValue().status());
+        }
+        return statuses;
+    }
+
+    /**
+     * Offers the state of a stopping output to the output which replaces it.
+     */
+    Handover park(String streamId, String name, SlackMessageOutput output) {
+        final Handover handover = new Handover(streamId, name, output, ticker.read());
+        synchronized (stopped) {
+            expire();
+            stopped.add(handover);
+        }
+        return handover;
+    }
+
+    /**
+     * @return the stopped output which the new output replaces, {@code null} if there is none
+     */
+    Handover takeOver(String streamId, String name) {
+        synchronized (stopped) {
+            expire();
+            Handover candidate = null;
+            int candidates = 0;
+            for (Handover handover : stopped) {
+                if (!handover.streamId.equals(streamId)) {
+                    continue;
+                }
+                if (handover.name.equals(name)) {
+                    candidate = handover;
+                    candidates = 1;
+                    break;
+                }
+                candidate = handover;
+                candidates++;
+            }
+            if (candidates != 1) {
+                // Several outputs of the stream were stopped and none of them matches, so it's anybody's guess.
+                return null;
+            }
+            stopped.remove(candidate);
+            return candidate;
+        }
+    }
+
+    private void expire() {
+        final long now = ticker.read();
+        for (Iterator<Handover> it = stopped.iterator(); it.hasNext(); ) {
+            if (now - it.next().stoppedAt > RETENTION_NANOS) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * A stopped output, which is either taken over while it is still stopping, or closes after its notifications
+     * have been posted or saved.
+     */
+    static class Handover {
+        final String streamId;
+        final String name;
+        final SlackMessageOutput output;
+        private final long stoppedAt;
+        private final SettableFuture<Void> settled = SettableFuture.create();
+        private boolean takenOver;
+        private boolean closed;
+
+        private Handover(String streamId, String name, SlackMessageOutput output, long stoppedAt) {
+            this.streamId = streamId;
+            this.name = name;
+            this.output = output;
+            this.stoppedAt = stoppedAt;
+        }
+
+        /**
+         * Waits until the given notifications completed or the output has been taken over.
+         */
+        void await(List<ListenableFuture<Void>> pending, long timeoutMillis) throws InterruptedException, TimeoutException {
+            Futures.successfulAsList(pending).addListener(new Runnable() {
+                @Override
+                public void run() {
+                    settled.set(null);
+                }
+            }, MoreExecutors.directExecutor());
+            try {
+                settled.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Takes over the notifications of the stopping output.
+         *
+         * @return {@code false} if the output already closed, so its notifications have been saved under its name
+         */
+        synchronized boolean claim() {
+            takenOver = true;
+            settled.set(null);
+            return !closed;
+        }
+
+        /**
+         * Runs the given action unless the output has been taken over. A new output taking over waits for it.
+         */
+        synchronized void close(Runnable action) {
+            if (!takenOver) {
+                closed = true;
+                action.run();
+            }
+        }
+    }
+}
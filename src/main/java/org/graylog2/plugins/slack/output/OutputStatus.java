@@ -0,0 +1,23 @@
+package org.graylog2.plugins.slack.output;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class OutputStatus {
+    // Refers to the dispatcher statistics of the webhook the output posts to.
+    @JsonProperty("webhook_id")
+    public final String webhookId;
+    @JsonProperty
+    public final boolean running;
+    @JsonProperty
+    public final boolean paused;
+    // Queued or being sent right now.
+    @JsonProperty("in_flight")
+    public final int inFlight;
+
+    public OutputStatus(String webhookId, boolean running, boolean paused, int inFlight) {
+        this.webhookId = webhookId;
+        this.running = running;
+        this.paused = paused;
+        this.inFlight = inFlight;
+    }
+}
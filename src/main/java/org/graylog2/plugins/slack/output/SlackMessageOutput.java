@@ -1,6 +1,13 @@
 package org.graylog2.plugins.slack.output;
 
+import com.codahale.metrics.MetricRegistry;
 import com.floreysoft.jmte.Engine;
+import com.google.common.base.Supplier;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import org.graylog2.plugin.Message;
@@ -13,35 +20,115 @@ import org.graylog2.plugin.outputs.MessageOutput;
 import org.graylog2.plugin.outputs.MessageOutputConfigurationException;
 import org.graylog2.plugin.streams.Stream;
 import org.graylog2.plugins.slack.SlackClient;
+import org.graylog2.plugins.slack.SlackEscaper;
 import org.graylog2.plugins.slack.SlackMessage;
 import org.graylog2.plugins.slack.SlackPluginBase;
+import org.graylog2.plugins.slack.blocks.ContextBlock;
+import org.graylog2.plugins.slack.blocks.SectionBlock;
+import org.graylog2.plugins.slack.blocks.TextObject;
 import org.graylog2.plugins.slack.configuration.SlackConfiguration;
 import org.graylog2.plugins.slack.configuration.SlackConfigurationRequestFactory;
+import org.graylog2.plugins.slack.dispatch.DeliveryDroppedException;
+import org.graylog2.plugins.slack.dispatch.PartitionedDispatcher;
+import org.graylog2.plugins.slack.dispatch.Priority;
+import org.graylog2.plugins.slack.dispatch.QueueSaturatedException;
+import org.graylog2.plugins.slack.dispatch.SlackDispatcher;
+import org.graylog2.plugins.slack.dispatch.SlackDispatchers;
+import org.graylog2.plugins.slack.dispatch.StreamShare;
+import org.graylog2.plugins.slack.dispatch.WebhookPool;
+import org.graylog2.plugins.slack.recovery.PendingNotification;
+import org.graylog2.plugins.slack.recovery.RecoveryStore;
+import org.graylog2.plugins.slack.stats.DeliveryStatistics;
+import org.graylog2.plugins.slack.stats.DeliveryStats;
 import org.joda.time.DateTimeZone;
-import org.joda.time.format.DateTimeFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
 
 public class SlackMessageOutput extends SlackPluginBase implements MessageOutput {
+    private static final Logger LOG = LoggerFactory.getLogger(SlackMessageOutput.class);
+    private static final int MAX_CACHED_CHANNELS = 1000;
+
     private final Engine templateEngine;
     private AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicBoolean paused = new AtomicBoolean(false);
 
     private final Configuration configuration;
     private final Stream stream;
 
-    private final SlackClient client;
+    private final SlackDispatchers dispatchers;
+    private final SlackDispatcher dispatcher;
+    private final SlackMessage.Prototype prototype;
+    private final ChannelRouter channelRouter;
+    private final PartitionedDispatcher partitions;
+    private final WebhookPool pool;
+    private final Cache<String, SlackMessage.Prototype> prototypes;
+    private final int highPriorityLevel;
+    private final boolean shortMode;
+    private final boolean addDetails;
+    private final boolean blockLayout;
+    private final String customMessageTemplate;
+    private final FieldExtractionPlan plan;
+    private final String streamDescription;
+    private final String streamUrl;
+    private final MessageBodyFormatter formatter;
+    private final DeliveryStats stats;
+    private final String deliveryName;
+    private final String streamId;
+    private final StreamShare streamShare;
+    private final RecoveryStore recoveryStore;
+    private final OutputRegistry registry;
+    private final String webhookId;
+    private final long shutdownTimeoutMillis;
+    private final long maxBlockNanos;
+    private final ConcurrentMap<ListenableFuture<Void>, PendingNotification> pending = new ConcurrentHashMap<>();
 
     @Inject
     public SlackMessageOutput(
             @Assisted Stream stream,
             @Assisted Configuration configuration,
-            Engine templateEngine
+            SlackDispatchers dispatchers,
+            DeliveryStatistics statistics,
+            RecoveryStore recoveryStore,
+            OutputRegistry registry
     ) throws MessageOutputConfigurationException {
+        this(stream, configuration, SlackEscaper.templateEngine(), dispatchers, statistics, recoveryStore, registry);
+    }
+
+    /**
+     * Creates an output outside of Guice, which shares neither its dispatcher nor its statistics with other outputs
+     * and saves what it couldn't post in the temporary directory. The template engine is used as it is, see
+     * {@link SlackEscaper#templateEngine()} for one which escapes the values it inserts.
+     */
+    public SlackMessageOutput(Stream stream, Configuration configuration, Engine templateEngine)
+            throws MessageOutputConfigurationException {
+        this(stream, configuration, templateEngine, new SlackDispatchers(), new DeliveryStatistics(new MetricRegistry()),
+                new RecoveryStore(Paths.get(System.getProperty("java.io.tmpdir"), "slack-recovery")), new OutputRegistry());
+    }
+
+    private SlackMessageOutput(Stream stream,
+                               Configuration configuration,
+                               Engine templateEngine,
+                               SlackDispatchers dispatchers,
+                               DeliveryStatistics statistics,
+                               RecoveryStore recoveryStore,
+                               OutputRegistry registry) throws MessageOutputConfigurationException {
         this.configuration = configuration;
         this.stream = stream;
         this.templateEngine = templateEngine;
@@ -53,14 +140,276 @@ public class SlackMessageOutput extends SlackPluginBase implements MessageOutput
             throw new MessageOutputConfigurationException("Missing configuration: " + e.getMessage());
         }
 
-        this.client = new SlackClient(configuration);
+        try {
+            this.channelRouter = ChannelRouter.compile(configuration.getString(SlackConfiguration.CK_CHANNEL),
+                    configuration.getString(SlackConfiguration.CK_FALLBACK_CHANNEL));
+        } catch (IllegalArgumentException e) {
+            throw new MessageOutputConfigurationException("Invalid channel: " + e.getMessage());
+        }
+        this.prototypes = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_CHANNELS).build();
+
+        this.dispatchers = dispatchers;
+        this.dispatcher = dispatchers.forConfiguration(configuration);
+        this.pool = SlackDispatchers.webhookPoolOf(configuration).isEmpty() ? null : dispatchers.pool(configuration);
+        this.partitions = channelRouter == null || pool != null ? null : dispatchers.partitioned(configuration);
+        if (configuration.getBoolean(SlackConfiguration.CK_WARM_UP, false)) {
+            try {
+                for (SlackDispatcher member : pool == null ? Collections.singletonList(dispatcher) : pool.getMembers()) {
+                    member.ensureConnected();
+                }
+            } catch (SlackClient.SlackClientException e) {
+                releaseDispatchers();
+                throw new MessageOutputConfigurationException("Slack webhook is unreachable: " + e.getMessage());
+            }
+        }
+        this.prototype = createSlackMessagePrototype(configuration);
+        this.highPriorityLevel = configuration.getInt(SlackConfiguration.CK_HIGH_PRIORITY_LEVEL, 3);
+        this.shortMode = configuration.getBoolean(SlackConfiguration.CK_SHORT_MODE);
+        this.addDetails = configuration.getBoolean(SlackConfiguration.CK_ADD_DETAILS);
+        this.blockLayout = configuration.getBoolean(SlackConfiguration.CK_BLOCK_LAYOUT, false);
+        this.customMessageTemplate = configuration.getString(SlackConfiguration.CK_CUSTOM_MESSAGE);
+        this.plan = FieldExtractionPlan.compile(
+                FieldExtractionPlan.parseFieldList(configuration.getString(SlackConfiguration.CK_DETAIL_FIELDS)),
+                isNullOrEmpty(customMessageTemplate) ? Collections.<String>emptySet() : templateEngine.getUsedVariables(customMessageTemplate),
+                stream);
+        this.streamDescription = stream == null ? null : stream.getDescription();
+
+        // The stream is fixed for the lifetime of the output, so its links only have to be built once.
+        final String graylogUri = configuration.getString(SlackConfiguration.CK_GRAYLOG2_URL);
+        final String audience = configuration.getBoolean(SlackConfiguration.CK_NOTIFY_CHANNEL) ? "@channel " : "";
+        final String titleLink = stream == null ? null : buildStreamTitleLink(graylogUri, stream);
+        final String index = "graylog_deflector"; // would use msg.getFieldAs(String.class, "_index"), but it returns null
+        final String messageLinkPrefix = isNullOrEmpty(graylogUri) ? null : buildMessageLink(graylogUri, index, "");
+        this.streamUrl = stream == null || isNullOrEmpty(graylogUri) ? null : buildStreamLink(graylogUri, stream);
+        this.formatter = new MessageBodyFormatter(audience, messageLinkPrefix, titleLink, DateTimeZone.getDefault());
+        this.deliveryName = buildDeliveryName("output", stream, configuration);
+        this.streamId = stream == null ? "none" : stream.getId();
+        try {
+            this.streamShare = new StreamShare(streamId, configuration.getInt(SlackConfiguration.CK_STREAM_WEIGHT, 1),
+                    configuration.getInt(SlackConfiguration.CK_MIN_STREAM_SHARE, 0) / 100.0d);
+        } catch (IllegalArgumentException e) {
+            releaseDispatchers();
+            throw new MessageOutputConfigurationException("Invalid stream share: " + e.getMessage());
+        }
+        this.stats = statistics.forSender(deliveryName,
+                configuration.getInt(SlackConfiguration.CK_LATENCY_SLO, SlackConfigurationRequestFactory.DEFAULT_LATENCY_SLO_MILLIS));
+        stats.trackStreamShare(new Supplier<Double>() {
+            @Override
+            public Double get() {
+                if (pool != null) {
+                    return pool.streamShare(streamId);
+                }
+                return partitions != null ? partitions.streamShare(streamId) : dispatcher.streamShare(streamId);
+            }
+        });
+        this.recoveryStore = recoveryStore;
+        this.registry = registry;
+        this.webhookId = SlackDispatchers.webhookId(configuration);
+        this.shutdownTimeoutMillis = TimeUnit.SECONDS.toMillis(configuration.getInt(
+                SlackConfiguration.CK_SHUTDOWN_TIMEOUT, SlackConfigurationRequestFactory.DEFAULT_SHUTDOWN_TIMEOUT_SECONDS));
+        this.maxBlockNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getInt(
+                SlackConfiguration.CK_MAX_BLOCK_TIME, SlackConfigurationRequestFactory.DEFAULT_MAX_BLOCK_TIME_MILLIS));
 
         running.set(true);
+        registry.register(deliveryName, this);
+        final OutputRegistry.Handover previous = registry.takeOver(streamId, deliveryName);
+        if (previous != null) {
+            takeOver(previous);
+        }
+        if (!paused.get()) {
+            replay();
+        }
     }
 
+    /**
+     * Continues where the output this one replaces left off. Dispatchers, rate limits and deduplication are shared
+     * by all outputs of the node anyway.
+     */
+    private void takeOver(OutputRegistry.Handover previous) {
+        final SlackMessageOutput output = previous.output;
+        paused.set(output.paused.get());
+        if (previous.claim()) {
+            if (output.dispatcher == dispatcher && output.pool == pool && output.partitions == partitions) {
+                // Same send queue, so the queued notifications keep their place.
+                for (Map.Entry<ListenableFuture<Void>, PendingNotification> entry : output.pending.entrySet()) {
+                    track(entry.getKey(), entry.getValue());
+                }
+            } else {
+                resubmit(output.withdrawQueued());
+            }
+            LOG.info("Slack output <{}> took over {} pending notifications of <{}>.", deliveryName,
+                    pending.size(), previous.name);
+        }
+        if (!previous.name.equals(deliveryName)) {
+            // The previous output saved what it couldn't post under its own name.
+            recoveryStore.spill(deliveryName, recoveryStore.takeAll(previous.name));
+        }
+    }
+
+    /**
+     * Stops accepting messages and waits up to the configured timeout for the pending ones to be posted. Whatever is
+     * still queued afterwards is saved and sent when the output is started again.
+     * <p>
+     * If Graylog replaces the output with one for its new configuration in the meantime, the new output takes over
+     * the pending messages right away.
+     */
     @Override
     public void stop() {
-        running.set(false);
+        if (!running.compareAndSet(true, false)) {
+            return;
+        }
+        final OutputRegistry.Handover handover = registry.park(streamId, deliveryName, this);
+        registry.unregister(deliveryName, this);
+        try {
+            handover.await(new ArrayList<>(pending.keySet()), shutdownTimeoutMillis);
+        } catch (TimeoutException e) {
+            LOG.debug("Slack notifications still pending after waiting {} ms.", shutdownTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        handover.close(new Runnable() {
+            @Override
+            public void run() {
+                recoveryStore.spill(deliveryName, withdrawQueued());
+            }
+        });
+        releaseDispatchers();
+    }
+
+    private void releaseDispatchers() {
+        dispatchers.release(dispatcher);
+        if (pool != null) {
+            dispatchers.release(pool);
+        }
+        if (partitions != null) {
+            dispatchers.release(partitions);
+        }
+    }
+
+    /**
+     * Stops posting messages of this output. Queued and new messages are saved until the output is resumed.
+     *
+     * @return the number of queued messages which have been saved
+     */
+    public int pause() {
+        if (!paused.compareAndSet(false, true)) {
+            return 0;
+        }
+        final List<PendingNotification> queued = withdrawQueued();
+        recoveryStore.spill(deliveryName, queued);
+        LOG.info("Paused Slack output <{}>, saved {} queued notifications.", deliveryName, queued.size());
+        return queued.size();
+    }
+
+    public void resume() {
+        if (paused.compareAndSet(true, false)) {
+            LOG.info("Resumed Slack output <{}>.", deliveryName);
+            replay();
+        }
+    }
+
+    /**
+     * Discards the queued messages of this output, so that new messages don't have to wait for them.
+     *
+     * @return the number of discarded messages
+     */
+    public int flush() {
+        final int discarded = withdrawQueued().size();
+        LOG.info("Discarded {} queued notifications of Slack output <{}>.", discarded, deliveryName);
+        return discarded;
+    }
+
+    public OutputStatus status() {
+        return new OutputStatus(webhookId, running.get(), paused.get(), pending.size());
+    }
+
+    /**
+     * Takes the notifications of this output out of the send queue. Notifications which are being sent right now
+     * can't be taken back, they complete on their own.
+     */
+    private List<PendingNotification> withdrawQueued() {
+        final List<PendingNotification> withdrawn = new ArrayList<>();
+        for (Map.Entry<ListenableFuture<Void>, PendingNotification> entry : pending.entrySet()) {
+            if (withdraw(entry.getKey())) {
+                withdrawn.add(entry.getValue());
+            }
+        }
+        return withdrawn;
+    }
+
+    private void replay() {
+        final List<PendingNotification> notifications = recoveryStore.takeAll(deliveryName);
+        if (!notifications.isEmpty()) {
+            LOG.info("Resending {} Slack notifications saved when the output was stopped.", notifications.size());
+        }
+        resubmit(notifications);
+    }
+
+    private void resubmit(List<PendingNotification> notifications) {
+        for (int i = 0; i < notifications.size(); i++) {
+            try {
+                submit(notifications.get(i), notifications.get(i).toSlackMessage());
+            } catch (QueueSaturatedException e) {
+                LOG.warn("Slack send queue is full, keeping {} saved notifications for later.", notifications.size() - i);
+                recoveryStore.spill(deliveryName, notifications.subList(i, notifications.size()));
+                return;
+            }
+        }
+    }
+
+    private void submit(final PendingNotification notification, SlackMessage slackMessage) throws QueueSaturatedException {
+        if (!running.get() || paused.get()) {
+            recoveryStore.spill(deliveryName, Collections.singletonList(notification));
+            return;
+        }
+
+        track(offer(notification, slackMessage), notification);
+    }
+
+    private void track(final ListenableFuture<Void> future, PendingNotification notification) {
+        pending.put(future, notification);
+        Futures.addCallback(future, new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                pending.remove(future);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                pending.remove(future);
+                if (t instanceof DeliveryDroppedException) {
+                    LOG.debug("Could not send message to Slack.", t);
+                } else if (!(t instanceof CancellationException)) {
+                    LOG.warn("Could not send message to Slack.", t);
+                }
+            }
+        });
+    }
+
+    private ListenableFuture<Void> offer(PendingNotification notification, SlackMessage slackMessage) throws QueueSaturatedException {
+        if (pool != null) {
+            // Spread over the webhooks for throughput, at the expense of the order of the messages.
+            return pool.offer(notification.priority, slackMessage, notification.dedupKey, stats, notification.eventMillis,
+                    maxBlockNanos, streamShare);
+        }
+        if (partitions != null) {
+            // Messages of a channel stay in order, because all of them go through the same partition.
+            return partitions.offer(notification.channel, notification.priority, slackMessage, notification.dedupKey,
+                    stats, notification.eventMillis, maxBlockNanos, streamShare);
+        }
+        return dispatcher.offer(notification.priority, slackMessage, notification.dedupKey, stats,
+                notification.eventMillis, maxBlockNanos, streamShare);
+    }
+
+    private boolean withdraw(ListenableFuture<Void> future) {
+        if (pool != null) {
+            return pool.withdraw(future);
+        }
+        if (partitions != null) {
+            return partitions.withdraw(future);
+        }
+        return dispatcher.withdraw(future);
     }
 
     @Override
@@ -68,67 +417,105 @@ public class SlackMessageOutput extends SlackPluginBase implements MessageOutput
         return running.get();
     }
 
+    /**
+     * @throws QueueSaturatedException if the send queue stayed full for longer than the configured maximum block
+     *                                 time, so Graylog can retry later. Retried messages are posted only once.
+     */
     @Override
-    public void write(Message msg) throws RuntimeException {
-        boolean shortMode = configuration.getBoolean(SlackConfiguration.CK_SHORT_MODE);
-        String message = shortMode ? buildShortMessageBody(msg) : buildFullMessageBody(stream, msg);
-        SlackMessage slackMessage = createSlackMessage(configuration, message);
+    public void write(Message msg) throws QueueSaturatedException {
+        final String channel = channelRouter == null ? prototype.getChannel() : channelRouter.resolve(msg);
+        if (channel == null) {
+            LOG.debug("Message <{}> lacks the fields of the Slack channel and there is no fallback channel, skipping it.", msg.getId());
+            return;
+        }
+
+        String message = shortMode ? formatter.formatShort(msg) : formatter.formatFull(msg);
+        SlackMessage slackMessage = prototypeOf(channel).newMessage(message);
+        if (blockLayout) {
+            slackMessage.addBlock(new SectionBlock(TextObject.markdown(message)));
+        }
 
         // Add custom message
-        String template = configuration.getString(SlackConfiguration.CK_CUSTOM_MESSAGE);
-        Boolean hasTemplate = !isNullOrEmpty(template);
+        boolean hasTemplate = !isNullOrEmpty(customMessageTemplate);
         if (!shortMode && hasTemplate) {
-            String customMessage = buildCustomMessage(stream, msg, template);
-            slackMessage.setCustomMessage(customMessage);
+            String customMessage = buildCustomMessage(stream, msg, customMessageTemplate);
+            if (blockLayout) {
+                slackMessage.addBlock(new SectionBlock(TextObject.markdown(customMessage)));
+            } else {
+                slackMessage.setCustomMessage(customMessage);
+            }
         }
 
         // Add attachments
-        boolean addDetails = configuration.getBoolean(SlackConfiguration.CK_ADD_DETAILS);
         if (!shortMode && addDetails) {
-            buildDetailsAttachment(msg, slackMessage);
+            if (blockLayout) {
+                buildDetailBlocks(msg, slackMessage);
+            } else {
+                buildDetailsAttachment(msg, slackMessage);
+            }
         }
 
+        // Guards against the same message being posted twice, e.g. after a node replayed its journal. The delivery
+        // name keeps other outputs of the stream from taking the message for a duplicate.
+        final String dedupKey = deliveryName + ':' + msg.getId();
+        submit(PendingNotification.of(priorityOf(msg), slackMessage, dedupKey, msg.getTimestamp().getMillis()), slackMessage);
+    }
+
+    private SlackMessage.Prototype prototypeOf(final String channel) {
+        if (channelRouter == null) {
+            return prototype;
+        }
         try {
-            client.send(slackMessage);
-        } catch (SlackClient.SlackClientException e) {
-            throw new RuntimeException("Could not send message to Slack.", e);
+            return prototypes.get(channel, new Callable<SlackMessage.Prototype>() {
+                @Override
+                public SlackMessage.Prototype call() {
+                    return prototype.withChannel(channel);
+                }
+            });
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not create Slack message for channel " + channel, e.getCause());
+        }
+    }
+
+    private Priority priorityOf(Message msg) {
+        final Object level = msg.getField(Message.FIELD_LEVEL);
+        if (level instanceof Number && ((Number) level).intValue() <= highPriorityLevel) {
+            return Priority.HIGH;
         }
+        return Priority.BULK;
     }
 
     private void buildDetailsAttachment(Message msg, SlackMessage slackMessage) {
-        slackMessage.addDetailsAttachmentField(new SlackMessage.AttachmentField("Stream Description", stream.getDescription(), false));
-        slackMessage.addDetailsAttachmentField(new SlackMessage.AttachmentField("Source", msg.getSource(), true));
+        slackMessage.addDetailsAttachmentField(new SlackMessage.AttachmentField("Stream Description", SlackEscaper.escape(streamDescription), false));
+        slackMessage.addDetailsAttachmentField(new SlackMessage.AttachmentField("Source", SlackEscaper.escape(msg.getSource()), true));
 
-        for (Map.Entry<String, Object> field : msg.getFields().entrySet()) {
-            if (Message.RESERVED_FIELDS.contains(field.getKey())) continue;
-            slackMessage.addDetailsAttachmentField(new SlackMessage.AttachmentField(field.getKey(), field.getValue().toString(), true));
+        for (Map.Entry<String, Object> field : plan.details(msg)) {
+            slackMessage.addDetailsAttachmentField(new SlackMessage.AttachmentField(field.getKey(), SlackEscaper.escape(field.getValue().toString()), true));
         }
     }
 
-    private String buildFullMessageBody(Stream stream, Message msg) {
-        String graylogUri = configuration.getString(SlackConfiguration.CK_GRAYLOG2_URL);
-        String titleLink;
-        if (!isNullOrEmpty(graylogUri)) {
-            titleLink = "<" + buildStreamLink(graylogUri, stream) + "|" + stream.getTitle() + ">";
-        } else {
-            titleLink = "_" + stream.getTitle() + "_";
+    private void buildDetailBlocks(Message msg, SlackMessage slackMessage) {
+        final List<Map.Entry<String, Object>> details = plan.details(msg);
+        final List<TextObject> fields = new ArrayList<>(details.size() + 1);
+        fields.add(detailField("Source", msg.getSource()));
+        for (Map.Entry<String, Object> field : details) {
+            fields.add(detailField(field.getKey(), field.getValue().toString()));
         }
 
-        String messageLink;
-        if (!isNullOrEmpty(graylogUri)) {
-            String index = "graylog_deflector"; // would use msg.getFieldAs(String.class, "_index"), but it returns null
-            messageLink = "<" + buildMessageLink(graylogUri, index, msg.getId()) + "|New message>";
-        } else {
-            messageLink = "New message";
+        for (SectionBlock section : SectionBlock.ofFields(fields)) {
+            slackMessage.addBlock(section);
         }
+        if (!isNullOrEmpty(streamDescription)) {
+            slackMessage.addBlock(new ContextBlock(TextObject.plain(streamDescription)));
+        }
+    }
 
-        boolean notifyChannel = configuration.getBoolean(SlackConfiguration.CK_NOTIFY_CHANNEL);
-        String audience = notifyChannel ? "@channel " : "";
-        return String.format("%s*%s in Graylog stream %s*:\n> %s", audience, messageLink, titleLink, msg.getMessage());
+    private static TextObject detailField(String name, String value) {
+        return TextObject.markdown("*" + SlackEscaper.escape(name) + "*\n" + SlackEscaper.escape(value));
     }
 
     private String buildCustomMessage(Stream stream, Message msg, String template) {
-        Map<String, Object> model = getModel(stream, msg);
+        Map<String, Object> model = getModel(msg);
         try {
             return templateEngine.transform(template, model);
         } catch (Exception ex) {
@@ -136,27 +523,21 @@ public class SlackMessageOutput extends SlackPluginBase implements MessageOutput
         }
     }
 
-    private Map<String, Object> getModel(Stream stream, Message msg) {
+    private Map<String, Object> getModel(Message msg) {
         Map<String, Object> model = new HashMap<>();
 
-        String graylogUri = configuration.getString(SlackConfiguration.CK_GRAYLOG2_URL);
-        model.put("stream", stream);
-        model.put("message", msg);
+        model.put("stream", plan.streamModel());
+        model.put("message", plan.messageModel(msg));
 
-        if (!isNullOrEmpty(graylogUri)) {
-            model.put("stream_url", buildStreamLink(graylogUri, stream));
+        if (streamUrl != null) {
+            model.put("stream_url", streamUrl);
         }
 
         return model;
     }
 
-    private String buildShortMessageBody(Message msg) {
-        String timeStamp = msg.getTimestamp().toDateTime(DateTimeZone.getDefault()).toString(DateTimeFormat.shortTime());
-        return String.format("%s: %s", timeStamp, msg.getMessage());
-    }
-
     @Override
-    public void write(List<Message> list) {
+    public void write(List<Message> list) throws QueueSaturatedException {
         for (Message message : list) {
             write(message);
         }
@@ -0,0 +1,144 @@
+package org.graylog2.plugins.slack.recovery;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.graylog2.plugins.slack.SlackMessage;
+import org.graylog2.plugins.slack.blocks.Block;
+import org.graylog2.plugins.slack.blocks.RawBlock;
+import org.graylog2.plugins.slack.dispatch.Priority;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A notification which has been accepted but not posted yet, in a form which can be written to the recovery file.
+ * <p>
+ * It refers to the {@link SlackMessage#compact() compacted} message instead of copying it, so a queued notification
+ * doesn't take more memory than the message itself.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class PendingNotification {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @JsonProperty
+    public final Priority priority;
+    @JsonProperty("dedup_key")
+    public final String dedupKey;
+    @JsonProperty("event_millis")
+    public final long eventMillis;
+    @JsonProperty
+    public final String channel;
+    @JsonProperty
+    public final String text;
+    private final SlackMessage message;
+
+    private PendingNotification(Priority priority, String dedupKey, long eventMillis, SlackMessage message) {
+        this.priority = priority;
+        this.dedupKey = dedupKey;
+        this.eventMillis = eventMillis;
+        this.channel = message.getChannel();
+        this.text = message.getMessage();
+        this.message = message.compact();
+    }
+
+    @JsonCreator
+    public static PendingNotification create(@JsonProperty("priority") Priority priority,
+                                             @JsonProperty("dedup_key") String dedupKey,
+                                             @JsonProperty("event_millis") long eventMillis,
+                                             @JsonProperty("color") String color,
+                                             @JsonProperty("icon_emoji") String iconEmoji,
+                                             @JsonProperty("icon_url") String iconUrl,
+                                             @JsonProperty("user_name") String userName,
+                                             @JsonProperty("channel") String channel,
+                                             @JsonProperty("link_names") boolean linkNames,
+                                             @JsonProperty("text") String text,
+                                             @JsonProperty("custom_message") String customMessage,
+                                             @JsonProperty("details") List<SlackMessage.AttachmentField> details,
+                                             @JsonProperty("blocks") List<JsonNode> blocks) {
+        final SlackMessage message = new SlackMessage(color, iconEmoji, iconUrl, text, userName, channel, linkNames);
+        message.setCustomMessage(customMessage);
+        if (details != null) {
+            for (SlackMessage.AttachmentField field : details) {
+                message.addDetailsAttachmentField(field);
+            }
+        }
+        if (blocks != null) {
+            for (JsonNode block : blocks) {
+                message.addBlock(new RawBlock(block));
+            }
+        }
+        return new PendingNotification(priority, dedupKey, eventMillis, message);
+    }
+
+    public static PendingNotification of(Priority priority, SlackMessage message, String dedupKey, long eventMillis) {
+        return new PendingNotification(priority, dedupKey, eventMillis, message);
+    }
+
+    @JsonProperty
+    public String color() {
+        return message.getColor();
+    }
+
+    @JsonProperty("icon_emoji")
+    public String iconEmoji() {
+        return message.getIconEmoji();
+    }
+
+    @JsonProperty("icon_url")
+    public String iconUrl() {
+        return message.getIconUrl();
+    }
+
+    @JsonProperty("user_name")
+    public String userName() {
+        return message.getUserName();
+    }
+
+    @JsonProperty("link_names")
+    public boolean linkNames() {
+        return message.isLinkNames();
+    }
+
+    @JsonProperty("custom_message")
+    public String customMessage() {
+        return message.getCustomMessage();
+    }
+
+    @JsonProperty
+    public List<SlackMessage.AttachmentField> details() {
+        return message.getDetailFields();
+    }
+
+    // Only serialized when the notification is saved, which is rare.
+    @JsonProperty("blocks")
+    public List<JsonNode> serializedBlocks() throws IOException {
+        final List<Block> blocks = message.getBlocks();
+        if (blocks.isEmpty()) {
+            return null;
+        }
+        final List<JsonNode> nodes = new ArrayList<>(blocks.size());
+        for (Block block : blocks) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+            try (final JsonGenerator generator = OBJECT_MAPPER.getFactory().createGenerator(out)) {
+                block.writeTo(generator);
+            }
+            nodes.add(OBJECT_MAPPER.readTree(out.toByteArray()));
+        }
+        return nodes;
+    }
+
+    /**
+     * @return the compacted message, which can't be changed
+     */
+    public SlackMessage toSlackMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,103 @@
+package org.graylog2.plugins.slack.recovery;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps notifications which could not be posted before an output was stopped, so they can be sent once it is
+ * started again.
+ * <p>
+ * Every output has a file of its own with one JSON document per line. The files live next to the message journal,
+ * because that directory is local to the node and survives restarts.
+ */
+@Singleton
+public class RecoveryStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RecoveryStore.class);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final String SUFFIX = ".json";
+
+    private final Path directory;
+
+    @Inject
+    public RecoveryStore(@Named("message_journal_dir") File messageJournalDir) {
+        this(messageJournalDir.getAbsoluteFile().toPath().resolveSibling("slack-recovery"));
+    }
+
+    public RecoveryStore(Path directory) {
+        this.directory = directory;
+    }
+
+    public synchronized void spill(String name, Collection<PendingNotification> notifications) {
+        if (notifications.isEmpty()) {
+            return;
+        }
+
+        final Path file = fileOf(name);
+        try {
+            Files.createDirectories(directory);
+            try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (PendingNotification notification : notifications) {
+                    writer.write(OBJECT_MAPPER.writeValueAsString(notification));
+                    writer.newLine();
+                }
+            }
+            LOG.info("Saved {} pending Slack notifications of <{}> to {}.", notifications.size(), name, file);
+        } catch (IOException e) {
+            LOG.error("Could not save " + notifications.size() + " pending Slack notifications of <" + name + ">, they are lost.", e);
+        }
+    }
+
+    /**
+     * Returns and forgets the notifications saved for the given name.
+     */
+    public synchronized List<PendingNotification> takeAll(String name) {
+        final Path file = fileOf(name);
+        if (!Files.exists(file)) {
+            return Collections.emptyList();
+        }
+
+        final List<PendingNotification> notifications = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    notifications.add(OBJECT_MAPPER.readValue(line, PendingNotification.class));
+                } catch (IOException e) {
+                    // A line may be incomplete if the node died while writing it.
+                    LOG.warn("Skipping unreadable Slack notification in {}.", file, e);
+                }
+            }
+            Files.delete(file);
+        } catch (IOException e) {
+            LOG.error("Could not read pending Slack notifications from " + file, e);
+        }
+
+        return notifications;
+    }
+
+    private Path fileOf(String name) {
+        return directory.resolve(name.replaceAll("[^A-Za-z0-9._-]", "_") + SUFFIX);
+    }
+}
@@ -0,0 +1,74 @@
+package org.graylog2.plugins.slack.rest;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.shiro.authz.annotation.RequiresAuthentication;
+import org.graylog2.plugin.rest.PluginRestResource;
+import org.graylog2.plugins.slack.output.OutputRegistry;
+import org.graylog2.plugins.slack.output.OutputStatus;
+import org.graylog2.plugins.slack.output.SlackMessageOutput;
+import org.graylog2.shared.rest.resources.RestResource;
+import org.graylog2.shared.security.RestPermissions;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import java.util.Map;
+
+/**
+ * Lists the Slack outputs running on this node and lets administrators pause, resume or flush them.
+ * Outputs are addressed by their delivery name, as reported by the statistics.
+ */
+@RequiresAuthentication
+@Path("/outputs")
+@Produces(MediaType.APPLICATION_JSON)
+public class SlackOutputsResource extends RestResource implements PluginRestResource {
+
+    private final OutputRegistry outputs;
+
+    @Inject
+    public SlackOutputsResource(OutputRegistry outputs) {
+        this.outputs = outputs;
+    }
+
+    @GET
+    public Map<String, OutputStatus> list() {
+        checkPermission(RestPermissions.OUTPUTS_READ);
+        return outputs.statuses();
+    }
+
+    @POST
+    @Path("/{name}/pause")
+    public Map<String, Object> pause(@PathParam("name") String name) {
+        checkPermission(RestPermissions.OUTPUTS_EDIT);
+        return ImmutableMap.<String, Object>of("saved", output(name).pause());
+    }
+
+    @POST
+    @Path("/{name}/resume")
+    public OutputStatus resume(@PathParam("name") String name) {
+        checkPermission(RestPermissions.OUTPUTS_EDIT);
+        final SlackMessageOutput output = output(name);
+        output.resume();
+        return output.status();
+    }
+
+    @POST
+    @Path("/{name}/flush")
+    public Map<String, Object> flush(@PathParam("name") String name) {
+        checkPermission(RestPermissions.OUTPUTS_EDIT);
+        return ImmutableMap.<String, Object>of("discarded", output(name).flush());
+    }
+
+    private SlackMessageOutput output(String name) {
+        final SlackMessageOutput output = outputs.get(name);
+        if (output == null) {
+            throw new NotFoundException("No Slack output <" + name + "> is running on this node.");
+        }
+        return output;
+    }
+}
@@ -0,0 +1,58 @@
+package org.graylog2.plugins.slack.rest;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.shiro.authz.annotation.RequiresAuthentication;
+import org.graylog2.plugin.rest.PluginRestResource;
+import org.graylog2.plugins.slack.dispatch.SlackDispatcher;
+import org.graylog2.plugins.slack.dispatch.SlackDispatchers;
+import org.graylog2.plugins.slack.stats.DeliveryStatistics;
+import org.graylog2.plugins.slack.stats.DeliveryStats;
+import org.graylog2.shared.rest.resources.RestResource;
+import org.graylog2.shared.security.RestPermissions;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import java.util.Map;
+
+@RequiresAuthentication
+@Path("/statistics")
+@Produces(MediaType.APPLICATION_JSON)
+public class SlackStatisticsResource extends RestResource implements PluginRestResource {
+
+    private final DeliveryStatistics deliveryStatistics;
+    private final SlackDispatchers dispatchers;
+
+    @Inject
+    public SlackStatisticsResource(DeliveryStatistics deliveryStatistics, SlackDispatchers dispatchers) {
+        this.deliveryStatistics = deliveryStatistics;
+        this.dispatchers = dispatchers;
+    }
+
+    /**
+     * Delivery statistics of every output and alarm callback, and the state of the webhooks they post to.
+     */
+    @GET
+    public Map<String, Object> statistics() {
+        checkPermission(RestPermissions.OUTPUTS_READ);
+        return ImmutableMap.<String, Object>of(
+                "senders", deliveryStatistics.summaries(),
+                "webhooks", dispatchers.summaries());
+    }
+
+    @GET
+    @Path("/latency")
+    public Map<String, DeliveryStats.Summary> latency() {
+        checkPermission(RestPermissions.OUTPUTS_READ);
+        return deliveryStatistics.summaries();
+    }
+
+    @GET
+    @Path("/webhooks")
+    public Map<String, SlackDispatcher.Summary> webhooks() {
+        checkPermission(RestPermissions.OUTPUTS_READ);
+        return dispatchers.summaries();
+    }
+}
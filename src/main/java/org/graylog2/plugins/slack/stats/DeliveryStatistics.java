@@ -0,0 +1,49 @@
+package org.graylog2.plugins.slack.stats;
+
+import com.codahale.metrics.MetricRegistry;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Node-wide registry of the delivery statistics of all outputs and alarm callbacks.
+ * <p>
+ * Statistics are kept by name, so they survive alarm callbacks being created for every alert and outputs being
+ * recreated when their configuration changes.
+ */
+@Singleton
+public class DeliveryStatistics {
+
+    private final MetricRegistry metricRegistry;
+    private final ConcurrentMap<String, DeliveryStats> stats = new ConcurrentHashMap<>();
+
+    @Inject
+    public DeliveryStatistics(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
+
+    public DeliveryStats forSender(String name, long sloMillis) {
+        DeliveryStats current = stats.get(name);
+        if (current == null) {
+            final DeliveryStats created = new DeliveryStats(name, sloMillis, metricRegistry);
+            current = stats.putIfAbsent(name, created);
+            if (current == null) {
+                return created;
+            }
+        }
+        current.setSloMillis(sloMillis);
+        return current;
+    }
+
+    public Map<String, DeliveryStats.Summary> summaries() {
+        final Map<String, DeliveryStats.Summary> summaries = new TreeMap<>();
+        for (DeliveryStats deliveryStats : stats.values()) {
+            summaries.put(deliveryStats.getName(), deliveryStats.summary());
+        }
+        return summaries;
+    }
+}
@@ -0,0 +1,243 @@
+package org.graylog2.plugins.slack.stats;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivery statistics of a single output or alarm callback.
+ * <p>
+ * End-to-end latency is measured from the timestamp of the message, or the time the alert was triggered, until Slack
+ * accepted the post. Deliveries slower than the SLO are counted, exposed as metric and logged at most once a minute.
+ */
+public class DeliveryStats {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeliveryStats.class);
+    private static final long BREACH_LOG_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final String name;
+    private volatile long sloMillis;
+
+    private final LatencyHistogram endToEnd = new LatencyHistogram();
+    private final LatencyHistogram queueing = new LatencyHistogram();
+    private final AtomicLong breaches = new AtomicLong();
+    private final AtomicLong unloggedBreaches = new AtomicLong();
+    private final AtomicLong lastBreachLog = new AtomicLong();
+    private final ConcurrentMap<String, AtomicLong> failures = new ConcurrentHashMap<>();
+    private volatile Supplier<Double> streamShare;
+
+    private final Histogram endToEndMetric;
+    private final Histogram queueingMetric;
+    private final Counter breachesMetric;
+    private final Timer blockedMetric;
+    private final Meter rejectedMetric;
+    private final Meter deliveredMetric;
+    private final Meter failedMetric;
+    private final Meter uploadFailedMetric;
+
+    DeliveryStats(String name, long sloMillis, MetricRegistry metricRegistry) {
+        this.name = name;
+        this.sloMillis = sloMillis;
+        this.endToEndMetric = metricRegistry.histogram(metricName(name, "latency-end-to-end"));
+        this.queueingMetric = metricRegistry.histogram(metricName(name, "latency-queueing"));
+        this.breachesMetric = metricRegistry.counter(metricName(name, "slo-breaches"));
+        this.blockedMetric = metricRegistry.timer(metricName(name, "blocked"));
+        this.rejectedMetric = metricRegistry.meter(metricName(name, "rejected"));
+        this.deliveredMetric = metricRegistry.meter(metricName(name, "delivered"));
+        this.failedMetric = metricRegistry.meter(metricName(name, "failed"));
+        this.uploadFailedMetric = metricRegistry.meter(metricName(name, "upload-failed"));
+
+        final String streamShareName = metricName(name, "stream-share");
+        metricRegistry.remove(streamShareName);
+        metricRegistry.register(streamShareName, new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return streamShare();
+            }
+        });
+    }
+
+    static String metricName(String name, String metric) {
+        return MetricRegistry.name("org.graylog2.plugins.slack", name, metric);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    void setSloMillis(long sloMillis) {
+        this.sloMillis = sloMillis;
+    }
+
+    /**
+     * Reports the fraction of the recent posts of the webhook which belonged to the stream of the sender.
+     */
+    public void trackStreamShare(Supplier<Double> streamShare) {
+        this.streamShare = streamShare;
+    }
+
+    private double streamShare() {
+        final Supplier<Double> supplier = streamShare;
+        return supplier == null ? 0.0d : supplier.get();
+    }
+
+    public void recordQueueing(long nanos) {
+        final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        queueing.record(millis);
+        queueingMetric.update(millis);
+    }
+
+    /**
+     * Records that accepting a message had to wait for the send queue to make room.
+     */
+    public void recordBlocked(long nanos) {
+        blockedMetric.update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records that a message was rejected because the send queue stayed full.
+     */
+    public void recordRejected() {
+        rejectedMetric.mark();
+    }
+
+    /**
+     * @param eventMillis timestamp of the message or alert which was delivered
+     */
+    public void recordDelivered(long eventMillis) {
+        final long now = System.currentTimeMillis();
+        final long latency = Math.max(0L, now - eventMillis);
+        endToEnd.record(latency);
+        endToEndMetric.update(latency);
+        deliveredMetric.mark();
+
+        final long slo = sloMillis;
+        if (slo > 0 && latency > slo) {
+            breaches.incrementAndGet();
+            breachesMetric.inc();
+            unloggedBreaches.incrementAndGet();
+            logBreaches(now, latency, slo);
+        }
+    }
+
+    /**
+     * Records a failed attempt to post a message.
+     *
+     * @param status HTTP status of the response, or 0 if Slack couldn't be reached
+     */
+    public void recordFailed(int status) {
+        countFailure(status == 0 ? "connection" : String.valueOf(status));
+        failedMetric.mark();
+    }
+
+    /**
+     * Records that a backlog file couldn't be uploaded, or wasn't because too many uploads were pending. It is
+     * counted under {@code upload} with the failures.
+     */
+    public void recordUploadFailed() {
+        countFailure("upload");
+        uploadFailedMetric.mark();
+    }
+
+    private void countFailure(String key) {
+        AtomicLong count = failures.get(key);
+        if (count == null) {
+            final AtomicLong created = new AtomicLong();
+            count = failures.putIfAbsent(key, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    private void logBreaches(long now, long latency, long slo) {
+        final long last = lastBreachLog.get();
+        if (now - last >= BREACH_LOG_INTERVAL_MILLIS && lastBreachLog.compareAndSet(last, now)) {
+            LOG.warn("Slack notifications of <{}> missed the delivery latency SLO of {} ms {} times since the last report, latest took {} ms.",
+                    name, slo, unloggedBreaches.getAndSet(0L), latency);
+        }
+    }
+
+    public Summary summary() {
+        final Map<String, Long> failureCounts = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : failures.entrySet()) {
+            failureCounts.put(entry.getKey(), entry.getValue().get());
+        }
+        return new Summary(sloMillis, breaches.get(), blockedMetric.getCount(), rejectedMetric.getCount(),
+                deliveredMetric.getOneMinuteRate(), streamShare(), failureCounts,
+                new LatencySummary(endToEnd), new LatencySummary(queueing));
+    }
+
+    public static class Summary {
+        @JsonProperty("slo_ms")
+        public final long sloMillis;
+        @JsonProperty("slo_breaches")
+        public final long sloBreaches;
+        @JsonProperty
+        public final long blocked;
+        @JsonProperty
+        public final long rejected;
+        // Per second, averaged over the last minute.
+        @JsonProperty("delivery_rate")
+        public final double deliveryRate;
+        // Fraction of the recent posts of the webhook which belonged to the stream of the sender.
+        @JsonProperty("stream_share")
+        public final double streamShare;
+        @JsonProperty
+        public final Map<String, Long> failures;
+        @JsonProperty("end_to_end")
+        public final LatencySummary endToEnd;
+        @JsonProperty("queueing")
+        public final LatencySummary queueing;
+
+        public Summary(long sloMillis, long sloBreaches, long blocked, long rejected, double deliveryRate,
+                       double streamShare, Map<String, Long> failures, LatencySummary endToEnd,
+                       LatencySummary queueing) {
+            this.sloMillis = sloMillis;
+            this.sloBreaches = sloBreaches;
+            this.blocked = blocked;
+            this.rejected = rejected;
+            this.deliveryRate = deliveryRate;
+            this.streamShare = streamShare;
+            this.failures = failures;
+            this.endToEnd = endToEnd;
+            this.queueing = queueing;
+        }
+    }
+
+    public static class LatencySummary {
+        @JsonProperty
+        public final long count;
+        @JsonProperty("p50_ms")
+        public final long p50;
+        @JsonProperty("p90_ms")
+        public final long p90;
+        @JsonProperty("p99_ms")
+        public final long p99;
+        @JsonProperty("max_ms")
+        public final long max;
+
+        public LatencySummary(LatencyHistogram histogram) {
+            this.count = histogram.count();
+            this.p50 = histogram.percentile(50);
+            this.p90 = histogram.percentile(90);
+            this.p99 = histogram.percentile(99);
+            this.max = histogram.max();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.graylog2.plugins.slack.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in milliseconds with a fixed memory footprint.
+ * <p>
+ * Like an HDR histogram, values below 64 are counted exactly and larger values in log-linear buckets, so every
+ * recorded value is off by at most 1/32 of itself. Values above one day are counted as one day.
+ */
+public class LatencyHistogram {
+
+    static final long MAX_VALUE = 24L * 60 * 60 * 1000;
+
+    private static final int SUB_BUCKETS = 64;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+    private final AtomicLongArray counts = new AtomicLongArray(indexOf(MAX_VALUE) + 1);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    public void record(long millis) {
+        final long value = Math.min(MAX_VALUE, Math.max(0L, millis));
+        counts.incrementAndGet(indexOf(value));
+        totalCount.incrementAndGet();
+
+        long max = maxValue.get();
+        while (value > max && !maxValue.compareAndSet(max, value)) {
+            max = maxValue.get();
+        }
+    }
+
+    public long count() {
+        return totalCount.get();
+    }
+
+    public long max() {
+        return maxValue.get();
+    }
+
+    /**
+     * Returns the highest value of the bucket containing the given percentile (0-100), or 0 if nothing was recorded.
+     */
+    public long percentile(double percentile) {
+        final long total = totalCount.get();
+        if (total == 0) {
+            return 0L;
+        }
+
+        final long rank = Math.max(1L, (long) Math.ceil(total * percentile / 100.0d));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), maxValue.get());
+            }
+        }
+        return maxValue.get();
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // Shift the value until it falls into [32, 64), which keeps its 6 most significant bits.
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - 5;
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) ((value >> shift) - HALF_SUB_BUCKETS);
+    }
+
+    static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int offset = index - SUB_BUCKETS;
+        final int shift = offset / HALF_SUB_BUCKETS + 1;
+        final long subBucket = offset % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
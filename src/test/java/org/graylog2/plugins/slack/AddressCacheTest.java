@@ -0,0 +1,58 @@
+package org.graylog2.plugins.slack;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class AddressCacheTest {
+
+    @Test
+    public void cachesAddressesUntilTheyExpire() throws Exception {
+        final ManualTicker ticker = new ManualTicker();
+        final AtomicInteger lookups = new AtomicInteger();
+        final AddressCache cache = new AddressCache(60, TimeUnit.SECONDS, ticker) {
+            @Override
+            InetAddress lookup(String host) throws UnknownHostException {
+                lookups.incrementAndGet();
+                return super.lookup(host);
+            }
+        };
+
+        cache.resolve("localhost");
+        ticker.nanos += TimeUnit.SECONDS.toNanos(59);
+        cache.resolve("localhost");
+        assertEquals(1, lookups.get());
+
+        ticker.nanos += TimeUnit.SECONDS.toNanos(1);
+        cache.resolve("localhost");
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    public void resolvesSocketAddresses() throws Exception {
+        final AddressCache cache = new AddressCache(60, TimeUnit.SECONDS);
+
+        assertEquals(8080, cache.resolve("127.0.0.1", 8080).getPort());
+        assertEquals(InetAddress.getByName("127.0.0.1"), cache.resolve("127.0.0.1", 8080).getAddress());
+    }
+
+    @Test(expected = UnknownHostException.class)
+    public void failsForUnknownHosts() throws Exception {
+        new AddressCache(60, TimeUnit.SECONDS).resolve("unknown.invalid");
+    }
+
+    private static class ManualTicker extends Ticker {
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.graylog2.plugins.slack;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SlackEscaperTest {
+
+    @Test
+    public void escapesControlCharacters() {
+        assertEquals("a &lt;b&gt; &amp;&amp; c", SlackEscaper.escape("a <b> && c"));
+        assertEquals("&lt;!channel&gt;", SlackEscaper.escape("<!channel>"));
+        assertEquals("&amp;amp;", SlackEscaper.escape("&amp;"));
+    }
+
+    @Test
+    public void returnsInputWithoutControlCharacters() {
+        final String text = "GET /index.html HTTP/1.1 200 @here *bold*";
+        assertSame(text, SlackEscaper.escape(text));
+        assertNull(SlackEscaper.escape(null));
+    }
+
+    @Test
+    public void appendsEscapedText() {
+        final StringBuilder sb = new StringBuilder("prefix: ");
+        SlackEscaper.appendEscaped(sb, "x > 1");
+        assertEquals("prefix: x &gt; 1", sb.toString());
+    }
+
+    @Test
+    public void encodesTemplateValues() {
+        assertEquals("&lt;http://example.com|link&gt;", SlackEscaper.TEMPLATE_ENCODER.encode("<http://example.com|link>"));
+    }
+
+    @Test
+    public void templateEngineEscapesInsertedValues() {
+        final Map<String, Object> model = ImmutableMap.<String, Object>of("value", "<!channel>");
+        assertEquals("*&lt;!channel&gt;*", SlackEscaper.templateEngine().transform("*${value}*", model));
+        assertNotSame(SlackEscaper.templateEngine(), SlackEscaper.templateEngine());
+    }
+}
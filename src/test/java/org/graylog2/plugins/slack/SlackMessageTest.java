@@ -0,0 +1,145 @@
+package org.graylog2.plugins.slack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugins.slack.blocks.Block;
+import org.graylog2.plugins.slack.blocks.ContextBlock;
+import org.graylog2.plugins.slack.blocks.DividerBlock;
+import org.graylog2.plugins.slack.blocks.SectionBlock;
+import org.graylog2.plugins.slack.blocks.TextObject;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SlackMessageTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void serializesSenderSettingsAndText() throws Exception {
+        final SlackMessage.Prototype prototype = new SlackMessage.Prototype("#FF0000", "ghost", "http://example.com/icon.png",
+                "Graylog", "#channel", true);
+
+        final JsonNode json = objectMapper.readTree(prototype.newMessage("Hello \"Slack\" ✓").getJsonString());
+
+        assertEquals("#channel", json.get("channel").asText());
+        assertEquals("Graylog", json.get("username").asText());
+        assertEquals("http://example.com/icon.png", json.get("icon_url").asText());
+        assertEquals(":ghost:", json.get("icon_emoji").asText());
+        assertTrue(json.get("link_names").asBoolean());
+        assertEquals("Hello \"Slack\" ✓", json.get("text").asText());
+        assertFalse(json.has("attachments"));
+    }
+
+    @Test
+    public void omitsEmptySenderSettings() throws Exception {
+        final SlackMessage message = new SlackMessage("#FF0000", null, "", "text", null, "#channel", false);
+
+        final JsonNode json = objectMapper.readTree(message.getJsonBytes());
+
+        assertFalse(json.has("username"));
+        assertFalse(json.has("icon_url"));
+        assertFalse(json.has("icon_emoji"));
+        assertFalse(json.get("link_names").asBoolean());
+    }
+
+    @Test
+    public void serializesAttachments() throws Exception {
+        final SlackMessage message = new SlackMessage("#00FF00", null, null, "text", "Graylog", "#channel", true);
+        message.setCustomMessage("custom");
+        message.addDetailsAttachmentField(new SlackMessage.AttachmentField("Source", "example.org", true));
+
+        final JsonNode attachments = objectMapper.readTree(message.getJsonString()).get("attachments");
+
+        assertEquals(2, attachments.size());
+        assertEquals("custom", attachments.get(0).get("text").asText());
+        assertEquals("#00FF00", attachments.get(0).get("color").asText());
+        assertEquals("Source", attachments.get(1).get("fields").get(0).get("title").asText());
+        assertTrue(attachments.get(1).get("fields").get(0).get("short").asBoolean());
+    }
+
+    @Test
+    public void compactMessagesSerializeTheSame() throws Exception {
+        final SlackMessage message = new SlackMessage("#00FF00", null, null, "text", "Graylog", "#channel", true);
+        message.setCustomMessage("custom");
+        for (int i = 0; i < 5; i++) {
+            message.addDetailsAttachmentField(new SlackMessage.AttachmentField("Field " + i, "value " + i, i % 2 == 0));
+        }
+        message.addBlock(new SectionBlock(TextObject.markdown("*title*")));
+        message.addBlock(DividerBlock.INSTANCE);
+        final String json = message.getJsonString();
+        final long retainedBytes = message.retainedBytes();
+
+        assertSame(message, message.compact());
+        assertEquals(json, message.getJsonString());
+        assertEquals(5, message.getDetailFields().size());
+        assertTrue(message.retainedBytes() < retainedBytes);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void compactMessagesCannotBeChanged() {
+        final SlackMessage message = new SlackMessage("#00FF00", null, null, "text", "Graylog", "#channel", true);
+        message.compact().addDetailsAttachmentField(new SlackMessage.AttachmentField("Source", "example.org", true));
+    }
+
+    @Test
+    public void prototypeIsSharedBetweenMessages() throws Exception {
+        final SlackMessage.Prototype prototype = new SlackMessage.Prototype("#FF0000", null, null, "Graylog", "#channel", true);
+
+        final SlackMessage first = prototype.newMessage("first");
+        final SlackMessage second = first.withMessage("second");
+
+        assertEquals("second", objectMapper.readTree(second.getJsonString()).get("text").asText());
+        assertEquals(first.getChannel(), second.getChannel());
+    }
+
+    @Test
+    public void serializesBlocks() throws Exception {
+        final SlackMessage message = new SlackMessage("#00FF00", null, null, "fallback", "Graylog", "#channel", true);
+        message.addBlock(new SectionBlock(TextObject.markdown("*title*")));
+        message.addBlock(DividerBlock.INSTANCE);
+        message.addBlock(new SectionBlock(null, ImmutableList.of(TextObject.markdown("a"), TextObject.plain("b"))));
+        message.addBlock(new ContextBlock(TextObject.plain("example.org")));
+
+        final JsonNode json = objectMapper.readTree(message.getJsonString());
+        final JsonNode blocks = json.get("blocks");
+
+        assertEquals("fallback", json.get("text").asText());
+        assertEquals(4, blocks.size());
+        assertEquals("section", blocks.get(0).get("type").asText());
+        assertEquals("mrkdwn", blocks.get(0).get("text").get("type").asText());
+        assertEquals("*title*", blocks.get(0).get("text").get("text").asText());
+        assertEquals("divider", blocks.get(1).get("type").asText());
+        assertFalse(blocks.get(2).has("text"));
+        assertEquals("plain_text", blocks.get(2).get("fields").get(1).get("type").asText());
+        assertEquals("example.org", blocks.get(3).get("elements").get(0).get("text").asText());
+        assertFalse(json.has("attachments"));
+    }
+
+    @Test
+    public void enforcesBlockLimits() throws Exception {
+        final SlackMessage message = new SlackMessage("#00FF00", null, null, "text", "Graylog", "#channel", true);
+        for (int i = 0; i < Block.MAX_BLOCKS_PER_MESSAGE; i++) {
+            assertTrue(message.addBlock(DividerBlock.INSTANCE));
+        }
+        assertFalse(message.addBlock(DividerBlock.INSTANCE));
+
+        final SectionBlock section = new SectionBlock(TextObject.markdown(Strings.repeat("x", 5000)));
+        assertEquals(SectionBlock.MAX_TEXT_LENGTH, section.getText().getText().length());
+
+        final ImmutableList.Builder<TextObject> fields = ImmutableList.builder();
+        for (int i = 0; i < 25; i++) {
+            fields.add(TextObject.plain("field " + i));
+        }
+        final List<SectionBlock> sections = SectionBlock.ofFields(fields.build());
+        assertEquals(3, sections.size());
+        assertEquals(SectionBlock.MAX_FIELDS, sections.get(0).getFields().size());
+        assertEquals(5, sections.get(2).getFields().size());
+    }
+}
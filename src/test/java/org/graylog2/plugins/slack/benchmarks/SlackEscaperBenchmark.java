@@ -0,0 +1,71 @@
+package org.graylog2.plugins.slack.benchmarks;
+
+import org.graylog2.plugins.slack.SlackEscaper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of escaping typical log lines on the write path.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.graylog2.plugins.slack.benchmarks.SlackEscaperBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SlackEscaperBenchmark {
+
+    @Param({
+            "127.0.0.1 - - [10/Oct/2017:13:55:36 +0200] \"GET /index.html HTTP/1.1\" 200 2326 \"-\" \"curl/7.54.0\"",
+            "ERROR [Worker-3] Query failed: SELECT * FROM users WHERE id > 10 AND name <> '' && active = 1"
+    })
+    public String line;
+
+    private StringBuilder sb;
+
+    @Setup
+    public void setUp() {
+        sb = new StringBuilder(256);
+    }
+
+    @Benchmark
+    public String baseline() {
+        return line;
+    }
+
+    @Benchmark
+    public String escape() {
+        return SlackEscaper.escape(line);
+    }
+
+    @Benchmark
+    public int appendEscaped() {
+        sb.setLength(0);
+        return SlackEscaper.appendEscaped(sb, line).length();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(SlackEscaperBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,244 @@
+package org.graylog2.plugins.slack.benchmarks;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.RateLimiter;
+import org.bson.types.ObjectId;
+import org.graylog2.alerts.AbstractAlertCondition;
+import org.graylog2.alerts.types.DummyAlertCondition;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageSummary;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.alarms.AlertCondition;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.streams.Output;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.plugin.streams.StreamRule;
+import org.graylog2.plugins.slack.callback.SlackAlarmCallback;
+import org.graylog2.plugins.slack.dispatch.QueueSaturatedException;
+import org.graylog2.plugins.slack.dispatch.SlackDispatcher;
+import org.graylog2.plugins.slack.dispatch.SlackDispatchers;
+import org.graylog2.plugins.slack.output.SlackMessageOutput;
+import org.graylog2.plugins.slack.output.TestOutputs;
+import org.graylog2.plugins.slack.simulator.SlackWebhookSimulator;
+import org.graylog2.plugins.slack.stats.DeliveryStatistics;
+import org.graylog2.plugins.slack.stats.DeliveryStats;
+import org.graylog2.streams.StreamImpl;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives a message output and an alarm callback against a {@link SlackWebhookSimulator} and reports throughput,
+ * delivery latency, drops and heap usage. Nothing leaves the machine.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.graylog2.plugins.slack.benchmarks.SlackLoadGenerator}. The load is set with system properties:
+ * <ul>
+ * <li>{@code slack.load.duration}: seconds to run (30)</li>
+ * <li>{@code slack.load.messageRate}: messages per second written to the output (100)</li>
+ * <li>{@code slack.load.batchSize}: messages per {@code write(List)} call (10)</li>
+ * <li>{@code slack.load.alertRate}: alerts per second raised through the alarm callback (0.5)</li>
+ * <li>{@code slack.load.latency}: milliseconds the simulated webhook takes to answer (50)</li>
+ * <li>{@code slack.load.rateLimitRate}: share of posts answered with 429 (0.02)</li>
+ * <li>{@code slack.load.errorRate}: share of posts answered with 500 (0.01)</li>
+ * <li>{@code slack.load.seed}: seed for the simulated failures (42)</li>
+ * </ul>
+ */
+public class SlackLoadGenerator {
+
+    private static final long HEAP_SAMPLE_MILLIS = 100;
+
+    private final long durationMillis;
+    private final double messageRate;
+    private final int batchSize;
+    private final double alertRate;
+    private final SlackWebhookSimulator simulator;
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong saturated = new AtomicLong();
+    private final AtomicLong alerts = new AtomicLong();
+    private final AtomicLong failedAlerts = new AtomicLong();
+    private final AtomicLong peakHeap = new AtomicLong();
+    private volatile boolean done;
+
+    public SlackLoadGenerator(long durationMillis, double messageRate, int batchSize, double alertRate,
+                              SlackWebhookSimulator simulator) {
+        this.durationMillis = durationMillis;
+        this.messageRate = messageRate;
+        this.batchSize = batchSize;
+        this.alertRate = alertRate;
+        this.simulator = simulator;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final long duration = TimeUnit.SECONDS.toMillis(Long.getLong("slack.load.duration", 30L));
+        final double messageRate = Double.parseDouble(System.getProperty("slack.load.messageRate", "100"));
+        final int batchSize = Integer.getInteger("slack.load.batchSize", 10);
+        final double alertRate = Double.parseDouble(System.getProperty("slack.load.alertRate", "0.5"));
+
+        try (SlackWebhookSimulator simulator = new SlackWebhookSimulator(new Random(Long.getLong("slack.load.seed", 42L)))
+                .latency(Long.getLong("slack.load.latency", 50L))
+                .rateLimit(Double.parseDouble(System.getProperty("slack.load.rateLimitRate", "0.02")), 1)
+                .errors(Double.parseDouble(System.getProperty("slack.load.errorRate", "0.01")))
+                .discardPayloads()
+                .start()) {
+            new SlackLoadGenerator(duration, messageRate, batchSize, alertRate, simulator).run(System.out);
+        }
+    }
+
+    public void run(PrintStream out) throws Exception {
+        final Map<String, Object> source = new HashMap<>();
+        source.put("webhook_url", simulator.webhookUrl());
+        source.put("channel", "#load-test");
+        source.put("user_name", "Graylog");
+        source.put("color", "#FF0000");
+        source.put("add_details", true);
+        final Configuration configuration = new Configuration(source);
+
+        final Stream stream = new StreamImpl(new ObjectId(),
+                ImmutableMap.<String, Object>of("title", "Load test", "description", "Generated messages"),
+                Collections.<StreamRule>emptyList(), Collections.<Output>emptySet());
+        final TestOutputs outputs = new TestOutputs(Files.createTempDirectory("slack-load"));
+        final SlackDispatchers dispatchers = outputs.dispatchers;
+        final DeliveryStatistics statistics = outputs.statistics;
+        final SlackMessageOutput output = outputs.create(stream, configuration);
+
+        System.gc();
+        final long baselineHeap = memory.getHeapMemoryUsage().getUsed();
+        peakHeap.set(baselineHeap);
+
+        final long started = System.nanoTime();
+        final List<Thread> threads = new ArrayList<>();
+        threads.add(start("slack-load-messages", new Runnable() {
+            @Override
+            public void run() {
+                writeMessages(output);
+            }
+        }));
+        if (alertRate > 0) {
+            threads.add(start("slack-load-alerts", new Runnable() {
+                @Override
+                public void run() {
+                    raiseAlerts(stream, configuration, dispatchers, statistics);
+                }
+            }));
+        }
+        threads.add(start("slack-load-heap", new Runnable() {
+            @Override
+            public void run() {
+                sampleHeap();
+            }
+        }));
+
+        Thread.sleep(durationMillis);
+        done = true;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        final double seconds = (System.nanoTime() - started) / 1e9d;
+        // Gives the queue the configured shutdown timeout to drain, leftovers are counted as saved.
+        output.stop();
+
+        final SlackDispatcher dispatcher = dispatchers.forConfiguration(configuration);
+        out.printf("Ran for %.1f s%n", seconds);
+        out.printf("Messages written: %d (%.1f/s), rejected write calls: %d%n", written.get(), written.get() / seconds, saturated.get());
+        out.printf("Alerts raised: %d, failed: %d%n", alerts.get(), failedAlerts.get());
+        out.printf("Webhook: %d accepted (%.1f/s), %d rate limited, %d failed%n", simulator.acceptedCount(),
+                simulator.acceptedCount() / seconds, simulator.rateLimitedCount(), simulator.failedCount());
+        out.printf("Dispatcher: %d dropped, %d rejected, %d retried, %d hedged%n", dispatcher.droppedCount(),
+                dispatcher.rejectedCount(), dispatcher.retriedCount(), dispatcher.hedgedCount());
+        for (Map.Entry<String, DeliveryStats.Summary> entry : statistics.summaries().entrySet()) {
+            out.printf("%s%n", entry.getKey());
+            print(out, "  end-to-end", entry.getValue().endToEnd);
+            print(out, "  queueing  ", entry.getValue().queueing);
+        }
+        out.printf("Heap: %d MB before, %d MB peak, %d MB after%n", toMegabytes(baselineHeap),
+                toMegabytes(peakHeap.get()), toMegabytes(memory.getHeapMemoryUsage().getUsed()));
+    }
+
+    private void writeMessages(SlackMessageOutput output) {
+        final RateLimiter limiter = RateLimiter.create(messageRate / batchSize);
+        long sequence = 0;
+        while (!done) {
+            limiter.acquire();
+            final List<Message> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize; i++) {
+                final Message message = new Message("Load test message " + sequence++, "load-generator", Tools.nowUTC());
+                message.addField("level", (int) (sequence % 8));
+                message.addField("facility", "slack-load");
+                batch.add(message);
+            }
+            try {
+                output.write(batch);
+                written.addAndGet(batch.size());
+            } catch (QueueSaturatedException e) {
+                saturated.incrementAndGet();
+            }
+        }
+    }
+
+    private void raiseAlerts(Stream stream, Configuration configuration, SlackDispatchers dispatchers,
+                             DeliveryStatistics statistics) {
+        final RateLimiter limiter = RateLimiter.create(alertRate);
+        final AlertCondition condition = new DummyAlertCondition(stream, new ObjectId().toHexString(), Tools.nowUTC(),
+                "admin", ImmutableMap.<String, Object>of("backlog", 5, "grace", 0));
+        while (!done) {
+            limiter.acquire();
+            final List<MessageSummary> backlog = new ArrayList<>(5);
+            for (int i = 0; i < 5; i++) {
+                backlog.add(new MessageSummary("graylog_0", new Message("Backlog message " + i, "load-generator", Tools.nowUTC())));
+            }
+            try {
+                // Graylog creates a new callback for every alert.
+                final SlackAlarmCallback callback = new SlackAlarmCallback(dispatchers, statistics);
+                callback.initialize(configuration);
+                callback.call(stream, new AbstractAlertCondition.CheckResult(true, condition, "Load test alert",
+                        Tools.nowUTC(), backlog));
+                alerts.incrementAndGet();
+            } catch (Exception e) {
+                failedAlerts.incrementAndGet();
+            }
+        }
+    }
+
+    private void sampleHeap() {
+        while (!done) {
+            final long used = memory.getHeapMemoryUsage().getUsed();
+            if (used > peakHeap.get()) {
+                peakHeap.set(used);
+            }
+            try {
+                Thread.sleep(HEAP_SAMPLE_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static Thread start(String name, Runnable runnable) {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void print(PrintStream out, String label, DeliveryStats.LatencySummary summary) {
+        out.printf("%s: %d delivered, p50 %d ms, p90 %d ms, p99 %d ms, max %d ms%n",
+                label, summary.count, summary.p50, summary.p90, summary.p99, summary.max);
+    }
+
+    private static long toMegabytes(long bytes) {
+        return bytes / (1024 * 1024);
+    }
+}
@@ -0,0 +1,95 @@
+package org.graylog2.plugins.slack.callback;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageSummary;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BacklogAggregatorTest {
+
+    private static final DateTime START = new DateTime(2016, 5, 1, 12, 0, DateTimeZone.UTC);
+
+    @Test
+    public void countsMessagesAndTheirTimeRange() {
+        final BacklogAggregator.Aggregates aggregates = new BacklogAggregator(ImmutableList.of("source", "level"), 2)
+                .aggregate(ImmutableList.of(
+                        message("web-01", 1, 3),
+                        message("web-02", 0, null),
+                        message("web-01", 2, 3)));
+
+        assertEquals(3, aggregates.getCount());
+        assertEquals(START, aggregates.getFirstTimestamp());
+        assertEquals(START.plusMinutes(2), aggregates.getLastTimestamp());
+
+        final BacklogAggregator.FieldAggregate source = aggregates.getFields().get("source");
+        assertEquals(3, source.getCount());
+        assertTrue(source.isExact());
+        assertEquals("web-01 (2), web-02 (1)", source.toString());
+        assertEquals(2, aggregates.getFields().get("level").getCount());
+        assertEquals("3 (2)", aggregates.getFields().get("level").toString());
+    }
+
+    @Test
+    public void findsFrequentValuesAmongManyRareOnes() {
+        final List<MessageSummary> messages = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            messages.add(message(i % 10 == 0 ? "noisy" : "host-" + i, 0, null));
+            if (i % 20 == 0) {
+                messages.add(message("busy", 0, null));
+            }
+        }
+
+        final BacklogAggregator.FieldAggregate source = new BacklogAggregator(ImmutableList.of("source"), 3)
+                .aggregate(messages).getFields().get("source");
+
+        assertFalse(source.isExact());
+        final BacklogAggregator.ValueCount top = source.getTop().get(0);
+        assertEquals("noisy", top.getValue());
+        assertTrue(top.getCount() - top.getError() <= 1000 && top.getCount() >= 1000);
+        assertEquals("busy", source.getTop().get(1).getValue());
+        assertTrue(source.getTop().get(2).toString().contains("(~"));
+    }
+
+    @Test
+    public void truncatesLongValues() {
+        final BacklogAggregator.FieldAggregate source = new BacklogAggregator(ImmutableList.of("source"), 1)
+                .aggregate(ImmutableList.of(message(Strings.repeat("x", 1000), 0, null))).getFields().get("source");
+
+        assertEquals(BacklogAggregator.MAX_VALUE_LENGTH, source.getTop().get(0).getValue().length());
+    }
+
+    @Test
+    public void aggregatesNoMessages() {
+        final BacklogAggregator.Aggregates aggregates = new BacklogAggregator(ImmutableList.of("source"), 5)
+                .aggregate(ImmutableList.<MessageSummary>of());
+
+        assertEquals(0, aggregates.getCount());
+        assertNull(aggregates.getFirstTimestamp());
+        assertTrue(aggregates.getFields().get("source").getTop().isEmpty());
+    }
+
+    @Test
+    public void parsesFieldLists() {
+        assertEquals(ImmutableList.of("source", "level"), BacklogAggregator.parseFieldList(" source, ,level "));
+        assertTrue(BacklogAggregator.parseFieldList(null).isEmpty());
+    }
+
+    private static MessageSummary message(String source, int minutes, Integer level) {
+        final Message message = new Message("text", source, START.plusMinutes(minutes));
+        if (level != null) {
+            message.addField("level", level);
+        }
+        return new MessageSummary("graylog_0", message);
+    }
+}
@@ -0,0 +1,85 @@
+package org.graylog2.plugins.slack.callback;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import org.graylog2.plugin.Message;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class BacklogExporterTest {
+
+    private static final DateTime TIMESTAMP = new DateTime(2016, 5, 1, 12, 0, DateTimeZone.UTC);
+
+    @Test
+    public void writesCsvWithQuotedValues() throws IOException {
+        final Message message = message("disk full, \"sda1\"", "web-01");
+        message.addField("bytes", 1024);
+
+        final String csv = export(new BacklogExporter(BacklogExporter.Format.CSV, "timestamp, source,message,bytes,missing"),
+                ImmutableList.of(message));
+
+        assertEquals("timestamp,source,message,bytes,missing\r\n"
+                + TIMESTAMP + ",web-01,\"disk full, \"\"sda1\"\"\",1024,\r\n", csv);
+    }
+
+    @Test
+    public void writesOneJsonDocumentPerLine() throws IOException {
+        final Message message = message("first", "web-01");
+        message.addField("bytes", 1024);
+
+        final String ndjson = export(new BacklogExporter(BacklogExporter.Format.NDJSON, "source,message,bytes,missing"),
+                ImmutableList.of(message, message("second\nline", "web-02")));
+
+        assertEquals("{\"source\":\"web-01\",\"message\":\"first\",\"bytes\":1024}\n"
+                + "{\"source\":\"web-02\",\"message\":\"second\\nline\"}\n", ndjson);
+    }
+
+    @Test
+    public void writesDefaultFields() throws IOException {
+        final String csv = export(new BacklogExporter(BacklogExporter.Format.CSV, " "), ImmutableList.of(message("text", "web-01")));
+
+        assertEquals("timestamp,source,message\r\n" + TIMESTAMP + ",web-01,text\r\n", csv);
+    }
+
+    @Test
+    public void parsesFormats() {
+        assertNull(BacklogExporter.Format.parse(null));
+        assertNull(BacklogExporter.Format.parse("none"));
+        assertEquals(BacklogExporter.Format.NDJSON, BacklogExporter.Format.parse("ndjson"));
+    }
+
+    @Test
+    public void exportsLargeBacklogs() throws IOException {
+        final ImmutableList.Builder<Message> backlog = ImmutableList.builder();
+        for (int i = 0; i < 10000; i++) {
+            backlog.add(message("message " + i, "web-01"));
+        }
+
+        final String csv = export(new BacklogExporter(BacklogExporter.Format.CSV, "message"), backlog.build());
+
+        assertEquals(10001, csv.split("\r\n").length);
+    }
+
+    private static Message message(String text, String source) {
+        return new Message(text, source, TIMESTAMP);
+    }
+
+    private static String export(BacklogExporter exporter, List<Message> messages) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exporter.export(messages, out);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            return new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.graylog2.plugins.slack.callback;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Tools;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class BacklogSummarizerTest {
+
+    @Test
+    public void masksWordsWithDigits() {
+        assertEquals("Connection to <*> failed after <*> ms (request <*>)",
+                BacklogSummarizer.normalize("Connection to 10.0.0.12:5432 failed after 3001 ms (request 4f9c2e10-aa1b)", 200));
+        assertEquals("User admin logged in at <*>",
+                BacklogSummarizer.normalize("User admin logged in at 2017-10-10T13:55:36.123Z", 200));
+        assertEquals("", BacklogSummarizer.normalize(null, 200));
+    }
+
+    @Test
+    public void truncatesLongPatterns() {
+        assertEquals("abc d", BacklogSummarizer.normalize("abc def ghi", 5));
+        assertEquals("a <*>", BacklogSummarizer.normalize("a 1234567 b", 5));
+    }
+
+    @Test
+    public void clustersSimilarMessagesLargestFirst() {
+        final BacklogSummarizer.Summary summary = new BacklogSummarizer(10, 200).summarize(ImmutableList.of(
+                message("Disk full on /dev/sda1"),
+                message("Timeout after 30 s for job 17"),
+                message("Timeout after 31 s for job 18"),
+                message("Timeout after 29 s for job 19")));
+
+        final List<BacklogSummarizer.Cluster> clusters = summary.getClusters();
+        assertEquals(2, clusters.size());
+        assertEquals("Timeout after <*> s for job <*>", clusters.get(0).getPattern());
+        assertEquals(3, clusters.get(0).getCount());
+        assertEquals("Timeout after 30 s for job 17", clusters.get(0).getExample().getMessage());
+        assertEquals(1, clusters.get(1).getCount());
+        assertEquals(0, summary.getUnclustered());
+    }
+
+    @Test
+    public void countsMessagesBeyondTheClusterLimit() {
+        final BacklogSummarizer.Summary summary = new BacklogSummarizer(1, 200).summarize(ImmutableList.of(
+                message("first 1"),
+                message("second"),
+                message("first 2"),
+                message("third")));
+
+        assertEquals(1, summary.getClusters().size());
+        assertEquals(2, summary.getClusters().get(0).getCount());
+        assertEquals(2, summary.getUnclustered());
+    }
+
+    private static Message message(String text) {
+        return new Message(text, "source", Tools.nowUTC());
+    }
+}
@@ -1,19 +1,35 @@
 package org.graylog2.plugins.slack.callback;
 
+import com.codahale.metrics.MetricRegistry;
 import com.floreysoft.jmte.Engine;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
+import org.bson.types.ObjectId;
+import org.graylog2.alerts.AbstractAlertCondition;
+import org.graylog2.alerts.types.DummyAlertCondition;
+import org.graylog2.plugin.MessageSummary;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.alarms.AlertCondition;
 import org.graylog2.plugin.alarms.callbacks.AlarmCallbackConfigurationException;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.configuration.ConfigurationException;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.plugins.slack.dispatch.SlackDispatchers;
+import org.graylog2.plugins.slack.output.TestOutputs;
+import org.graylog2.plugins.slack.simulator.SlackWebhookSimulator;
+import org.graylog2.plugins.slack.stats.DeliveryStatistics;
+import org.graylog2.plugins.slack.stats.DeliveryStats;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.CoreMatchers.hasItems;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 public class SlackAlarmCallbackTest {
     private static final ImmutableMap<String, Object> VALID_CONFIG_SOURCE = ImmutableMap.<String, Object>builder()
@@ -118,6 +134,36 @@ public class SlackAlarmCallbackTest {
         alarmCallback.initialize(validConfigurationWithValue("proxy_address", "vpn://127.0.0.1"));
     }
 
+    @Test
+    public void callCountsAlertRefusedBySlackWithoutWaiting() throws Exception {
+        final SlackWebhookSimulator simulator = new SlackWebhookSimulator().errors(1.0d).start();
+        try {
+            final Map<String, Object> source = Maps.newHashMap(VALID_CONFIG_SOURCE);
+            source.put("webhook_url", simulator.webhookUrl());
+            source.put("max_attempts", 3);
+            final DeliveryStatistics statistics = new DeliveryStatistics(new MetricRegistry());
+            final SlackAlarmCallback callback = new SlackAlarmCallback(new SlackDispatchers(), statistics);
+            callback.initialize(new Configuration(source));
+
+            final Stream stream = TestOutputs.stream();
+            final AlertCondition condition = new DummyAlertCondition(stream, new ObjectId().toHexString(), Tools.nowUTC(),
+                    "admin", ImmutableMap.<String, Object>of());
+            final long started = System.nanoTime();
+            callback.call(stream, new AbstractAlertCondition.CheckResult(true, condition, "Refused",
+                    Tools.nowUTC(), Collections.<MessageSummary>emptyList()));
+            // Retries back off for seconds, the alert scanner doesn't wait for them.
+            assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(500));
+
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (failures(statistics) == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(failures(statistics) > 0);
+        } finally {
+            simulator.close();
+        }
+    }
+
     @Test
     public void testGetRequestedConfiguration() {
         assertThat(alarmCallback.getRequestedConfiguration().asList().keySet(),
@@ -125,6 +171,15 @@ public class SlackAlarmCallbackTest {
                         "icon_url", "icon_emoji", "graylog2_url", "color"));
     }
 
+    private static long failures(DeliveryStatistics statistics) {
+        long failures = 0;
+        for (DeliveryStats.Summary summary : statistics.summaries().values()) {
+            final Long count = summary.failures.get("500");
+            failures += count == null ? 0 : count;
+        }
+        return failures;
+    }
+
     private Configuration validConfigurationWithout(final String key) {
         return new Configuration(Maps.filterEntries(VALID_CONFIG_SOURCE, new Predicate<Map.Entry<String, Object>>() {
             @Override
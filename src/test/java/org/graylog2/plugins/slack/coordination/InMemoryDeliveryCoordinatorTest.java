@@ -0,0 +1,35 @@
+package org.graylog2.plugins.slack.coordination;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InMemoryDeliveryCoordinatorTest {
+    private final InMemoryDeliveryCoordinator coordinator = new InMemoryDeliveryCoordinator();
+
+    @Test
+    public void limitsPermitsPerWindow() {
+        assertEquals(0L, coordinator.tryAcquire("webhook", 2, 0));
+        assertEquals(0L, coordinator.tryAcquire("webhook", 2, 0));
+        assertTrue(coordinator.tryAcquire("webhook", 2, 0) > 0);
+        assertEquals(0L, coordinator.tryAcquire("other-webhook", 2, 0));
+    }
+
+    @Test
+    public void keepsReservedPermits() {
+        assertEquals(0L, coordinator.tryAcquire("webhook", 2, 1));
+        assertTrue(coordinator.tryAcquire("webhook", 2, 1) > 0);
+        assertEquals(0L, coordinator.tryAcquire("webhook", 2, 0));
+    }
+
+    @Test
+    public void deduplicatesClaimedKeys() {
+        assertTrue(coordinator.claim("key"));
+        assertFalse(coordinator.claim("key"));
+
+        coordinator.release("key");
+        assertTrue(coordinator.claim("key"));
+    }
+}
@@ -0,0 +1,71 @@
+package org.graylog2.plugins.slack.coordination;
+
+import com.github.fakemongo.Fongo;
+import com.mongodb.DB;
+import com.mongodb.Mongo;
+import org.graylog2.database.MongoConnection;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MongoDeliveryCoordinatorTest {
+    private Fongo fongo;
+    private MongoDeliveryCoordinator node1;
+    private MongoDeliveryCoordinator node2;
+
+    @Before
+    public void setUp() {
+        fongo = new Fongo("slack-coordination");
+        node1 = new MongoDeliveryCoordinator(new FongoConnection(fongo));
+        node2 = new MongoDeliveryCoordinator(new FongoConnection(fongo));
+    }
+
+    @Test
+    public void sharesRateLimitBetweenNodes() {
+        assertEquals(0L, node1.tryAcquire("webhook", 3, 0));
+        assertEquals(0L, node2.tryAcquire("webhook", 3, 0));
+        assertEquals(0L, node1.tryAcquire("webhook", 3, 0));
+
+        final long waitMillis = node2.tryAcquire("webhook", 3, 0);
+        assertTrue(waitMillis > 0 && waitMillis <= DeliveryCoordinator.WINDOW_MILLIS);
+        assertEquals(0L, node2.tryAcquire("other-webhook", 3, 0));
+    }
+
+    @Test
+    public void keepsReservedPermits() {
+        assertEquals(0L, node1.tryAcquire("webhook", 3, 2));
+        assertTrue(node2.tryAcquire("webhook", 3, 2) > 0);
+        assertEquals(0L, node2.tryAcquire("webhook", 3, 0));
+    }
+
+    @Test
+    public void deduplicatesBetweenNodes() {
+        assertTrue(node1.claim("alert:1"));
+        assertFalse(node2.claim("alert:1"));
+        assertTrue(node2.claim("alert:2"));
+
+        node1.release("alert:1");
+        assertTrue(node2.claim("alert:1"));
+    }
+
+    private static class FongoConnection implements MongoConnection {
+        private final Fongo fongo;
+
+        private FongoConnection(Fongo fongo) {
+            this.fongo = fongo;
+        }
+
+        @Override
+        public Mongo connect() {
+            return fongo.getMongo();
+        }
+
+        @Override
+        public DB getDatabase() {
+            return fongo.getDB("graylog");
+        }
+    }
+}
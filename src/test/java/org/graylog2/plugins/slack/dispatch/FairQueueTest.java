@@ -0,0 +1,123 @@
+package org.graylog2.plugins.slack.dispatch;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FairQueueTest {
+
+    private final StreamUsage usage = new StreamUsage(Ticker.systemTicker());
+    private final FairQueue<String> queue = new FairQueue<>();
+
+    @Test
+    public void takesTurnsAmongStreams() {
+        final StreamShare noisy = new StreamShare("noisy", 1, 0);
+        final StreamShare quiet = new StreamShare("quiet", 1, 0);
+        for (int i = 0; i < 5; i++) {
+            queue.addLast("noisy-" + i, noisy);
+        }
+        queue.addLast("quiet-0", quiet);
+        queue.addLast("quiet-1", quiet);
+
+        assertEquals("[noisy-0, quiet-0, noisy-1, quiet-1, noisy-2, noisy-3, noisy-4]", drain().toString());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void servesStreamsInProportionToTheirWeights() {
+        final StreamShare heavy = new StreamShare("heavy", 3, 0);
+        final StreamShare light = new StreamShare("light", 1, 0);
+        for (int i = 0; i < 40; i++) {
+            queue.addLast("heavy", heavy);
+            queue.addLast("light", light);
+        }
+
+        int heavyServed = 0;
+        for (int i = 0; i < 40; i++) {
+            if (queue.pollFirst(usage).equals("heavy")) {
+                heavyServed++;
+            }
+        }
+        assertEquals(30, heavyServed);
+        assertEquals(0.75d, usage.share("heavy"), 0.01d);
+    }
+
+    @Test
+    public void guaranteesMinimumShares() {
+        final StreamShare heavy = new StreamShare("heavy", 100, 0);
+        final StreamShare guaranteed = new StreamShare("guaranteed", 1, 0.25d);
+        for (int i = 0; i < 40; i++) {
+            queue.addLast("heavy", heavy);
+            queue.addLast("guaranteed", guaranteed);
+        }
+
+        int guaranteedServed = 0;
+        for (int i = 0; i < 40; i++) {
+            if (queue.pollFirst(usage).equals("guaranteed")) {
+                guaranteedServed++;
+            }
+        }
+        assertEquals(10, guaranteedServed, 1);
+    }
+
+    @Test
+    public void requeuedElementsKeepTheirTurn() {
+        final StreamShare first = new StreamShare("first", 1, 0);
+        final StreamShare second = new StreamShare("second", 1, 0);
+        queue.addLast("first-0", first);
+        queue.addLast("first-1", first);
+        queue.addLast("second-0", second);
+
+        assertEquals("first-0", queue.peekFirst(usage));
+        queue.addFirst(queue.pollFirst(usage), first, usage);
+
+        assertEquals("[first-0, second-0, first-1]", drain().toString());
+        assertEquals(0.66d, usage.share("first"), 0.01d);
+    }
+
+    @Test
+    public void dropsFromTheLongestQueue() {
+        final StreamShare noisy = new StreamShare("noisy", 1, 0);
+        final StreamShare quiet = new StreamShare("quiet", 1, 0);
+        queue.addLast("quiet-0", quiet);
+        queue.addLast("noisy-0", noisy);
+        queue.addLast("noisy-1", noisy);
+
+        assertEquals("noisy-0", queue.pollVictim());
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void removesElementsWhileIterating() {
+        final StreamShare a = new StreamShare("a", 1, 0);
+        final StreamShare b = new StreamShare("b", 1, 0);
+        queue.addLast("a-0", a);
+        queue.addLast("b-0", b);
+        queue.addLast("a-1", a);
+
+        for (Iterator<String> it = queue.iterator(); it.hasNext(); ) {
+            if (it.next().startsWith("b")) {
+                it.remove();
+            }
+        }
+
+        assertEquals(2, queue.size());
+        assertEquals("[a-0, a-1]", drain().toString());
+        assertNull(queue.pollFirst(usage));
+    }
+
+    private List<String> drain() {
+        final List<String> drained = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            drained.add(queue.pollFirst(usage));
+        }
+        return drained;
+    }
+}
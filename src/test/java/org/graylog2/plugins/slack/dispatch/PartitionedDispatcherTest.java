@@ -0,0 +1,200 @@
+package org.graylog2.plugins.slack.dispatch;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugins.slack.SlackClient;
+import org.graylog2.plugins.slack.SlackMessage;
+import org.graylog2.plugins.slack.coordination.DeliveryCoordinator;
+import org.graylog2.plugins.slack.coordination.InMemoryDeliveryCoordinator;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionedDispatcherTest {
+
+    private static final long MAX_WAIT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    @Test
+    public void keepsOrderOfChannelsUnderConcurrentWriters() throws Exception {
+        final RecordingClient client = new RecordingClient(null);
+        final PartitionedDispatcher dispatcher = partitioned(client, 4, PartitionedDispatcher.DEFAULT_REBALANCE_THRESHOLD);
+        final int writers = 4;
+        final int batches = 50;
+        final int batchSize = 10;
+        final int channels = 8;
+
+        final List<ListenableFuture<Void>> futures = new CopyOnWriteArrayList<>();
+        final List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            final int writer = w;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final Random random = new Random(writer);
+                    final int[] sequences = new int[channels];
+                    for (int b = 0; b < batches; b++) {
+                        // Like a write(List<Message>) call, a batch of messages for random channels.
+                        for (int i = 0; i < batchSize; i++) {
+                            final int channel = random.nextInt(channels);
+                            final String text = writer + ":" + sequences[channel]++;
+                            try {
+                                futures.add(dispatcher.offer("#channel-" + channel, Priority.BULK, plain("#channel-" + channel, text),
+                                        null, null, 0L, MAX_WAIT_NANOS));
+                            } catch (QueueSaturatedException e) {
+                                throw new AssertionError(e);
+                            }
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Futures.allAsList(futures).get(10, TimeUnit.SECONDS);
+
+        int delivered = 0;
+        for (Map.Entry<String, List<String>> channel : client.sent.entrySet()) {
+            final int[] expected = new int[writers];
+            for (String text : channel.getValue()) {
+                final String[] parts = text.split(":");
+                final int writer = Integer.parseInt(parts[0]);
+                assertEquals(channel.getKey() + " out of order", expected[writer]++, Integer.parseInt(parts[1]));
+                delivered++;
+            }
+        }
+        assertEquals(writers * batches * batchSize, delivered);
+    }
+
+    @Test
+    public void movesNewChannelsOffHotPartitions() throws Exception {
+        final RecordingClient client = new RecordingClient(new CountDownLatch(1));
+        final PartitionedDispatcher dispatcher = partitioned(client, 2, 5);
+        final int hot = dispatcher.homePartition("#hot");
+
+        final List<ListenableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            futures.add(dispatcher.offer("#hot", Priority.ALERT, plain("#hot", "hot:" + i), null, null, 0L, MAX_WAIT_NANOS));
+        }
+        client.awaitSending();
+
+        String cold = null;
+        for (int i = 0; cold == null; i++) {
+            if (dispatcher.homePartition("#cold-" + i) == hot) {
+                cold = "#cold-" + i;
+            }
+        }
+        futures.add(dispatcher.offer(cold, Priority.ALERT, plain(cold, "cold:0"), null, null, 0L, MAX_WAIT_NANOS));
+        assertNotEquals(hot, (int) dispatcher.partitionOf(cold));
+        assertEquals(1, dispatcher.rebalancedCount());
+
+        // The hot channel has messages in flight, so it can't move without breaking their order.
+        futures.add(dispatcher.offer("#hot", Priority.ALERT, plain("#hot", "hot:7"), null, null, 0L, MAX_WAIT_NANOS));
+        assertEquals(hot, (int) dispatcher.partitionOf("#hot"));
+
+        client.release();
+        Futures.allAsList(futures).get(5, TimeUnit.SECONDS);
+        awaitReleased(dispatcher, "#hot");
+        awaitReleased(dispatcher, cold);
+        assertEquals(Collections.singletonList("cold:0"), client.sent.get(cold));
+    }
+
+    @Test
+    public void withdrawsFromAnyPartition() throws Exception {
+        final RecordingClient client = new RecordingClient(new CountDownLatch(1));
+        final PartitionedDispatcher dispatcher = partitioned(client, 2, PartitionedDispatcher.DEFAULT_REBALANCE_THRESHOLD);
+
+        final ListenableFuture<Void> sending = dispatcher.offer("#a", Priority.ALERT, plain("#a", "first"), null, null, 0L, MAX_WAIT_NANOS);
+        client.awaitSending();
+        final ListenableFuture<Void> queued = dispatcher.offer("#a", Priority.ALERT, plain("#a", "second"), null, null, 0L, MAX_WAIT_NANOS);
+
+        assertTrue(dispatcher.withdraw(queued));
+        assertTrue(queued.isCancelled());
+        client.release();
+        sending.get(5, TimeUnit.SECONDS);
+        awaitReleased(dispatcher, "#a");
+    }
+
+    /**
+     * The partition is released by a callback of the future, which may run just after the future completed.
+     */
+    private static void awaitReleased(PartitionedDispatcher dispatcher, String channel) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (dispatcher.partitionOf(channel) != null && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertNull(dispatcher.partitionOf(channel));
+    }
+
+    private static PartitionedDispatcher partitioned(SlackClient client, int partitions, int rebalanceThreshold) {
+        final DeliveryCoordinator coordinator = new InMemoryDeliveryCoordinator();
+        final List<SlackDispatcher> dispatchers = new ArrayList<>();
+        for (int i = 0; i < partitions; i++) {
+            dispatchers.add(TestDispatchers.dispatcher(client, coordinator, 1000, 10000, Ticker.systemTicker()));
+        }
+        return new PartitionedDispatcher("webhook", dispatchers, rebalanceThreshold);
+    }
+
+    private static SlackMessage plain(String channel, String text) {
+        return new SlackMessage("#FF0000", null, null, text, "Graylog", channel, true);
+    }
+
+    private static class RecordingClient extends SlackClient {
+        private final ConcurrentMap<String, List<String>> sent = new ConcurrentHashMap<>();
+        private final CountDownLatch sending = new CountDownLatch(1);
+        private final CountDownLatch release;
+
+        RecordingClient(CountDownLatch release) {
+            super(new Configuration(ImmutableMap.<String, Object>of("webhook_url", "http://localhost/")));
+            this.release = release;
+        }
+
+        @Override
+        public boolean send(SlackMessage message, int timeoutMillis, WriteGate gate) throws SlackClientException {
+            sending.countDown();
+            if (release != null) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            List<String> channel = sent.get(message.getChannel());
+            if (channel == null) {
+                sent.putIfAbsent(message.getChannel(), new CopyOnWriteArrayList<String>());
+                channel = sent.get(message.getChannel());
+            }
+            // Bulk messages are coalesced into one post, line by line.
+            Collections.addAll(channel, message.getMessage().split("\n"));
+            return true;
+        }
+
+        void awaitSending() throws InterruptedException {
+            assertTrue(sending.await(1, TimeUnit.SECONDS));
+        }
+
+        void release() {
+            release.countDown();
+        }
+    }
+}
@@ -0,0 +1,570 @@
+package org.graylog2.plugins.slack.dispatch;
+
+import com.google.common.base.Strings;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugins.slack.SlackClient;
+import org.graylog2.plugins.slack.SlackMessage;
+import org.graylog2.plugins.slack.blocks.SectionBlock;
+import org.graylog2.plugins.slack.blocks.TextObject;
+import org.graylog2.plugins.slack.coordination.InMemoryDeliveryCoordinator;
+import org.junit.Test;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SlackDispatcherTest {
+
+    @Test
+    public void alertsOvertakeQueuedMessages() throws Exception {
+        final RecordingClient client = new RecordingClient(new CountDownLatch(1));
+        final SlackDispatcher dispatcher = dispatcher(client, 1000, 100, Ticker.systemTicker());
+        client.exempt.add("alert");
+
+        dispatcher.submit(Priority.BULK, withAttachment("bulk-1"));
+        client.awaitSending();
+        dispatcher.submit(Priority.BULK, withAttachment("bulk-2"));
+        dispatcher.submit(Priority.HIGH, withAttachment("high"));
+        dispatcher.submit(Priority.ALERT, withAttachment("alert"));
+        assertEquals("alert", client.next());
+        client.release();
+
+        assertEquals("bulk-1", client.next());
+        assertEquals("high", client.next());
+        assertEquals("bulk-2", client.next());
+    }
+
+    @Test
+    public void alertsDoNotWaitForStalledPosts() throws Exception {
+        final RecordingClient client = new RecordingClient(new CountDownLatch(1));
+        final SlackDispatcher dispatcher = dispatcher(client, 1000, 100, Ticker.systemTicker());
+        dispatcher.shareSendPermits(new Semaphore(1));
+        client.exempt.add("alert");
+
+        dispatcher.submit(Priority.BULK, withAttachment("stalled"));
+        client.awaitSending();
+        final long started = System.nanoTime();
+        dispatcher.submit(Priority.ALERT, withAttachment("alert")).get(1, TimeUnit.SECONDS);
+        assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(1));
+        assertEquals("alert", client.next());
+        client.release();
+    }
+
+    @Test
+    public void postsToSeveralChannelsAtOnce() throws Exception {
+        final RecordingClient client = new RecordingClient(new CountDownLatch(1));
+        final SlackDispatcher dispatcher = dispatcher(client, 1000, 100, Ticker.systemTicker());
+
+        final ListenableFuture<Void> first = dispatcher.submit(Priority.HIGH, toChannel("#first", "first"));
+        final ListenableFuture<Void> second = dispatcher.submit(Priority.HIGH, toChannel("#second", "second"));
+        final ListenableFuture<Void> later = dispatcher.submit(Priority.HIGH, toChannel("#first", "later"));
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (client.inProgress.get() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        // The next message of the first channel waits for the post in progress.
+        Thread.sleep(100);
+        assertEquals(2, client.inProgress.get());
+
+        client.release();
+        first.get(1, TimeUnit.SECONDS);
+        second.get(1, TimeUnit.SECONDS);
+        later.get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void quietStreamsDoNotWaitForNoisyOnes() throws Exception {
+        final RecordingClient client = new RecordingClient(new CountDownLatch(1));
+        final SlackDispatcher dispatcher = dispatcher(client, 1000, 100, Ticker.systemTicker());
+        final StreamShare noisy = new StreamShare("noisy", 1, 0);
+        final StreamShare quiet = new StreamShare("quiet", 1, 0);
+
+        dispatcher.submit(Priority.BULK, withAttachment("noisy-0"), null, null, 0L, DeliveryPolicy.DEFAULT, noisy);
+        client.awaitSending();
+        for (int i = 1; i < 10; i++) {
+            dispatcher.submit(Priority.BULK, withAttachment("noisy-" + i), null, null, 0L, DeliveryPolicy.DEFAULT, noisy);
+        }
+        dispatcher.submit(Priority.BULK, withAttachment("quiet"), null, null, 0L, DeliveryPolicy.DEFAULT, quiet);
+        client.release();
+
+        assertEquals("noisy-0", client.next());
+        assertEquals("quiet", client.next());
+        assertEquals("noisy-1", client.next());
+        assertTrue(dispatcher.streamShare("noisy") > dispatcher.streamShare("quiet"));
+        assertTrue(dispatcher.summary().streamShares.containsKey("quiet"));
+    }
+
+    @Test
+    public void bulkMessagesCannotUseReservedCapacity() throws Exception {
+        final RecordingClient client = new RecordingClient(null);
+        final ManualTicker ticker = new ManualTicker();
+        final SlackDispatcher dispatcher = dispatcher(client, 1, 100, ticker);
+
+        dispatcher.submit(Priority.BULK, withAttachment("bulk-1"));
+        dispatcher.submit(Priority.BULK, withAttachment("bulk-2"));
+        assertEquals("bulk-1", client.next());
+        assertNull(client.sent.poll(200, TimeUnit.MILLISECONDS));
+
+        final ListenableFuture<Void> alert = dispatcher.submit(Priority.ALERT, withAttachment("alert"));
+        alert.get(1, TimeUnit.SECONDS);
+        assertEquals("alert", client.next());
+        assertEquals(1, dispatcher.queued(Priority.BULK));
+
+        ticker.advance(TimeUnit.SECONDS.toNanos(2));
+        dispatcher.submit(Priority.HIGH, withAttachment("nudge")).get(1, TimeUnit.SECONDS);
+        assertEquals("nudge", client.next());
+    }
+
+    @Test
+    public void coalescesQueuedBulkMessages() throws Exception {
+        final RecordingClient client = new RecordingClient(new CountDownLatch(1));
+        final SlackDispatcher dispatcher = dispatcher(client, 1000, 100, Ticker.systemTicker());
+
+        dispatcher.submit(Priority.BULK, plain("first"));
+        client.awaitSending();
+        dispatcher.submit(Priority.BULK, plain("second"));
+        final ListenableFuture<Void> third = dispatcher.submit(Priority.BULK, plain("third"));
+        client.release();
+        third.get(1, TimeUnit.SECONDS);
+
+        assertEquals("first", client.next());
+        assertEquals("second\nthird", client.next());
+    }
+
+    @Test
+    public void combinesBlocksOfQueuedMessages() throws Exception {
+        final RecordingClient client = new RecordingClient(new CountDownLatch(1));
+        final SlackDispatcher dispatcher = dispatcher(client, 1000, 100, Ticker.systemTicker());
+
+        dispatcher.submit(Priority.BULK, withBlock("first"));
+        client.awaitSending();
+        dispatcher.submit(Priority.BULK, withBlock("second"));
+        dispatcher.submit(Priority.BULK, withBlock("third"));
+        dispatcher.submit(Priority.BULK, withBlock("fourth"));
+        final ListenableFuture<Void> plain = dispatcher.submit(Priority.BULK, plain("plain"));
+        client.release();
+        plain.get(1, TimeUnit.SECONDS);
+
+        assertEquals("first", client.next());
+        assertEquals("second (+2 more)", client.next());
+        assertEquals("plain", client.next());
+        assertEquals(Arrays.asList(1, 3, 0), new ArrayList<>(client.blockCounts));
+    }
+
+    @Test
+    public void limitsQueueByMemory() throws Exception {
+        final RecordingClient client = new RecordingClient(new CountDownLatch(1));
+        final SlackDispatcher dispatcher = dispatcher(client, 1000, 100, Ticker.systemTicker());
+        final SlackMessage large = withAttachment(Strings.repeat("x", 10000));
+        dispatcher.limitQueuedBytes(3 * large.retainedBytes());
+
+        dispatcher.submit(Priority.BULK, withAttachment("sending"));
+        client.awaitSending();
+        final ListenableFuture<Void> first = dispatcher.submit(Priority.BULK, large);
+        dispatcher.submit(Priority.BULK, withAttachment(Strings.repeat("y", 10000)));
+        dispatcher.submit(Priority.BULK, withAttachment(Strings.repeat("z", 10000)));
+        assertEquals(3, dispatcher.queued(Priority.BULK));
+
+        // Small messages still fit by number, but not by memory.
+        dispatcher.submit(Priority.BULK, withAttachment("small"));
+        assertDropped(first);
+        assertEquals(3, dispatcher.queued(Priority.BULK));
+        assertTrue(dispatcher.queuedBytes() < 3 * large.retainedBytes());
+
+        client.release();
+    }
+
+    @Test
+    public void dropsOldestLowerPriorityMessageWhenFull() throws Exception {
+        final RecordingClient client = new RecordingClient(new CountDownLatch(1));
+        final SlackDispatcher dispatcher = dispatcher(client, 1000, 2, Ticker.systemTicker());
+
+        dispatcher.submit(Priority.BULK, withAttachment("in-flight"));
+        client.awaitSending();
+        final ListenableFuture<Void> oldest = dispatcher.submit(Priority.BULK, withAttachment("oldest"));
+        final ListenableFuture<Void> newer = dispatcher.submit(Priority.BULK, withAttachment("newer"));
+        dispatcher.submit(Priority.HIGH, withAttachment("high-1"));
+        dispatcher.submit(Priority.HIGH, withAttachment("high-2"));
+        final ListenableFuture<Void> rejected = dispatcher.submit(Priority.BULK, withAttachment("rejected"));
+
+        assertDropped(oldest);
+        assertDropped(newer);
+        assertDropped(rejected);
+        assertEquals(0, dispatcher.queued(Priority.BULK));
+        assertEquals(2, dispatcher.queued(Priority.HIGH));
+        assertEquals(3, dispatcher.droppedCount());
+        client.release();
+    }
+
+    @Test
+    public void blocksUntilQueueHasRoom() throws Exception {
+        final RecordingClient client = new RecordingClient(new CountDownLatch(1));
+        final SlackDispatcher dispatcher = dispatcher(client, 1000, 1, Ticker.systemTicker());
+
+        dispatcher.offer(Priority.BULK, withAttachment("in-flight"), null, null, 0L, 0L);
+        client.awaitSending();
+        dispatcher.offer(Priority.BULK, withAttachment("queued"), null, null, 0L, 0L);
+
+        final long started = System.nanoTime();
+        try {
+            dispatcher.offer(Priority.BULK, withAttachment("rejected"), null, null, 0L, TimeUnit.MILLISECONDS.toNanos(50));
+            fail("Expected message to be rejected");
+        } catch (QueueSaturatedException expected) {
+            assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(50));
+        }
+        assertEquals(1, dispatcher.rejectedCount());
+        assertEquals(0, dispatcher.droppedCount());
+
+        final Thread releaser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ignored) {
+                }
+                client.release();
+            }
+        });
+        releaser.start();
+        dispatcher.offer(Priority.BULK, withAttachment("accepted"), null, null, 0L, TimeUnit.SECONDS.toNanos(5))
+                .get(1, TimeUnit.SECONDS);
+
+        assertEquals("in-flight", client.next());
+        assertEquals("queued", client.next());
+        assertEquals("accepted", client.next());
+    }
+
+    @Test
+    public void highPriorityOffersPushOutBulkMessages() throws Exception {
+        final RecordingClient client = new RecordingClient(new CountDownLatch(1));
+        final SlackDispatcher dispatcher = dispatcher(client, 1000, 1, Ticker.systemTicker());
+
+        dispatcher.offer(Priority.BULK, withAttachment("in-flight"), null, null, 0L, 0L);
+        client.awaitSending();
+        final ListenableFuture<Void> bulk = dispatcher.offer(Priority.BULK, withAttachment("bulk"), null, null, 0L, 0L);
+        dispatcher.offer(Priority.HIGH, withAttachment("high"), null, null, 0L, 0L);
+
+        assertDropped(bulk);
+        assertEquals(1, dispatcher.queued(Priority.HIGH));
+        client.release();
+    }
+
+    @Test
+    public void withdrawsQueuedNotifications() throws Exception {
+        final RecordingClient client = new RecordingClient(new CountDownLatch(1));
+        final SlackDispatcher dispatcher = dispatcher(client, 1000, 100, Ticker.systemTicker());
+
+        final ListenableFuture<Void> inFlight = dispatcher.submit(Priority.BULK, withAttachment("in-flight"));
+        client.awaitSending();
+        final ListenableFuture<Void> queued = dispatcher.submit(Priority.BULK, withAttachment("queued"), "message:1");
+
+        assertFalse(dispatcher.withdraw(inFlight));
+        assertTrue(dispatcher.withdraw(queued));
+        assertTrue(queued.isCancelled());
+        client.release();
+
+        assertEquals("in-flight", client.next());
+        dispatcher.submit(Priority.BULK, withAttachment("resubmitted"), "message:1").get(1, TimeUnit.SECONDS);
+        assertEquals("resubmitted", client.next());
+    }
+
+    @Test
+    public void skipsDuplicateNotifications() throws Exception {
+        final RecordingClient client = new RecordingClient(null);
+        final SlackDispatcher dispatcher = dispatcher(client, 1000, 100, Ticker.systemTicker());
+
+        dispatcher.submit(Priority.ALERT, withAttachment("first"), "alert:1").get(1, TimeUnit.SECONDS);
+        dispatcher.submit(Priority.ALERT, withAttachment("duplicate"), "alert:1").get(1, TimeUnit.SECONDS);
+        dispatcher.submit(Priority.ALERT, withAttachment("second"), "alert:2").get(1, TimeUnit.SECONDS);
+
+        assertEquals("first", client.next());
+        assertEquals("second", client.next());
+    }
+
+    @Test
+    public void retriesFailedPostsAfterBackoff() throws Exception {
+        final RecordingClient client = new RecordingClient(null);
+        final ManualTicker ticker = new ManualTicker();
+        final SlackDispatcher dispatcher = dispatcher(client, 1000, 100, ticker);
+        client.failures.set(1);
+
+        final ListenableFuture<Void> future = dispatcher.submit(Priority.ALERT, withAttachment("alert"), "alert:1",
+                null, 0L, new DeliveryPolicy(0, 3, 0));
+        assertNull(client.sent.poll(100, TimeUnit.MILLISECONDS));
+        assertFalse(future.isDone());
+
+        ticker.advance(TimeUnit.SECONDS.toNanos(1));
+        future.get(3, TimeUnit.SECONDS);
+        assertEquals("alert", client.next());
+        assertEquals(1, dispatcher.retriedCount());
+    }
+
+    @Test
+    public void waitsAsLongAsSlackAsksAfterRateLimiting() throws Exception {
+        final RecordingClient client = new RecordingClient(null);
+        final ManualTicker ticker = new ManualTicker();
+        final SlackDispatcher dispatcher = dispatcher(client, 1000, 100, ticker);
+        client.failures.set(1);
+        client.retryAfterMillis = 2000L;
+
+        final ListenableFuture<Void> future = dispatcher.submit(Priority.ALERT, withAttachment("alert"), "alert:1",
+                null, 0L, new DeliveryPolicy(0, 3, 0));
+        assertNull(client.sent.poll(100, TimeUnit.MILLISECONDS));
+        assertTrue(dispatcher.rateLimitedNanos(Priority.ALERT) > TimeUnit.SECONDS.toNanos(1));
+
+        // The backoff is over, but Slack asked for more.
+        ticker.advance(TimeUnit.SECONDS.toNanos(1));
+        assertNull(client.sent.poll(200, TimeUnit.MILLISECONDS));
+
+        ticker.advance(TimeUnit.SECONDS.toNanos(1));
+        future.get(5, TimeUnit.SECONDS);
+        assertEquals("alert", client.next());
+    }
+
+    @Test
+    public void failsWhenAttemptsAreUsedUp() throws Exception {
+        final RecordingClient client = new RecordingClient(null);
+        final ManualTicker ticker = new ManualTicker();
+        final SlackDispatcher dispatcher = dispatcher(client, 1000, 100, ticker);
+        client.failures.set(5);
+
+        final ListenableFuture<Void> future = dispatcher.submit(Priority.ALERT, withAttachment("alert"), null,
+                null, 0L, new DeliveryPolicy(0, 2, 0));
+        assertNull(client.sent.poll(100, TimeUnit.MILLISECONDS));
+        ticker.advance(TimeUnit.SECONDS.toNanos(1));
+        try {
+            future.get(3, TimeUnit.SECONDS);
+            fail("Expected delivery to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SlackClient.SlackClientException);
+        }
+        assertEquals(1, dispatcher.retriedCount());
+        assertEquals(3, client.failures.get());
+    }
+
+    @Test
+    public void doesNotRetryPostsWhichMayHaveReachedSlack() throws Exception {
+        final RecordingClient client = new RecordingClient(null);
+        final SlackDispatcher dispatcher = dispatcher(client, 1000, 100, new ManualTicker());
+        client.failures.set(1);
+        client.responseLost = true;
+
+        final ListenableFuture<Void> future = dispatcher.submit(Priority.ALERT, withAttachment("alert"), "alert:1",
+                null, 0L, new DeliveryPolicy(0, 3, 0));
+        try {
+            future.get(3, TimeUnit.SECONDS);
+            fail("Expected delivery to fail");
+        } catch (ExecutionException e) {
+            assertTrue(((SlackClient.SlackClientException) e.getCause()).mayHaveBeenPosted());
+        }
+        assertEquals(0, dispatcher.retriedCount());
+    }
+
+    @Test
+    public void hedgesSlowConnectionsWithoutPostingTwice() throws Exception {
+        final RecordingClient client = new RecordingClient(null);
+        final SlackDispatcher dispatcher = dispatcher(client, 1000, 100, Ticker.systemTicker());
+        final DeliveryPolicy policy = new DeliveryPolicy(0, 1, 90);
+        for (int i = 0; i < 20; i++) {
+            dispatcher.submit(Priority.ALERT, withAttachment("warm-up"), null, null, 0L, policy).get(1, TimeUnit.SECONDS);
+        }
+        client.sent.clear();
+
+        final CountDownLatch connected = new CountDownLatch(1);
+        client.stalledConnect.set(connected);
+        dispatcher.submit(Priority.ALERT, withAttachment("alert"), null, null, 0L, policy).get(1, TimeUnit.SECONDS);
+        assertEquals("alert", client.next());
+        assertEquals(1, dispatcher.hedgedCount());
+
+        // The first attempt gets connected eventually, but must not post the alert again.
+        connected.countDown();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (client.abandoned.get() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, client.abandoned.get());
+        assertTrue(client.sent.isEmpty());
+    }
+
+    @Test
+    public void waitsForSharedRateLimitWindow() throws Exception {
+        final RecordingClient client = new RecordingClient(null);
+        final ExhaustedCoordinator coordinator = new ExhaustedCoordinator();
+        final SlackDispatcher dispatcher = TestDispatchers.dispatcher(client, coordinator, 1000, 100, Ticker.systemTicker());
+
+        final ListenableFuture<Void> future = dispatcher.submit(Priority.ALERT, withAttachment("alert"));
+        assertNull(client.sent.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, dispatcher.queued(Priority.ALERT));
+
+        coordinator.exhausted = false;
+        future.get(2, TimeUnit.SECONDS);
+        assertEquals("alert", client.next());
+    }
+
+    @Test
+    public void sharesSendPermitsOfTheWebhook() throws Exception {
+        final Semaphore permits = new Semaphore(1);
+        final RecordingClient busyClient = new RecordingClient(new CountDownLatch(1));
+        final RecordingClient waitingClient = new RecordingClient(null);
+        final SlackDispatcher busy = dispatcher(busyClient, 1000, 100, Ticker.systemTicker());
+        final SlackDispatcher waiting = dispatcher(waitingClient, 1000, 100, Ticker.systemTicker());
+        busy.shareSendPermits(permits);
+        waiting.shareSendPermits(permits);
+
+        final ListenableFuture<Void> first = busy.submit(Priority.HIGH, plain("first"));
+        busyClient.awaitSending();
+        final ListenableFuture<Void> second = waiting.submit(Priority.HIGH, plain("second"));
+        assertNull(waitingClient.sent.poll(100, TimeUnit.MILLISECONDS));
+
+        busyClient.release();
+        first.get(1, TimeUnit.SECONDS);
+        second.get(1, TimeUnit.SECONDS);
+        assertEquals("second", waitingClient.next());
+        assertEquals(1, permits.availablePermits());
+    }
+
+    private static SlackDispatcher dispatcher(SlackClient client, double messagesPerSecond, int laneCapacity, Ticker ticker) {
+        return TestDispatchers.dispatcher(client, new InMemoryDeliveryCoordinator(), messagesPerSecond, laneCapacity, ticker);
+    }
+
+    private static void assertDropped(ListenableFuture<Void> future) throws InterruptedException {
+        try {
+            future.get();
+            fail("Expected message to be dropped");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof DeliveryDroppedException);
+        }
+    }
+
+    private static SlackMessage plain(String text) {
+        return new SlackMessage("#FF0000", null, null, text, "Graylog", "#channel", true);
+    }
+
+    private static SlackMessage toChannel(String channel, String text) {
+        return new SlackMessage("#FF0000", null, null, text, "Graylog", channel, true);
+    }
+
+    private static SlackMessage withBlock(String text) {
+        final SlackMessage message = plain(text);
+        message.addBlock(new SectionBlock(TextObject.markdown(text)));
+        return message;
+    }
+
+    private static SlackMessage withAttachment(String text) {
+        final SlackMessage message = plain(text);
+        message.setCustomMessage("custom");
+        return message;
+    }
+
+    private static class RecordingClient extends SlackClient {
+        private final BlockingQueue<String> sent = new LinkedBlockingQueue<>();
+        private final CountDownLatch sending = new CountDownLatch(1);
+        private final CountDownLatch release;
+        private final BlockingQueue<Integer> blockCounts = new LinkedBlockingQueue<>();
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicInteger inProgress = new AtomicInteger();
+        // Messages which are sent right away, even while the others wait to be released.
+        private final Set<String> exempt = new CopyOnWriteArraySet<>();
+        private volatile long retryAfterMillis;
+        // Failures happen after the message was sent, while waiting for the response.
+        private volatile boolean responseLost;
+        private final AtomicInteger abandoned = new AtomicInteger();
+        private final AtomicReference<CountDownLatch> stalledConnect = new AtomicReference<>();
+
+        RecordingClient(CountDownLatch release) {
+            super(new Configuration(ImmutableMap.<String, Object>of("webhook_url", "http://localhost/")));
+            this.release = release;
+        }
+
+        @Override
+        public boolean send(SlackMessage message, int timeoutMillis, WriteGate gate) throws SlackClientException {
+            final CountDownLatch stall = stalledConnect.getAndSet(null);
+            if (stall != null) {
+                await(stall);
+            }
+            if (gate != null && !gate.tryOpen()) {
+                abandoned.incrementAndGet();
+                return false;
+            }
+            if (failures.getAndDecrement() > 0) {
+                if (retryAfterMillis > 0) {
+                    throw new SlackClientException("Unexpected HTTP response status 429", 429, retryAfterMillis);
+                }
+                if (responseLost) {
+                    throw new SlackClientException("No response from Slack API to POST",
+                            new SocketTimeoutException("Read timed out"), true);
+                }
+                throw new SlackClientException("Unexpected HTTP response status 500");
+            }
+            sending.countDown();
+            if (release != null && !exempt.contains(message.getMessage())) {
+                inProgress.incrementAndGet();
+                await(release);
+            }
+            blockCounts.add(message.getBlocks().size());
+            sent.add(message.getMessage());
+            return true;
+        }
+
+        private static void await(CountDownLatch latch) {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void awaitSending() throws InterruptedException {
+            assertTrue(sending.await(1, TimeUnit.SECONDS));
+        }
+
+        void release() {
+            release.countDown();
+        }
+
+        String next() throws InterruptedException {
+            return sent.poll(1, TimeUnit.SECONDS);
+        }
+    }
+
+    private static class ExhaustedCoordinator extends InMemoryDeliveryCoordinator {
+        private volatile boolean exhausted = true;
+
+        @Override
+        public long tryAcquire(String key, int permitsPerWindow, int reserved) {
+            return exhausted ? 200L : super.tryAcquire(key, permitsPerWindow, reserved);
+        }
+    }
+
+    private static class ManualTicker extends Ticker {
+        private volatile long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long delta) {
+            nanos += delta;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.graylog2.plugins.slack.dispatch;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import org.graylog2.plugin.configuration.Configuration;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class SlackDispatchersTest {
+
+    @Test
+    public void keepsClusterCoordinatedDispatchersApart() {
+        final SlackDispatchers dispatchers = new SlackDispatchers();
+        final Configuration local = configuration(false);
+        final Configuration coordinated = configuration(true);
+
+        final SlackDispatcher localDispatcher = dispatchers.forConfiguration(local);
+        final SlackDispatcher coordinatedDispatcher = dispatchers.forConfiguration(coordinated);
+        assertNotSame(localDispatcher, coordinatedDispatcher);
+        assertSame(localDispatcher, dispatchers.forConfiguration(local));
+        assertSame(coordinatedDispatcher, dispatchers.forConfiguration(coordinated));
+        assertNotSame(dispatchers.pool(local), dispatchers.pool(coordinated));
+    }
+
+    @Test
+    public void sharesRateWindowOfWebhookAcrossCoordinationModes() {
+        final SlackDispatchers dispatchers = new SlackDispatchers();
+
+        final SlackDispatcher localDispatcher = dispatchers.forConfiguration(configuration(false));
+        final SlackDispatcher coordinatedDispatcher = dispatchers.forConfiguration(configuration(true));
+        assertSame(localDispatcher.rateWindow(), coordinatedDispatcher.rateWindow());
+    }
+
+    @Test
+    public void dropsDispatchersSomeTimeAfterTheLastUserReleasedThem() {
+        final ManualTicker ticker = new ManualTicker();
+        final SlackDispatchers dispatchers = new SlackDispatchers(null, ticker);
+        final SlackDispatcher first = dispatchers.forConfiguration(configuration(false));
+        final SlackDispatcher second = dispatchers.forConfiguration(configuration(false));
+        final PartitionedDispatcher partitioned = dispatchers.partitioned(configuration(false));
+        assertEquals(1 + PartitionedDispatcher.DEFAULT_PARTITIONS, dispatchers.summaries().size());
+
+        dispatchers.release(first);
+        dispatchers.release(partitioned);
+        ticker.advance(SlackDispatchers.UNUSED_RETENTION_NANOS);
+        dispatchers.sweep();
+        assertEquals(1, dispatchers.summaries().size());
+        assertSame(first, dispatchers.forConfiguration(configuration(false)));
+
+        dispatchers.release(first);
+        dispatchers.release(second);
+        dispatchers.sweep();
+        assertSame(first, dispatchers.forConfiguration(configuration(false)));
+
+        dispatchers.release(first);
+        ticker.advance(SlackDispatchers.UNUSED_RETENTION_NANOS);
+        dispatchers.sweep();
+        assertEquals(0, dispatchers.summaries().size());
+        assertNotSame(first, dispatchers.forConfiguration(configuration(false)));
+        assertNotSame(partitioned, dispatchers.partitioned(configuration(false)));
+    }
+
+    private static Configuration configuration(boolean clusterCoordination) {
+        return new Configuration(ImmutableMap.<String, Object>of(
+                "webhook_url", "https://hooks.example.org/services/T0/B0/secret",
+                "cluster_coordination", clusterCoordination));
+    }
+
+    private static class ManualTicker extends Ticker {
+        private volatile long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long delta) {
+            nanos += delta;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package org.graylog2.plugins.slack.dispatch;
+
+import com.google.common.base.Ticker;
+import org.graylog2.plugins.slack.SlackClient;
+import org.graylog2.plugins.slack.coordination.DeliveryCoordinator;
+import org.graylog2.plugins.slack.coordination.InMemoryDeliveryCoordinator;
+
+/**
+ * Creates dispatchers for tests, posting to a webhook named {@code webhook}.
+ */
+public final class TestDispatchers {
+
+    private TestDispatchers() {
+    }
+
+    public static SlackDispatcher dispatcher(SlackClient client) {
+        return dispatcher(client, new InMemoryDeliveryCoordinator(), 1000, 100, Ticker.systemTicker());
+    }
+
+    public static SlackDispatcher dispatcher(SlackClient client, DeliveryCoordinator coordinator,
+                                             double messagesPerSecond, int laneCapacity, Ticker ticker) {
+        return new SlackDispatcher(client, "webhook", coordinator, messagesPerSecond, laneCapacity, ticker);
+    }
+}
@@ -0,0 +1,170 @@
+package org.graylog2.plugins.slack.dispatch;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugins.slack.SlackClient;
+import org.graylog2.plugins.slack.SlackMessage;
+import org.graylog2.plugins.slack.coordination.DeliveryCoordinator;
+import org.graylog2.plugins.slack.coordination.InMemoryDeliveryCoordinator;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WebhookPoolTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        release.countDown();
+    }
+
+    @Test
+    public void takesTurnsBetweenIdleWebhooks() {
+        final SlackDispatcher first = dispatcher(new StubClient(null, false), new InMemoryDeliveryCoordinator(), Ticker.systemTicker());
+        final SlackDispatcher second = dispatcher(new StubClient(null, false), new InMemoryDeliveryCoordinator(), Ticker.systemTicker());
+        final WebhookPool pool = new WebhookPool(ImmutableList.of(first, second));
+
+        final SlackDispatcher selected = pool.select(Priority.BULK);
+        assertTrue(selected != pool.select(Priority.BULK));
+        assertSame(selected, pool.select(Priority.BULK));
+    }
+
+    @Test
+    public void prefersWebhooksWithShorterQueues() throws Exception {
+        final StubClient busyClient = new StubClient(release, false);
+        final SlackDispatcher busy = dispatcher(busyClient, new InMemoryDeliveryCoordinator(), Ticker.systemTicker());
+        final SlackDispatcher idle = dispatcher(new StubClient(null, false), new InMemoryDeliveryCoordinator(), Ticker.systemTicker());
+        final WebhookPool pool = new WebhookPool(ImmutableList.of(busy, idle));
+
+        busy.submit(Priority.ALERT, plain("sending"));
+        busyClient.awaitSending();
+        busy.submit(Priority.ALERT, plain("queued"));
+
+        for (int i = 0; i < 4; i++) {
+            assertSame(idle, pool.select(Priority.BULK));
+        }
+    }
+
+    @Test
+    public void skipsRateLimitedWebhooks() throws Exception {
+        final StubClient busyClient = new StubClient(release, false);
+        final SlackDispatcher busy = dispatcher(busyClient, new InMemoryDeliveryCoordinator(), Ticker.systemTicker());
+        final SlackDispatcher limited = dispatcher(new StubClient(null, false), new ExhaustedCoordinator(), Ticker.systemTicker());
+        final WebhookPool pool = new WebhookPool(ImmutableList.of(busy, limited));
+
+        busy.submit(Priority.ALERT, plain("sending"));
+        busyClient.awaitSending();
+        busy.submit(Priority.ALERT, plain("queued-1"));
+        busy.submit(Priority.ALERT, plain("queued-2"));
+        limited.submit(Priority.ALERT, plain("limited"));
+        while (limited.rateLimitedNanos(Priority.BULK) <= 0) {
+            Thread.sleep(10);
+        }
+
+        for (int i = 0; i < 4; i++) {
+            assertSame(busy, pool.select(Priority.BULK));
+        }
+    }
+
+    @Test
+    public void ejectsFailingWebhooksForAWhile() throws Exception {
+        final ManualTicker ticker = new ManualTicker();
+        final SlackDispatcher failing = dispatcher(new StubClient(null, true), new InMemoryDeliveryCoordinator(), ticker);
+        final SlackDispatcher healthy = dispatcher(new StubClient(null, false), new InMemoryDeliveryCoordinator(), ticker);
+        final WebhookPool pool = new WebhookPool(ImmutableList.of(failing, healthy));
+
+        for (int i = 0; i < WebhookPool.FAILURES_TO_EJECT; i++) {
+            assertFailed(failing.submit(Priority.ALERT, plain("failing-" + i)));
+        }
+        assertEquals(WebhookPool.FAILURES_TO_EJECT, failing.consecutiveFailures());
+        for (int i = 0; i < 4; i++) {
+            assertSame(healthy, pool.select(Priority.BULK));
+        }
+
+        // Once the ejection is over, the webhook takes turns again until its next failure.
+        ticker.advance(WebhookPool.EJECTION_NANOS + 1);
+        final SlackDispatcher selected = pool.select(Priority.BULK);
+        assertTrue(selected == failing || pool.select(Priority.BULK) == failing);
+    }
+
+    private static SlackDispatcher dispatcher(SlackClient client, DeliveryCoordinator coordinator, Ticker ticker) {
+        return TestDispatchers.dispatcher(client, coordinator, 1000, 100, ticker);
+    }
+
+    private static SlackMessage plain(String text) {
+        return new SlackMessage("#FF0000", null, null, text, "Graylog", "#channel", true);
+    }
+
+    private static void assertFailed(ListenableFuture<Void> future) throws Exception {
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("Expected the post to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SlackClient.SlackClientException);
+        }
+    }
+
+    private static class StubClient extends SlackClient {
+        private final CountDownLatch sending = new CountDownLatch(1);
+        private final CountDownLatch release;
+        private final boolean failing;
+
+        StubClient(CountDownLatch release, boolean failing) {
+            super(new Configuration(ImmutableMap.<String, Object>of("webhook_url", "http://localhost/")));
+            this.release = release;
+            this.failing = failing;
+        }
+
+        @Override
+        public boolean send(SlackMessage message, int timeoutMillis, WriteGate gate) throws SlackClientException {
+            if (failing) {
+                throw new SlackClientException("Unexpected HTTP response status 500", 500);
+            }
+            sending.countDown();
+            if (release != null) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return true;
+        }
+
+        void awaitSending() throws InterruptedException {
+            assertTrue(sending.await(1, TimeUnit.SECONDS));
+        }
+    }
+
+    private static class ExhaustedCoordinator extends InMemoryDeliveryCoordinator {
+        @Override
+        public long tryAcquire(String key, int permitsPerWindow, int reserved) {
+            return 10000L;
+        }
+    }
+
+    private static class ManualTicker extends Ticker {
+        private volatile long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long delta) {
+            nanos += delta;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.graylog2.plugins.slack.output;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Tools;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ChannelRouterTest {
+
+    @Test
+    public void doesNotRouteStaticChannels() {
+        assertNull(ChannelRouter.compile("#graylog", null));
+        assertNull(ChannelRouter.compile(null, null));
+    }
+
+    @Test
+    public void resolvesChannelFromFields() {
+        final ChannelRouter router = ChannelRouter.compile("#${team}-alerts-${ env }", null);
+        assertEquals(ImmutableList.of("team", "env"), router.getFields());
+
+        final Message message = message();
+        message.addField("team", "Payments");
+        message.addField("env", "prod");
+        assertEquals("#payments-alerts-prod", router.resolve(message));
+    }
+
+    @Test
+    public void sanitizesFieldValues() {
+        final ChannelRouter router = ChannelRouter.compile("#team-${team}", null);
+
+        final Message message = message();
+        message.addField("team", "Ops & SRE/EU");
+        assertEquals("#team-ops---sre-eu", router.resolve(message));
+
+        message.addField("team", Strings.repeat("x", 100));
+        assertEquals(80, router.resolve(message).length());
+    }
+
+    @Test
+    public void usesFallbackChannelIfFieldIsMissing() {
+        assertEquals("#unrouted", ChannelRouter.compile("#team-${team}", "#unrouted").resolve(message()));
+        assertNull(ChannelRouter.compile("#team-${team}", "").resolve(message()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnclosedPlaceholders() {
+        ChannelRouter.compile("#team-${team", null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyPlaceholders() {
+        ChannelRouter.compile("#team-${ }", null);
+    }
+
+    private static Message message() {
+        return new Message("Test message", "source", Tools.nowUTC());
+    }
+}
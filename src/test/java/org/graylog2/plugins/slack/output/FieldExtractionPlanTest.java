@@ -0,0 +1,93 @@
+package org.graylog2.plugins.slack.output;
+
+import com.floreysoft.jmte.Engine;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.bson.types.ObjectId;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.streams.StreamImpl;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FieldExtractionPlanTest {
+
+    private final Engine engine = Engine.createDefaultEngine();
+    private final Stream stream = new StreamImpl(new ObjectId(), ImmutableMap.<String, Object>of(
+            "title", "Errors", "description", "All errors"), Collections.emptyList(), Collections.emptySet());
+
+    @Test
+    public void rendersTemplatesLikeTheMessageItself() {
+        final Message msg = message();
+        final String template = "${stream.title}: ${message.source} ${message.fields.user}" +
+                "${if message.fields.missing} missing${end} ${message.message}";
+
+        final FieldExtractionPlan plan = FieldExtractionPlan.compile(
+                ImmutableList.<String>of(), engine.getUsedVariables(template), stream);
+
+        assertTrue(plan.messageModel(msg) instanceof Map);
+        assertEquals(render(template, stream, msg), render(template, plan.streamModel(), plan.messageModel(msg)));
+    }
+
+    @Test
+    public void passesTheMessageForUnknownProperties() {
+        final Message msg = message();
+        final String template = "${message.fieldNames} ${stream}";
+
+        final FieldExtractionPlan plan = FieldExtractionPlan.compile(
+                ImmutableList.<String>of(), engine.getUsedVariables(template), stream);
+
+        assertSame(msg, plan.messageModel(msg));
+        assertSame(stream, plan.streamModel());
+    }
+
+    @Test
+    public void extractsConfiguredDetailsInOrder() {
+        final FieldExtractionPlan plan = FieldExtractionPlan.compile(
+                FieldExtractionPlan.parseFieldList(" user, missing ,facility"), Collections.<String>emptySet(), stream);
+
+        final List<Map.Entry<String, Object>> details = plan.details(message());
+
+        assertEquals(2, details.size());
+        assertEquals("user", details.get(0).getKey());
+        assertEquals("facility", details.get(1).getKey());
+        assertEquals("kernel", details.get(1).getValue());
+    }
+
+    @Test
+    public void extractsAllUnreservedFieldsByDefault() {
+        final FieldExtractionPlan plan = FieldExtractionPlan.compile(
+                ImmutableList.<String>of(), Collections.<String>emptySet(), stream);
+
+        final Map<String, Object> details = new HashMap<>();
+        for (Map.Entry<String, Object> field : plan.details(message())) {
+            details.put(field.getKey(), field.getValue());
+        }
+
+        assertEquals(ImmutableMap.<String, Object>of("user", "alice", "facility", "kernel"), details);
+    }
+
+    private String render(String template, Object stream, Object msg) {
+        final Map<String, Object> model = new HashMap<>();
+        model.put("stream", stream);
+        model.put("message", msg);
+        return engine.transform(template, model);
+    }
+
+    private static Message message() {
+        final Message msg = new Message("Disk full", "example.org", new DateTime(2016, 4, 1, 12, 0, DateTimeZone.UTC));
+        msg.addField("user", "alice");
+        msg.addField("facility", "kernel");
+        return msg;
+    }
+}
@@ -0,0 +1,53 @@
+package org.graylog2.plugins.slack.output;
+
+import org.graylog2.plugin.Message;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MessageBodyFormatterTest {
+    private static final DateTimeZone ZONE = DateTimeZone.forID("Europe/Berlin");
+
+    @Test
+    public void formatsShortMessages() {
+        final MessageBodyFormatter formatter = new MessageBodyFormatter("", null, "_Stream_", ZONE);
+        final DateTime timestamp = new DateTime(2017, 3, 1, 12, 34, 56, DateTimeZone.UTC);
+
+        final String expectedTime = timestamp.toDateTime(ZONE).toString(DateTimeFormat.shortTime());
+        assertEquals(expectedTime + ": first", formatter.formatShort(new Message("first", "source", timestamp)));
+        assertEquals(expectedTime + ": second", formatter.formatShort(new Message("second", "source", timestamp.plusSeconds(3))));
+    }
+
+    @Test
+    public void shortTimeFollowsMinuteChanges() {
+        final MessageBodyFormatter formatter = new MessageBodyFormatter("", null, "_Stream_", ZONE);
+        final DateTime timestamp = new DateTime(2017, 3, 26, 0, 59, 59, DateTimeZone.UTC);
+
+        formatter.formatShort(new Message("before", "source", timestamp));
+        final DateTime next = timestamp.plusSeconds(1);
+        final String expectedTime = next.toDateTime(ZONE).toString(DateTimeFormat.shortTime());
+        assertEquals(expectedTime + ": after", formatter.formatShort(new Message("after", "source", next)));
+    }
+
+    @Test
+    public void formatsFullMessagesWithLink() {
+        final MessageBodyFormatter formatter = new MessageBodyFormatter("@channel ",
+                "http://graylog.example.com/messages/graylog_deflector/", "<http://graylog.example.com/streams/1|Stream>", ZONE);
+        final Message message = new Message("text", "source", DateTime.now(DateTimeZone.UTC));
+
+        assertEquals("@channel *<http://graylog.example.com/messages/graylog_deflector/" + message.getId() + "|New message>"
+                        + " in Graylog stream <http://graylog.example.com/streams/1|Stream>*:\n> text",
+                formatter.formatFull(message));
+    }
+
+    @Test
+    public void formatsFullMessagesWithoutLink() {
+        final MessageBodyFormatter formatter = new MessageBodyFormatter("", null, "_Stream_", ZONE);
+        final Message message = new Message("text", "source", DateTime.now(DateTimeZone.UTC));
+
+        assertEquals("*New message in Graylog stream _Stream_*:\n> text", formatter.formatFull(message));
+    }
+}
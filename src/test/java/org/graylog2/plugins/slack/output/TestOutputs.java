@@ -0,0 +1,41 @@
+package org.graylog2.plugins.slack.output;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import org.bson.types.ObjectId;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.outputs.MessageOutputConfigurationException;
+import org.graylog2.plugin.streams.Output;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.plugin.streams.StreamRule;
+import org.graylog2.plugins.slack.dispatch.SlackDispatchers;
+import org.graylog2.plugins.slack.recovery.RecoveryStore;
+import org.graylog2.plugins.slack.stats.DeliveryStatistics;
+import org.graylog2.streams.StreamImpl;
+
+import java.nio.file.Path;
+import java.util.Collections;
+
+/**
+ * Creates outputs for tests which share the singletons of one Graylog node, like the outputs Graylog creates.
+ */
+public class TestOutputs {
+
+    public final SlackDispatchers dispatchers = new SlackDispatchers();
+    public final DeliveryStatistics statistics = new DeliveryStatistics(new MetricRegistry());
+    public final OutputRegistry registry = new OutputRegistry();
+    public final RecoveryStore store;
+
+    public TestOutputs(Path recoveryDirectory) {
+        this.store = new RecoveryStore(recoveryDirectory);
+    }
+
+    public SlackMessageOutput create(Stream stream, Configuration configuration) throws MessageOutputConfigurationException {
+        return new SlackMessageOutput(stream, configuration, dispatchers, statistics, store, registry);
+    }
+
+    public static Stream stream() {
+        return new StreamImpl(new ObjectId(), ImmutableMap.<String, Object>of("title", "Stream"),
+                Collections.<StreamRule>emptyList(), Collections.<Output>emptySet());
+    }
+}
@@ -0,0 +1,80 @@
+package org.graylog2.plugins.slack.recovery;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugins.slack.SlackMessage;
+import org.graylog2.plugins.slack.blocks.SectionBlock;
+import org.graylog2.plugins.slack.blocks.TextObject;
+import org.graylog2.plugins.slack.dispatch.Priority;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RecoveryStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path directory;
+    private RecoveryStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = temporaryFolder.getRoot().toPath().resolve("slack-recovery");
+        store = new RecoveryStore(directory);
+    }
+
+    @Test
+    public void restoresSpilledNotifications() {
+        final SlackMessage message = new SlackMessage("#FF0000", "ghost", null, "text", "Graylog", "#channel", true);
+        message.setCustomMessage("custom");
+        message.addDetailsAttachmentField(new SlackMessage.AttachmentField("Source", "example.org", true));
+        message.addBlock(new SectionBlock(TextObject.markdown("*text*")));
+
+        store.spill("output:stream:abc", ImmutableList.of(PendingNotification.of(Priority.HIGH, message, "message:1", 42L)));
+        final List<PendingNotification> restored = store.takeAll("output:stream:abc");
+
+        assertEquals(1, restored.size());
+        assertEquals(Priority.HIGH, restored.get(0).priority);
+        assertEquals("message:1", restored.get(0).dedupKey);
+        assertEquals(42L, restored.get(0).eventMillis);
+        assertEquals(message.getJsonString(), restored.get(0).toSlackMessage().getJsonString());
+        assertTrue(store.takeAll("output:stream:abc").isEmpty());
+    }
+
+    @Test
+    public void keepsNotificationsOfOutputsApart() {
+        store.spill("output:stream:a", Collections.singletonList(notification("a")));
+        store.spill("output:stream:b", Collections.singletonList(notification("b")));
+
+        assertEquals("a", store.takeAll("output:stream:a").get(0).text);
+        assertEquals("b", store.takeAll("output:stream:b").get(0).text);
+    }
+
+    @Test
+    public void skipsIncompleteLines() throws Exception {
+        store.spill("output:stream:abc", Collections.singletonList(notification("complete")));
+        final Path file = directory.resolve("output_stream_abc.json");
+        Files.write(file, "{\"priority\":\"BU".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        final List<PendingNotification> restored = store.takeAll("output:stream:abc");
+
+        assertEquals(1, restored.size());
+        assertEquals("complete", restored.get(0).text);
+    }
+
+    private static PendingNotification notification(String text) {
+        final SlackMessage message = new SlackMessage("#FF0000", null, null, text, "Graylog", "#channel", false);
+        return PendingNotification.of(Priority.BULK, message, null, 0L);
+    }
+}
@@ -0,0 +1,332 @@
+package org.graylog2.plugins.slack.simulator;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Imitates a Slack incoming webhook on the loopback interface, so posting can be tested without network access.
+ * <p>
+ * Every request waits for the configured latency and is then answered like Slack does: with {@code ok}, with a 429
+ * and a {@code Retry-After} header when rate limited, or with a 500. The bodies of accepted posts are recorded.
+ * <p>
+ * Calls to {@code /api/<method>} are answered with the JSON given to {@link #webApi(String, String)} and bodies sent
+ * to {@code /upload/<id>} are kept, which covers the file upload flow of the Web API.
+ */
+public class SlackWebhookSimulator implements Closeable {
+
+    private static final byte[] OK = "ok".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RATE_LIMITED = "rate_limited".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SERVER_ERROR = "internal_error".getBytes(StandardCharsets.UTF_8);
+
+    private final Random random;
+    private final ConcurrentLinkedQueue<String> payloads = new ConcurrentLinkedQueue<>();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final ConcurrentLinkedQueue<Request> requests = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<String> apiCalls = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<String> uploads = new ConcurrentLinkedQueue<>();
+    private final Map<String, byte[]> apiResponses = new ConcurrentHashMap<>();
+
+    private volatile long latencyMillis;
+    private volatile double rateLimitRate;
+    private volatile int retryAfterSeconds = 1;
+    private volatile double errorRate;
+    private volatile boolean recordPayloads = true;
+    private volatile int refusalStatus;
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public SlackWebhookSimulator() {
+        this(new Random());
+    }
+
+    /**
+     * @param random decides which requests fail, seed it for reproducible runs
+     */
+    public SlackWebhookSimulator(Random random) {
+        this.random = random;
+    }
+
+    public SlackWebhookSimulator latency(long millis) {
+        this.latencyMillis = millis;
+        return this;
+    }
+
+    /**
+     * Answers the given share of requests (0-1) with HTTP 429 and a {@code Retry-After} header.
+     */
+    public SlackWebhookSimulator rateLimit(double rate, int retryAfterSeconds) {
+        this.rateLimitRate = rate;
+        this.retryAfterSeconds = retryAfterSeconds;
+        return this;
+    }
+
+    /**
+     * Answers the given share of requests (0-1) with HTTP 500.
+     */
+    public SlackWebhookSimulator errors(double rate) {
+        this.errorRate = rate;
+        return this;
+    }
+
+    /**
+     * Keeps only the counters, for long runs which would otherwise fill the heap with payloads.
+     */
+    public SlackWebhookSimulator discardPayloads() {
+        this.recordPayloads = false;
+        return this;
+    }
+
+    /**
+     * Answers every post with the given status instead of accepting it.
+     */
+    public SlackWebhookSimulator refuse(int status) {
+        this.refusalStatus = status;
+        return this;
+    }
+
+    /**
+     * Keeps webhook requests waiting until {@link #release()} is called.
+     */
+    public SlackWebhookSimulator hold() {
+        this.gate = new CountDownLatch(1);
+        return this;
+    }
+
+    public SlackWebhookSimulator release() {
+        gate.countDown();
+        return this;
+    }
+
+    /**
+     * Answers calls of the given Web API method, e.g. {@code files.completeUploadExternal}, with the JSON response.
+     */
+    public SlackWebhookSimulator webApi(String method, String response) {
+        apiResponses.put(method, response.getBytes(StandardCharsets.UTF_8));
+        return this;
+    }
+
+    public SlackWebhookSimulator start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    respond(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("slack-simulator-%d")
+                .setDaemon(true)
+                .build());
+        server.setExecutor(executor);
+        server.start();
+        return this;
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        final byte[] body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = ByteStreams.toByteArray(in);
+        }
+        requests.add(new Request(exchange.getRequestMethod(), exchange.getRequestHeaders()));
+
+        final String path = exchange.getRequestURI().getPath();
+        if (path.startsWith("/api/")) {
+            respondToApiCall(exchange, path.substring("/api/".length()), body);
+            return;
+        } else if (path.startsWith("/upload/")) {
+            uploads.add(new String(body, StandardCharsets.UTF_8));
+            send(exchange, 200, OK);
+            return;
+        }
+
+        try {
+            gate.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        final double roll;
+        synchronized (random) {
+            roll = random.nextDouble();
+        }
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            send(exchange, 400, SERVER_ERROR);
+        } else if (refusalStatus > 0) {
+            failed.incrementAndGet();
+            send(exchange, refusalStatus, SERVER_ERROR);
+        } else if (roll < rateLimitRate) {
+            rateLimited.incrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSeconds));
+            send(exchange, 429, RATE_LIMITED);
+        } else if (roll < rateLimitRate + errorRate) {
+            failed.incrementAndGet();
+            send(exchange, 500, SERVER_ERROR);
+        } else {
+            accepted.incrementAndGet();
+            if (recordPayloads) {
+                payloads.add(new String(body, StandardCharsets.UTF_8));
+            }
+            send(exchange, 200, OK);
+        }
+    }
+
+    private void respondToApiCall(HttpExchange exchange, String method, byte[] body) throws IOException {
+        apiCalls.add(exchange.getRequestHeaders().getFirst("Authorization") + '|' + new String(body, StandardCharsets.UTF_8));
+        final byte[] response = apiResponses.get(method);
+        if (response == null) {
+            send(exchange, 404, SERVER_ERROR);
+        } else {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            send(exchange, 200, response);
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    public String webhookUrl() {
+        return url("/services/T000/B000/XXXX");
+    }
+
+    /**
+     * @return the base URL of the Web API, with a trailing slash
+     */
+    public String apiUrl() {
+        return url("/api/");
+    }
+
+    public String url(String path) {
+        return "http://127.0.0.1:" + port() + path;
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    public List<String> payloads() {
+        return new ArrayList<>(payloads);
+    }
+
+    /**
+     * Waits until the given number of posts have been accepted.
+     *
+     * @return whether they were accepted in time
+     */
+    public boolean awaitPayloads(int count, long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (payloads.size() < count) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * @return every request received, including Web API calls and uploads
+     */
+    public List<Request> requests() {
+        return new ArrayList<>(requests);
+    }
+
+    /**
+     * @return the {@code Authorization} header and form of every Web API call, separated by {@code |}
+     */
+    public List<String> apiCalls() {
+        return new ArrayList<>(apiCalls);
+    }
+
+    public List<String> uploads() {
+        return new ArrayList<>(uploads);
+    }
+
+    public long acceptedCount() {
+        return accepted.get();
+    }
+
+    public long rateLimitedCount() {
+        return rateLimited.get();
+    }
+
+    public long failedCount() {
+        return failed.get();
+    }
+
+    @Override
+    public void close() {
+        gate.countDown();
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public static class Request {
+        private final String method;
+        private final Headers headers = new Headers();
+
+        Request(String method, Headers headers) {
+            this.method = method;
+            this.headers.putAll(headers);
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getHeader(String name) {
+            return headers.getFirst(name);
+        }
+    }
+}
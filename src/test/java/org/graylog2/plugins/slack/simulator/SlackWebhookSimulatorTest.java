@@ -0,0 +1,101 @@
+package org.graylog2.plugins.slack.simulator;
+
+import com.google.common.collect.ImmutableMap;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugins.slack.SlackClient;
+import org.graylog2.plugins.slack.SlackMessage;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SlackWebhookSimulatorTest {
+
+    private SlackWebhookSimulator simulator;
+
+    @After
+    public void tearDown() {
+        simulator.close();
+    }
+
+    @Test
+    public void recordsAcceptedPosts() throws Exception {
+        simulator = new SlackWebhookSimulator(new Random(0)).start();
+
+        client().send(message("hello"));
+
+        assertEquals(1, simulator.acceptedCount());
+        assertEquals(1, simulator.payloads().size());
+        assertTrue(simulator.payloads().get(0).contains("\"text\":\"hello\""));
+    }
+
+    @Test
+    public void rateLimitsWithRetryAfter() throws Exception {
+        simulator = new SlackWebhookSimulator(new Random(0)).rateLimit(1.0d, 7).start();
+
+        final HttpURLConnection conn = (HttpURLConnection) new URL(simulator.webhookUrl()).openConnection();
+        conn.setDoOutput(true);
+        conn.setRequestMethod("POST");
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write("{}".getBytes("UTF-8"));
+        }
+
+        assertEquals(429, conn.getResponseCode());
+        assertEquals("7", conn.getHeaderField("Retry-After"));
+        assertEquals(1, simulator.rateLimitedCount());
+        assertTrue(simulator.payloads().isEmpty());
+    }
+
+    @Test
+    public void failsWithServerErrors() throws Exception {
+        simulator = new SlackWebhookSimulator(new Random(0)).errors(1.0d).latency(20).start();
+
+        final long started = System.nanoTime();
+        try {
+            client().send(message("hello"));
+            fail("Expected the post to fail");
+        } catch (SlackClient.SlackClientException expected) {
+            assertTrue(System.nanoTime() - started >= 20_000_000L);
+        }
+        assertEquals(1, simulator.failedCount());
+    }
+
+    @Test
+    public void holdsPostsUntilReleased() throws Exception {
+        simulator = new SlackWebhookSimulator(new Random(0)).hold().start();
+
+        final Thread posting = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    client().send(message("held"));
+                } catch (SlackClient.SlackClientException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        posting.start();
+        assertFalse(simulator.awaitPayloads(1, 200, TimeUnit.MILLISECONDS));
+
+        simulator.release();
+        assertTrue(simulator.awaitPayloads(1, 5, TimeUnit.SECONDS));
+        posting.join(5000);
+    }
+
+    private SlackClient client() {
+        return new SlackClient(new Configuration(ImmutableMap.<String, Object>of("webhook_url", simulator.webhookUrl())));
+    }
+
+    private static SlackMessage message(String text) {
+        return new SlackMessage("#FF0000", null, null, text, "Graylog", "#channel", true);
+    }
+}
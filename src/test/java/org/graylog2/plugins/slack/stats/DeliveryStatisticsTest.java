@@ -0,0 +1,70 @@
+package org.graylog2.plugins.slack.stats;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class DeliveryStatisticsTest {
+
+    @Test
+    public void countsSloBreaches() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final DeliveryStatistics statistics = new DeliveryStatistics(metricRegistry);
+        final DeliveryStats stats = statistics.forSender("output:stream:abc", 1000);
+
+        stats.recordQueueing(TimeUnit.MILLISECONDS.toNanos(20));
+        stats.recordDelivered(System.currentTimeMillis());
+        stats.recordDelivered(System.currentTimeMillis() - 5000);
+        stats.recordBlocked(TimeUnit.MILLISECONDS.toNanos(5));
+        stats.recordRejected();
+
+        final DeliveryStats.Summary summary = statistics.summaries().get("output:stream:abc");
+        assertEquals(1000L, summary.sloMillis);
+        assertEquals(1L, summary.sloBreaches);
+        assertEquals(2L, summary.endToEnd.count);
+        assertEquals(20L, summary.queueing.max);
+        assertEquals(1L, summary.blocked);
+        assertEquals(1L, summary.rejected);
+        assertEquals(1L, metricRegistry.counter(DeliveryStats.metricName("output:stream:abc", "slo-breaches")).getCount());
+        assertEquals(2L, metricRegistry.histogram(DeliveryStats.metricName("output:stream:abc", "latency-end-to-end")).getCount());
+    }
+
+    @Test
+    public void countsFailuresByStatus() {
+        final DeliveryStatistics statistics = new DeliveryStatistics(new MetricRegistry());
+        final DeliveryStats stats = statistics.forSender("output:stream:abc", 1000);
+
+        stats.recordFailed(429);
+        stats.recordFailed(429);
+        stats.recordFailed(0);
+
+        final DeliveryStats.Summary summary = statistics.summaries().get("output:stream:abc");
+        assertEquals(Long.valueOf(2L), summary.failures.get("429"));
+        assertEquals(Long.valueOf(1L), summary.failures.get("connection"));
+    }
+
+    @Test
+    public void countsFailedUploadsApartFromFailedPosts() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final DeliveryStats stats = new DeliveryStatistics(metricRegistry).forSender("alert:stream:abc", 1000);
+
+        stats.recordUploadFailed();
+
+        assertEquals(Long.valueOf(1L), stats.summary().failures.get("upload"));
+        assertEquals(1L, metricRegistry.meter(DeliveryStats.metricName("alert:stream:abc", "upload-failed")).getCount());
+        assertEquals(0L, metricRegistry.meter(DeliveryStats.metricName("alert:stream:abc", "failed")).getCount());
+    }
+
+    @Test
+    public void keepsStatisticsOfRecreatedSenders() {
+        final DeliveryStatistics statistics = new DeliveryStatistics(new MetricRegistry());
+        final DeliveryStats first = statistics.forSender("alert:stream:abc", 1000);
+
+        assertSame(first, statistics.forSender("alert:stream:abc", 2000));
+        assertEquals(2000L, statistics.summaries().get("alert:stream:abc").sloMillis);
+    }
+}
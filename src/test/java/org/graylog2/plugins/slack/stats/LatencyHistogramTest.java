@@ -0,0 +1,61 @@
+package org.graylog2.plugins.slack.stats;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0L, histogram.count());
+        assertEquals(0L, histogram.percentile(99));
+        assertEquals(0L, histogram.max());
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 50; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(50L, histogram.count());
+        assertEquals(25L, histogram.percentile(50));
+        assertEquals(45L, histogram.percentile(90));
+        assertEquals(50L, histogram.max());
+    }
+
+    @Test
+    public void largeValuesStayWithinRelativeError() {
+        for (long value = 64; value < LatencyHistogram.MAX_VALUE; value = value * 3 + 7) {
+            final int index = LatencyHistogram.indexOf(value);
+            final long upperBound = LatencyHistogram.upperBoundOf(index);
+
+            assertTrue(value + " above bucket " + upperBound, value <= upperBound);
+            assertTrue(value + " too far below bucket " + upperBound, upperBound - value <= value / 32);
+            assertEquals(index + 1, LatencyHistogram.indexOf(upperBound + 1));
+        }
+    }
+
+    @Test
+    public void percentileIsCappedByMax() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+
+        assertEquals(1000L, histogram.percentile(99));
+    }
+
+    @Test
+    public void clampsOutOfRangeValues() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(0L, histogram.percentile(50));
+        assertEquals(LatencyHistogram.MAX_VALUE, histogram.max());
+    }
+}